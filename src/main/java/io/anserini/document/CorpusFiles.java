@@ -0,0 +1,318 @@
+package io.anserini.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds the files of a collection: walks the directory tree under a root, with
+ * one fork/join task per directory so that large trees on network storage are
+ * listed in parallel. Returns the matching files largest first: workers that
+ * take files in that order start on the long files early and finish with short
+ * ones, instead of a single large file keeping one worker busy after all others
+ * are done. Or streams them to a queue as they are found, so that work starts
+ * before the walk is over.
+ *
+ * <p>Files are selected by a {@link PathMatcher}, tried against both the path
+ * relative to the root and the file name; see {@link #matcher(String)}.
+ * Symbolic links to files are followed, those to directories are not.</p>
+ */
+public final class CorpusFiles {
+  private static final Logger LOG = LogManager.getLogger(CorpusFiles.class);
+
+  private static final DirectoryStream.Filter<Path> ACCEPT_ALL = new DirectoryStream.Filter<Path>() {
+    @Override
+    public boolean accept(Path entry) {
+      return true;
+    }
+  };
+
+  private final Path root;
+  private final PathMatcher matcher;
+  private final Set<String> skipped = new HashSet<>();
+  private DirectoryStream.Filter<Path> filter = ACCEPT_ALL;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Returns a matcher for a pattern given on the command line: a
+   * <code>glob:</code> or <code>regex:</code> pattern as understood by
+   * {@link java.nio.file.FileSystem#getPathMatcher(String)}, or otherwise a
+   * <code>:</code>-separated list of substrings, any of which the path must
+   * contain.
+   */
+  public static PathMatcher matcher(String pattern) {
+    if (pattern.startsWith("glob:") || pattern.startsWith("regex:")) {
+      return FileSystems.getDefault().getPathMatcher(pattern);
+    }
+
+    final List<String> tokens = new ArrayList<>();
+    for (String token : pattern.split(":")) {
+      if (!token.isEmpty())
+        tokens.add(token);
+    }
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path path) {
+        String s = path.toString();
+        for (String token : tokens) {
+          if (s.contains(token))
+            return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher of the file names ending with the suffix.
+   */
+  public static PathMatcher suffix(final String suffix) {
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path path) {
+        return path.toString().endsWith(suffix);
+      }
+    };
+  }
+
+  /**
+   * Returns a matcher of the paths both matchers match.
+   */
+  public static PathMatcher and(final PathMatcher a, final PathMatcher b) {
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path path) {
+        return a.matches(path) && b.matches(path);
+      }
+    };
+  }
+
+  public CorpusFiles(Path root, PathMatcher matcher) {
+    this.root = root;
+    this.matcher = matcher;
+  }
+
+  /**
+   * Skips the sub-trees of directories with this name, e.g. <code>OtherData</code>.
+   */
+  public CorpusFiles skipDirectory(String name) {
+    skipped.add(name);
+    return this;
+  }
+
+  /**
+   * Sets a further filter on the matching files, e.g. to leave out files indexed
+   * by an earlier run.
+   */
+  public CorpusFiles setFilter(DirectoryStream.Filter<Path> filter) {
+    this.filter = filter;
+    return this;
+  }
+
+  public CorpusFiles setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  private static final class Entry {
+    final Path path;
+    final long size;
+
+    Entry(Path path, long size) {
+      this.path = path;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Receives the matching files as the walk finds them, from any of its threads.
+   */
+  private interface Visitor {
+    /**
+     * Returns whether the walk should go on.
+     */
+    boolean visit(Path file, long size) throws InterruptedException;
+  }
+
+  private boolean accept(Path file) throws IOException {
+    Path relative = root.relativize(file);
+    return (matcher.matches(relative) || matcher.matches(file.getFileName())) && filter.accept(file);
+  }
+
+  private final class Walk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final Visitor visitor;
+    private final AtomicBoolean stop;
+
+    Walk(Path dir, Visitor visitor, AtomicBoolean stop) {
+      this.dir = dir;
+      this.visitor = visitor;
+      this.stop = stop;
+    }
+
+    @Override
+    protected void compute() {
+      List<Walk> subdirectories = new ArrayList<>();
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path path : stream) {
+          if (stop.get())
+            break;
+          try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+              attrs = Files.readAttributes(path, BasicFileAttributes.class);
+              if (attrs.isDirectory())
+                continue;
+            }
+
+            if (attrs.isDirectory()) {
+              if (skipped.contains(path.getFileName().toString())) {
+                LOG.info("Skipping: " + path);
+                continue;
+              }
+              Walk walk = new Walk(path, visitor, stop);
+              walk.fork();
+              subdirectories.add(walk);
+            } else if (attrs.isRegularFile() && accept(path) && !visitor.visit(path, attrs.size())) {
+              stop.set(true);
+            }
+          } catch (IOException e) {
+            LOG.error("Visiting failed for " + path, e);
+          } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+          }
+        }
+      } catch (IOException e) {
+        LOG.error("Listing failed for " + dir, e);
+      }
+
+      for (Walk walk : subdirectories)
+        walk.join();
+    }
+  }
+
+  private void walk(Visitor visitor, AtomicBoolean stop) throws InterruptedException {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+    try {
+      pool.submit(new Walk(root, visitor, stop)).get();
+    } catch (InterruptedException e) {
+      // wakes up the walk threads blocked on a full queue
+      stop.set(true);
+      pool.shutdownNow();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new RuntimeException(cause);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the matching files, largest first; files of equal size are in path
+   * order. Ordering needs the whole tree listed, so the first file comes only
+   * once the walk is over; see {@link #discover(BlockingQueue, int)} for files
+   * as they are found.
+   */
+  public List<Path> discover() {
+    final List<Entry> entries = Collections.synchronizedList(new ArrayList<Entry>());
+    try {
+      walk(new Visitor() {
+        @Override
+        public boolean visit(Path file, long size) {
+          entries.add(new Entry(file, size));
+          return true;
+        }
+      }, new AtomicBoolean());
+    } catch (InterruptedException e) {
+      // the files found so far
+      Thread.currentThread().interrupt();
+    }
+
+    List<Entry> sorted = new ArrayList<>(entries);
+    Collections.sort(sorted, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        int cmp = Long.compare(b.size, a.size);
+        return cmp != 0 ? cmp : a.path.compareTo(b.path);
+      }
+    });
+
+    List<Path> files = new ArrayList<>(sorted.size());
+    for (Entry entry : sorted)
+      files.add(entry.path);
+    return files;
+  }
+
+  /**
+   * Puts the matching files on the queue as the walk finds them, in no particular
+   * order, blocking whenever the queue is full, and stops the walk once
+   * <code>limit</code> files are queued.
+   *
+   * @param limit maximum number of files to queue (-1 for no limit)
+   * @return the number of files queued
+   */
+  public int discover(final BlockingQueue<Path> queue, final int limit) throws InterruptedException {
+    final AtomicInteger queued = new AtomicInteger();
+    walk(new Visitor() {
+      @Override
+      public boolean visit(Path file, long size) throws InterruptedException {
+        int n;
+        do {
+          n = queued.get();
+          if (n == limit)
+            return false;
+        } while (!queued.compareAndSet(n, n + 1));
+        queue.put(file);
+        return n + 1 != limit;
+      }
+    }, new AtomicBoolean(limit == 0));
+    return queued.get();
+  }
+}
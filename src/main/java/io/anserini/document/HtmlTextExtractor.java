@@ -0,0 +1,492 @@
+package io.anserini.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.jsoup.nodes.Entities;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Streaming alternative to <code>Jsoup.parse(html).text()</code>. The markup is tokenized in a
+ * single pass and the visible text is written straight into a reusable buffer, without building a
+ * DOM. It follows the rules of Jsoup's <code>Element.text()</code>: script and style contents are
+ * dropped, entities are decoded, whitespace is collapsed except in <code>pre</code>,
+ * <code>title</code> and <code>textarea</code>, and a space is inserted where a block element or
+ * <code>br</code> starts.
+ *
+ * <p>The output matches Jsoup on well-formed pages. It may differ where the HTML5 tree builder
+ * would move content around, e.g. text foster-parented out of a table.</p>
+ *
+ * <p>Instances are not thread-safe; use one per thread.</p>
+ */
+public final class HtmlTextExtractor {
+
+  private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList(
+          "html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title", "frame",
+          "noframes", "section", "nav", "aside", "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6",
+          "ul", "ol", "pre", "div", "blockquote", "hr", "address", "figure", "figcaption", "form", "fieldset", "ins",
+          "del", "s", "dl", "dt", "dd", "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr",
+          "th", "td", "video", "audio", "canvas", "details", "menu", "plaintext", "template", "article", "main",
+          "svg", "math"));
+
+  private static final Set<String> VOID_TAGS = new HashSet<>(Arrays.asList(
+          "area", "base", "basefont", "bgsound", "br", "col", "command", "embed", "hr", "img", "input", "keygen",
+          "link", "meta", "param", "source", "track", "wbr"));
+
+  // start tags that may appear before the body without implying it
+  private static final Set<String> HEAD_TAGS = new HashSet<>(Arrays.asList(
+          "html", "head", "base", "basefont", "bgsound", "command", "link", "meta", "noframes", "noscript", "script",
+          "style", "title"));
+
+  // contents are dropped
+  private static final Set<String> SCRIPT_TAGS = new HashSet<>(Arrays.asList("script", "style"));
+
+  // contents are text, but markup and entities are not interpreted
+  private static final Set<String> RAWTEXT_TAGS = new HashSet<>(Arrays.asList("xmp", "iframe", "noembed", "noframes"));
+
+  // contents are text with entities, whitespace is kept
+  private static final Set<String> RCDATA_TAGS = new HashSet<>(Arrays.asList("title", "textarea"));
+
+  private final StringBuilder text;
+
+  // pages given as bytes are decoded into this buffer, grown as needed and reused
+  private CharBuffer chars = CharBuffer.allocate(0);
+  private CharsetDecoder decoder;
+
+  private CharSequence in;
+  private int length;
+  private StringBuilder out;
+
+  // > 0 inside a pre element: 1 for its direct children, 2 for grandchildren, and so on
+  private int preDepth;
+  private boolean inBody;
+  // inside an element whose contents are consumed as a whole; text there does not imply a body
+  private boolean inContents;
+
+  public HtmlTextExtractor() {
+    this(1 << 16);
+  }
+
+  public HtmlTextExtractor(int capacity) {
+    this.text = new StringBuilder(capacity);
+  }
+
+  /**
+   * Extracts the visible text of a page, reusing this extractor's buffer.
+   */
+  public String text(CharSequence html) {
+    extract(html, text);
+    return text.toString();
+  }
+
+  /**
+   * Extracts the visible text of a page given as bytes, e.g. a slice of a WARC record. The bytes are
+   * decoded into a buffer this extractor reuses, rather than into a new <code>String</code>;
+   * malformed input is replaced, as by <code>new String(bytes, charset)</code>.
+   */
+  public String text(ByteBuffer html, Charset charset) {
+    if (decoder == null || !decoder.charset().equals(charset)) {
+      decoder = charset.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    int capacity = (int) Math.ceil(html.remaining() * (double) decoder.maxCharsPerByte());
+    if (chars.capacity() < capacity)
+      chars = CharBuffer.allocate(capacity);
+    chars.clear();
+
+    decoder.reset();
+    ByteBuffer bytes = html.duplicate();
+    decoder.decode(bytes, chars, true);
+    decoder.flush(chars);
+    chars.flip();
+
+    return text(chars);
+  }
+
+  /**
+   * Replaces the contents of <code>out</code> with the visible text of a page.
+   */
+  public void extract(CharSequence html, StringBuilder out) {
+    this.in = html;
+    this.length = html.length();
+    this.out = out;
+    this.preDepth = 0;
+    this.inBody = false;
+    this.inContents = false;
+    out.setLength(0);
+
+    try {
+      int i = 0;
+      while (i < length) {
+        char c = in.charAt(i);
+        if (c == '<') {
+          i = markup(i);
+        } else if (c == '&') {
+          i = entity(i, preDepth == 1 || preDepth == 2);
+        } else {
+          text(c, preDepth == 1 || preDepth == 2);
+          i++;
+        }
+      }
+      trim(out);
+    } finally {
+      this.in = null;
+      this.out = null;
+    }
+  }
+
+  /**
+   * Handles the markup starting at '&lt;' and returns the position after it. A '&lt;' that does not
+   * start markup is text.
+   */
+  private int markup(int i) {
+    if (i + 1 >= length) {
+      text('<', false);
+      return i + 1;
+    }
+
+    char c = in.charAt(i + 1);
+    if (isLetter(c))
+      return startTag(i + 1);
+
+    if (c == '/') {
+      if (i + 2 >= length) {
+        text('<', false);
+        text('/', false);
+        return length;
+      }
+      char d = in.charAt(i + 2);
+      if (isLetter(d))
+        return endTag(i + 2);
+      if (d == '>')
+        return i + 3;
+      return skipTo('>', i + 2);
+    }
+
+    if (c == '!') {
+      if (startsWith("--", i + 2)) {
+        // comment; "<!-->" and "<!--->" are empty comments
+        int j = i + 4;
+        if (j < length && in.charAt(j) == '>')
+          return j + 1;
+        if (startsWith("->", j))
+          return j + 2;
+        int k = indexOf("-->", j);
+        return k < 0 ? length : k + 3;
+      }
+      // doctype, CDATA and other declarations
+      return skipTo('>', i + 2);
+    }
+
+    if (c == '?')
+      return skipTo('>', i + 2);
+
+    text('<', false);
+    return i + 1;
+  }
+
+  private int startTag(int i) {
+    int j = i;
+    while (j < length && !isTagNameEnd(in.charAt(j)))
+      j++;
+    String name = in.subSequence(i, j).toString().toLowerCase(Locale.ROOT);
+
+    int end = skipAttributes(j);
+    // a tag cut off by the end of the input is dropped, along with everything after it
+    if (end < 0)
+      return length;
+
+    if (!inBody && !HEAD_TAGS.contains(name))
+      startBody();
+
+    if (BLOCK_TAGS.contains(name) || "br".equals(name))
+      separate();
+
+    if ("pre".equals(name))
+      preDepth = preDepth > 0 ? preDepth + 1 : 1;
+    else if (preDepth > 0 && !VOID_TAGS.contains(name))
+      preDepth++;
+
+    if (SCRIPT_TAGS.contains(name))
+      return skipContents(name, end, false, false, false);
+    if (RAWTEXT_TAGS.contains(name))
+      return skipContents(name, end, true, false, preDepth == 2);
+    if (RCDATA_TAGS.contains(name))
+      return skipContents(name, end, true, true, true);
+    if ("plaintext".equals(name)) {
+      for (int k = end; k < length; k++)
+        text(in.charAt(k), true);
+      return length;
+    }
+    return end;
+  }
+
+  private int endTag(int i) {
+    int j = i;
+    while (j < length && !isTagNameEnd(in.charAt(j)))
+      j++;
+    String name = in.subSequence(i, j).toString().toLowerCase(Locale.ROOT);
+
+    int end = skipAttributes(j);
+    if (end < 0)
+      return length;
+
+    // </br> is treated as <br>
+    if ("br".equals(name)) {
+      if (!inBody)
+        startBody();
+      separate();
+    } else if (preDepth > 0 && !VOID_TAGS.contains(name)) {
+      preDepth--;
+    }
+    return end;
+  }
+
+  /**
+   * Consumes the contents of a script, raw text or RCDATA element up to and including its end tag.
+   */
+  private int skipContents(String name, int i, boolean emit, boolean entities, boolean preserve) {
+    int end = i;
+    while (true) {
+      end = indexOf("</", end);
+      if (end < 0) {
+        end = length;
+        break;
+      }
+      if (startsWithIgnoreCase(name, end + 2)) {
+        int k = end + 2 + name.length();
+        if (k >= length || isWhitespace(in.charAt(k)) || in.charAt(k) == '/' || in.charAt(k) == '>')
+          break;
+      }
+      end += 2;
+    }
+
+    if (emit) {
+      inContents = true;
+      int k = i;
+      while (k < end) {
+        char c = in.charAt(k);
+        if (entities && c == '&') {
+          k = entity(k, preserve);
+        } else {
+          text(c, preserve);
+          k++;
+        }
+      }
+      inContents = false;
+    }
+
+    if (end >= length)
+      return length;
+    if (preDepth > 0)
+      preDepth--;
+    int close = skipAttributes(end + 2 + name.length());
+    return close < 0 ? length : close;
+  }
+
+  /**
+   * Skips the attributes of a tag, respecting quoted values, and returns the position after the
+   * closing '&gt;', or -1 if the input ends first.
+   */
+  private int skipAttributes(int i) {
+    while (i < length) {
+      char c = in.charAt(i);
+      if (c == '>')
+        return i + 1;
+
+      i++;
+      if (c == '=') {
+        while (i < length && isWhitespace(in.charAt(i)))
+          i++;
+        if (i < length && (in.charAt(i) == '"' || in.charAt(i) == '\'')) {
+          int close = indexOf(in.charAt(i), i + 1);
+          if (close < 0)
+            return -1;
+          i = close + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decodes the character reference starting at '&amp;', following the rules of Jsoup's tokenizer,
+   * and returns the position after it. A '&amp;' that does not start a reference is text.
+   */
+  private int entity(int i, boolean preserve) {
+    int j = i + 1;
+
+    if (j < length && in.charAt(j) == '#') {
+      j++;
+      boolean hex = j < length && (in.charAt(j) == 'x' || in.charAt(j) == 'X');
+      if (hex)
+        j++;
+
+      int k = j;
+      long value = 0;
+      while (k < length) {
+        int digit = Character.digit(in.charAt(k), hex ? 16 : 10);
+        if (digit < 0 || in.charAt(k) > 'f')
+          break;
+        value = Math.min(value * (hex ? 16 : 10) + digit, 0x110000);
+        k++;
+      }
+
+      if (k == j) {
+        text('&', preserve);
+        return i + 1;
+      }
+      if (k < length && in.charAt(k) == ';')
+        k++;
+
+      int codePoint = value > 0x10FFFF || (value >= 0xD800 && value <= 0xDFFF) ? 0xFFFD : (int) value;
+      if (Character.isBmpCodePoint(codePoint)) {
+        text((char) codePoint, preserve);
+      } else {
+        text(Character.highSurrogate(codePoint), preserve);
+        text(Character.lowSurrogate(codePoint), preserve);
+      }
+      return k;
+    }
+
+    int k = j;
+    while (k < length && isLetter(in.charAt(k)))
+      k++;
+    while (k < length && in.charAt(k) >= '0' && in.charAt(k) <= '9')
+      k++;
+
+    String name = in.subSequence(j, k).toString();
+    boolean terminated = k < length && in.charAt(k) == ';';
+    if (name.isEmpty() || !(Entities.isBaseNamedEntity(name) || (terminated && Entities.isNamedEntity(name)))) {
+      text('&', preserve);
+      return i + 1;
+    }
+
+    text(Entities.getCharacterByName(name), preserve);
+    return terminated ? k + 1 : k;
+  }
+
+  /**
+   * Appends a text character, collapsing whitespace unless it is preserved.
+   */
+  private void text(char c, boolean preserve) {
+    if (isWhitespace(c)) {
+      if (preserve || !endsWithSpace())
+        out.append(preserve ? c : ' ');
+      return;
+    }
+
+    if (!inBody && !inContents)
+      startBody();
+    out.append(c);
+  }
+
+  /**
+   * Called where the parser would imply a body element, which is a block element.
+   */
+  private void startBody() {
+    inBody = true;
+    separate();
+  }
+
+  private void separate() {
+    if (out.length() > 0 && !endsWithSpace())
+      out.append(' ');
+  }
+
+  private boolean endsWithSpace() {
+    return out.length() > 0 && out.charAt(out.length() - 1) == ' ';
+  }
+
+  private int skipTo(char c, int from) {
+    int i = indexOf(c, from);
+    return i < 0 ? length : i + 1;
+  }
+
+  private int indexOf(char c, int from) {
+    for (int i = from; i < length; i++) {
+      if (in.charAt(i) == c)
+        return i;
+    }
+    return -1;
+  }
+
+  private int indexOf(String s, int from) {
+    final char first = s.charAt(0);
+    for (int i = from; i <= length - s.length(); i++) {
+      if (in.charAt(i) == first && startsWith(s, i))
+        return i;
+    }
+    return -1;
+  }
+
+  private boolean startsWith(String s, int from) {
+    if (from + s.length() > length)
+      return false;
+    for (int k = 0; k < s.length(); k++) {
+      if (in.charAt(from + k) != s.charAt(k))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean startsWithIgnoreCase(String s, int from) {
+    if (from + s.length() > length)
+      return false;
+    for (int k = 0; k < s.length(); k++) {
+      if (Character.toLowerCase(in.charAt(from + k)) != s.charAt(k))
+        return false;
+    }
+    return true;
+  }
+
+  private static void trim(StringBuilder sb) {
+    int end = sb.length();
+    while (end > 0 && sb.charAt(end - 1) <= ' ')
+      end--;
+    sb.setLength(end);
+
+    int start = 0;
+    while (start < end && sb.charAt(start) <= ' ')
+      start++;
+    if (start > 0)
+      sb.delete(0, start);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>';
+  }
+}
@@ -0,0 +1,375 @@
+package io.anserini.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level reader for ClueWeb09 and ClueWeb12 WARC files. Records are framed directly on a large
+ * {@link ByteBuffer} window filled from a channel: header lines and the <code>Content-Length</code>
+ * are found with byte searches, only the few header values we need are decoded, and the record
+ * body is handed out as a slice of the window rather than copied into a <code>String</code>.
+ *
+ * <p>A record returned by {@link #next()} shares the window and is only valid until the following
+ * call to <code>next()</code>; use {@link Record#detach()} to keep it longer.</p>
+ */
+public final class WarcRecordReader implements Closeable {
+
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20; // 1M, grows to fit the largest record
+
+  private static final byte NEWLINE = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  private static final byte[] WARC_TYPE = bytes("WARC-Type");
+  private static final byte[] WARC_TREC_ID = bytes("WARC-TREC-ID");
+  private static final byte[] WARC_TARGET_URI = bytes("WARC-Target-URI");
+  private static final byte[] CONTENT_LENGTH = bytes("Content-Length");
+  private static final byte[] HTTP_CONTENT_LENGTH = bytes("Content-Length:");
+
+  private final ReadableByteChannel channel;
+  private final byte[] version;
+  private final boolean stripToMarkup;
+
+  // always in read mode: [position, limit) holds bytes not consumed yet
+  private ByteBuffer buffer;
+  private boolean eof = false;
+
+  public WarcRecordReader(ReadableByteChannel channel, Collection collection) {
+    this(channel, collection, DEFAULT_BUFFER_SIZE);
+  }
+
+  public WarcRecordReader(ReadableByteChannel channel, Collection collection, int bufferSize) {
+    if (Collection.CW09.equals(collection)) {
+      this.version = bytes(ClueWeb09WarcRecord.WARC_VERSION);
+      this.stripToMarkup = false;
+    } else if (Collection.CW12.equals(collection)) {
+      this.version = bytes(ClueWeb12WarcRecord.WARC_VERSION);
+      this.stripToMarkup = true;
+    } else {
+      throw new IllegalArgumentException("Not a WARC collection: " + collection);
+    }
+
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.buffer.flip();
+  }
+
+  /**
+   * Reads the next WARC record.
+   *
+   * @return the next record, or null at the end of the channel
+   * @throws IOException
+   */
+  public Record next() throws IOException {
+    while (true) {
+      // first - skip ahead to the next WARC version line
+      int lineEnd;
+      while (true) {
+        lineEnd = nextLineEnd();
+        if (lineEnd < 0)
+          return null;
+
+        boolean found = startsWith(buffer.array(), buffer.position(), lineEnd, version);
+        buffer.position(lineEnd + 1);
+        if (found)
+          break;
+      }
+
+      // then the header lines, up to the blank line that separates them from the body
+      String type = null;
+      String id = null;
+      String url = null;
+      int contentLength = -1;
+
+      while (true) {
+        lineEnd = nextLineEnd();
+        if (lineEnd < 0)
+          return null;
+
+        byte[] a = buffer.array();
+        int start = buffer.position();
+        int end = lineEnd > start && a[lineEnd - 1] == CARRIAGE_RETURN ? lineEnd - 1 : lineEnd;
+        buffer.position(lineEnd + 1);
+
+        if (end == start)
+          break;
+
+        int colon = indexOf(a, (byte) ':', start, end);
+        if (colon < 0)
+          continue;
+
+        if (keyEquals(a, start, colon, CONTENT_LENGTH)) {
+          contentLength = parseLength(a, colon + 1, end);
+        } else if (keyEquals(a, start, colon, WARC_TYPE)) {
+          type = value(a, colon + 1, end);
+        } else if (keyEquals(a, start, colon, WARC_TREC_ID)) {
+          id = value(a, colon + 1, end);
+        } else if (keyEquals(a, start, colon, WARC_TARGET_URI)) {
+          url = value(a, colon + 1, end);
+        }
+      }
+
+      // without a length we cannot frame the body; resynchronize on the next version line
+      if (contentLength < 0)
+        continue;
+
+      // a truncated last record gets whatever is left
+      if (!ensure(contentLength))
+        contentLength = buffer.remaining();
+
+      ByteBuffer body = buffer.duplicate();
+      body.limit(buffer.position() + contentLength);
+      body = body.slice();
+      buffer.position(buffer.position() + contentLength);
+
+      return new Record(type, id, url, body, stripToMarkup);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Returns the absolute index of the next newline at or after the current position, refilling
+   * the window as needed, or -1 if the channel ends first.
+   */
+  private int nextLineEnd() throws IOException {
+    int from = buffer.position();
+    while (true) {
+      int i = indexOf(buffer.array(), NEWLINE, from, buffer.limit());
+      if (i >= 0)
+        return i;
+
+      // ensure() may compact the window, so remember how far we got relative to the position
+      int scanned = buffer.remaining();
+      if (!ensure(scanned + 1))
+        return -1;
+      from = buffer.position() + scanned;
+    }
+  }
+
+  /**
+   * Makes at least n bytes available from the current position, compacting, growing and refilling
+   * the window as needed. Returns false if the channel ends first.
+   */
+  private boolean ensure(int n) throws IOException {
+    if (buffer.remaining() >= n)
+      return true;
+    if (eof)
+      return false;
+
+    if (buffer.capacity() < n) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2));
+      bigger.put(buffer);
+      bigger.flip();
+      buffer = bigger;
+    }
+
+    buffer.compact();
+    try {
+      while (buffer.position() < n) {
+        if (channel.read(buffer) < 0) {
+          eof = true;
+          break;
+        }
+      }
+    } finally {
+      buffer.flip();
+    }
+    return buffer.remaining() >= n;
+  }
+
+  /**
+   * A WARC record whose body is a slice of the reader's window.
+   */
+  public static final class Record implements WarcRecord {
+
+    private final String type;
+    private final String id;
+    private final String url;
+    private final ByteBuffer body;
+    private final boolean stripToMarkup;
+
+    private Record(String type, String id, String url, ByteBuffer body, boolean stripToMarkup) {
+      this.type = type;
+      this.id = id;
+      this.url = url;
+      this.body = body;
+      this.stripToMarkup = stripToMarkup;
+    }
+
+    @Override
+    public String id() {
+      return id;
+    }
+
+    @Override
+    public String type() {
+      return type;
+    }
+
+    @Override
+    public String url() {
+      return url;
+    }
+
+    /**
+     * Returns the raw record body (HTTP headers and payload).
+     */
+    public ByteBuffer body() {
+      return body.duplicate();
+    }
+
+    /**
+     * Returns the record body with the HTTP headers stripped, following the same rules as
+     * {@link ClueWeb09WarcRecord#getContent()} and {@link ClueWeb12WarcRecord#getContent()}.
+     */
+    public ByteBuffer payload() {
+      byte[] a = body.array();
+      int off = body.arrayOffset() + body.position();
+      int end = off + body.remaining();
+
+      int i = indexOf(a, HTTP_CONTENT_LENGTH, off, end);
+      int j = indexOf(a, NEWLINE, i < 0 ? off : i, end);
+
+      int start = off;
+      if (j >= 0) {
+        start = j + 1;
+        if (stripToMarkup) {
+          // Get rid of HTTP headers. Look for the first '<'.
+          int k = indexOf(a, (byte) '<', j, end);
+          if (k >= 0)
+            start = k;
+        }
+      }
+
+      return ByteBuffer.wrap(a, start, end - start).slice();
+    }
+
+    /**
+     * Decodes the payload, and nothing else, as UTF-8.
+     */
+    @Override
+    public String content() {
+      ByteBuffer payload = payload();
+      return new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(),
+              StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a copy of this record that no longer shares the reader's window.
+     */
+    public Record detach() {
+      byte[] copy = new byte[body.remaining()];
+      body.duplicate().get(copy);
+      return new Record(type, id, url, ByteBuffer.wrap(copy), stripToMarkup);
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  static int indexOf(byte[] a, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (a[i] == b)
+        return i;
+    }
+    return -1;
+  }
+
+  static int indexOf(byte[] a, byte[] pattern, int from, int to) {
+    final byte first = pattern[0];
+    final int last = to - pattern.length;
+    outer:
+    for (int i = from; i <= last; i++) {
+      if (a[i] != first)
+        continue;
+      for (int k = 1; k < pattern.length; k++) {
+        if (a[i + k] != pattern[k])
+          continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(byte[] a, int from, int to, byte[] prefix) {
+    if (to - from < prefix.length)
+      return false;
+    for (int k = 0; k < prefix.length; k++) {
+      if (a[from + k] != prefix[k])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Case-insensitive (ASCII) comparison of a header name, ignoring surrounding whitespace.
+   */
+  private static boolean keyEquals(byte[] a, int from, int to, byte[] key) {
+    while (from < to && a[from] == ' ')
+      from++;
+    while (to > from && a[to - 1] == ' ')
+      to--;
+    if (to - from != key.length)
+      return false;
+    for (int k = 0; k < key.length; k++) {
+      if (lower(a[from + k]) != lower(key[k]))
+        return false;
+    }
+    return true;
+  }
+
+  private static byte lower(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private static String value(byte[] a, int from, int to) {
+    while (from < to && (a[from] == ' ' || a[from] == '\t'))
+      from++;
+    while (to > from && (a[to - 1] == ' ' || a[to - 1] == '\t'))
+      to--;
+    return new String(a, from, to - from, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parses a non-negative decimal length, returning -1 if there is none or it does not fit in an int.
+   */
+  private static int parseLength(byte[] a, int from, int to) {
+    while (from < to && (a[from] == ' ' || a[from] == '\t'))
+      from++;
+
+    long n = -1;
+    for (int i = from; i < to; i++) {
+      byte b = a[i];
+      if (b < '0' || b > '9')
+        break;
+      n = (n < 0 ? 0 : n * 10) + (b - '0');
+      if (n > Integer.MAX_VALUE)
+        return -1;
+    }
+    return (int) n;
+  }
+}
@@ -21,10 +21,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
 
 import com.google.common.base.Preconditions;
 
+import io.anserini.util.ReadAheadGZIPInputStream;
+
 /**
  * Abstraction for an stream of statuses, backed by an underlying gzipped file
  * with JSON-encoded tweets, one per line.
@@ -39,7 +40,7 @@ public class JsonStatusBlockReader implements StatusStream {
 			throw new IOException("Expecting .gz compressed file!");
 		}
 
-		br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+		br = new BufferedReader(new InputStreamReader(new ReadAheadGZIPInputStream(new FileInputStream(file)), "UTF-8"));
 	}
 
 	/**
@@ -59,7 +60,7 @@ public class JsonStatusBlockReader implements StatusStream {
 
 			nxt = Status.fromJson(raw);
 		}
-		return Status.fromJson(raw);
+		return nxt;
 	}
 
 	public String nextRaw() throws IOException {
@@ -17,10 +17,9 @@
 package io.anserini.document.twitter;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -32,103 +31,77 @@ import org.kohsuke.args4j.ParserProperties;
 
 import com.google.common.base.Preconditions;
 
-import io.anserini.index.IndexTweets;
+import io.anserini.document.CorpusFiles;
 
 /**
  * Abstraction for a corpus of statuses. A corpus is assumed to consist of a
- * number of blocks, each represented by a gzipped file within a root directory.
- * This object will allow to caller to read through all blocks, in sorted
- * lexicographic order of the files.
+ * number of blocks, each represented by a gzipped file anywhere under a root
+ * directory, or by a status archive converted from one by
+ * {@link StatusArchiveWriter}. This object will allow to caller to read through
+ * all blocks, largest file first.
  */
 public class JsonStatusCorpusReader implements StatusStream {
 	private static final Logger LOG = LogManager.getLogger(JsonStatusCorpusReader.class);
 	private final File[] files;
 	private int nextFile = 0;
-	private JsonStatusBlockReader currentBlock = null;
+	private StatusStream currentBlock = null;
 
-	public JsonStatusCorpusReader(File file) throws IOException {
-		Preconditions.checkNotNull(file);
-
-		if (!file.isDirectory()) {
-			throw new IOException("Expecting " + file + " to be a directory!");
+	private static final PathMatcher BLOCKS = new PathMatcher() {
+		@Override
+		public boolean matches(Path path) {
+			String name = path.toString();
+			return name.endsWith(".gz") || name.endsWith(StatusArchiveWriter.SUFFIX);
 		}
+	};
 
-		files = file.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-
-				// System.out.println("Currently checking corpus block .gz
-				// "+path.toString()+" "+path.toString().contains("2015-12-"));
-				return (path.getName().endsWith(".gz")) ? true : false;
-			}
-		});
-		System.out.println("Check recursion: files listed # " + files.length);
-
-		if (files.length == 0) {
-			throw new IOException(file + " does not contain any .gz files!");
-		}
+	public JsonStatusCorpusReader(File file) throws IOException {
+		this(file, BLOCKS);
 	}
 
+	/**
+	 * @param optionValue pattern the block files must match besides ending in
+	 *                    <code>.gz</code> or <code>.sta</code>, see
+	 *                    {@link CorpusFiles#matcher(String)}
+	 */
 	public JsonStatusCorpusReader(File file, final String optionValue) throws IOException {
-		// TODO Auto-generated constructor stub
+		this(file, CorpusFiles.and(BLOCKS, CorpusFiles.matcher(optionValue)));
+	}
 
+	private JsonStatusCorpusReader(File file, PathMatcher matcher) throws IOException {
 		Preconditions.checkNotNull(file);
 
 		if (!file.isDirectory()) {
 			throw new IOException("Expecting " + file + " to be a directory!");
 		}
-		final List<File> directories = new ArrayList<File>();
-		final List<File> files_temp = new ArrayList<File>();
-
-		files_temp.addAll(Arrays.asList(file.listFiles(new FileFilter() {
-			public boolean accept(File path) {
-
-				if (!path.isFile())
-					directories.add(path);
-				boolean contains = false;
-				if (optionValue.length() > 0)
-					for (String file : optionValue.split(":")) {
-						if (path.toString().contains(file))
-							contains = true;
-					}
-				return (path.getName().endsWith(".gz") && contains) ? true : false;
-			}
-		})));
-		for (File f : directories) {
-			files_temp.addAll(Arrays.asList(f.listFiles(new FileFilter() {
-				public boolean accept(File path) {
-					boolean contains = false;
-					if (optionValue.length() > 0)
-						for (String file : optionValue.split(":")) {
-							if (path.toString().contains(file))
-								contains = true;
-						}
-					return (path.getName().endsWith(".gz") && contains) ? true : false;
-				}
-			})));
-		}
 
-		files = files_temp.toArray(new File[files_temp.size()]);
-
-		// files = file.listFiles(new FileFilter() {
-		// public boolean accept(File path) {
-		// System.out.println(path);
-		// if (!path.isFile())
-		// directories.add(path);
-		// boolean contains = false;
-		// if (optionValue.length() > 0)
-		// for (String file : optionValue.split(":")) {
-		// System.out.println(file);
-		// if (path.toString().contains(file))
-		// contains = true;
-		// }
-		// return (path.getName().endsWith(".gz") && contains) ? true : false;
-		// }
-		// });
-		System.out.println("Check recursion: files listed # " + files.length);
+		List<Path> paths = new CorpusFiles(file.toPath(), matcher).discover();
+		files = new File[paths.size()];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = paths.get(i).toFile();
+		}
+		LOG.info(files.length + " block files found under " + file);
 
 		if (files.length == 0) {
-			throw new IOException(file + " does not contain any .gz files!");
+			throw new IOException(file + " does not contain any .gz or .sta files!");
+		}
+	}
+
+	/**
+	 * Opens a block file of a corpus, either gzipped JSON or a status archive.
+	 */
+	public static StatusStream openBlock(File file) throws IOException {
+		if (file.getName().endsWith(StatusArchiveWriter.SUFFIX)) {
+			return new StatusArchiveReader(file);
 		}
+		return new JsonStatusBlockReader(file);
+	}
+
+	/**
+	 * Returns the block files of the corpus, largest first, e.g. to read them in
+	 * parallel with one {@link #openBlock(File)} each.
+	 */
+	public File[] getFiles() {
+		return files.clone();
 	}
 
 	/**
@@ -136,7 +109,7 @@ public class JsonStatusCorpusReader implements StatusStream {
 	 */
 	public Status next() throws IOException {
 		if (currentBlock == null) {
-			currentBlock = new JsonStatusBlockReader(files[nextFile]);
+			currentBlock = openBlock(files[nextFile]);
 			LOG.info("Switched to file " + files[nextFile].getName());
 			nextFile++;
 		}
@@ -155,41 +128,49 @@ public class JsonStatusCorpusReader implements StatusStream {
 
 			currentBlock.close();
 			// Move to next file.
-			currentBlock = new JsonStatusBlockReader(files[nextFile]);
+			currentBlock = openBlock(files[nextFile]);
 			LOG.info("Switched to file " + files[nextFile].getName());
 			nextFile++;
 		}
 	}
 
+	/**
+	 * Returns the JSON of the next status, or <code>null</code> if no more
+	 * statuses. Status archives do not keep the JSON, so they are skipped.
+	 */
 	public String nextRaw() throws IOException {
-		if (currentBlock == null) {
-			currentBlock = new JsonStatusBlockReader(files[nextFile]);
-			LOG.info("Switched to file " + files[nextFile].getName());
-			nextFile++;
-		}
-
-		String statusRaw = null;
 		while (true) {
-			statusRaw = currentBlock.nextRaw();
-			if (statusRaw != null) {
-				return statusRaw;
+			if (currentBlock != null && !(currentBlock instanceof StatusArchiveReader)) {
+				String statusRaw = currentBlock.nextRaw();
+				if (statusRaw != null) {
+					return statusRaw;
+				}
 			}
 
+			if (currentBlock != null) {
+				currentBlock.close();
+				currentBlock = null;
+			}
+			while (nextFile < files.length && files[nextFile].getName().endsWith(StatusArchiveWriter.SUFFIX)) {
+				LOG.warn("Skipping status archive " + files[nextFile].getName() + ", which has no JSON");
+				nextFile++;
+			}
 			if (nextFile >= files.length) {
 				// We're out of files to read. Must be the end of the corpus.
 				return null;
 			}
 
-			currentBlock.close();
 			// Move to next file.
-			currentBlock = new JsonStatusBlockReader(files[nextFile]);
+			currentBlock = openBlock(files[nextFile]);
 			LOG.info("Switched to file " + files[nextFile].getName());
 			nextFile++;
 		}
 	}
 
 	public void close() throws IOException {
-		currentBlock.close();
+		if (currentBlock != null) {
+			currentBlock.close();
+		}
 	}
 
 	public static class Args {
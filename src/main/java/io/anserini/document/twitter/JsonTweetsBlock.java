@@ -8,10 +8,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.zip.GZIPInputStream;
 
 import com.google.common.base.Preconditions;
 
+import io.anserini.util.ReadAheadGZIPInputStream;
+
 public class JsonTweetsBlock implements Iterable<Status> {
   private final BufferedReader br;
 
@@ -22,7 +23,7 @@ public class JsonTweetsBlock implements Iterable<Status> {
       throw new IOException("Expecting .gz compressed file!");
     }
 
-    br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+    br = new BufferedReader(new InputStreamReader(new ReadAheadGZIPInputStream(new FileInputStream(file)), "UTF-8"));
   }
 
   public JsonTweetsBlock(InputStream stream) throws IOException {
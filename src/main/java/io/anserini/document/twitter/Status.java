@@ -16,7 +16,10 @@
 
 package io.anserini.document.twitter;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -26,9 +29,13 @@ import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * Object representing a status.
@@ -43,6 +50,13 @@ public class Status {
 																			// 11:03:41
 																			// +0000
 																			// 2013";
+	// SimpleDateFormat is expensive to create and not thread-safe
+	private static final ThreadLocal<DateFormat> DATE_FORMATTER = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat(DATE_FORMAT);
+		}
+	};
 	private long id;
 	private String screenname;
 	private String createdAt;
@@ -75,6 +89,107 @@ public class Status {
 	protected Status() {
 	}
 
+	/**
+	 * Returns a status decoded by {@link StatusArchiveReader}, which has no JSON.
+	 */
+	static Status fromArchive(long id, long epoch, String createdAt, String userid, String screenname, String text,
+			String lang, String place, long inReplyToStatusId, long inReplyToUserId, long retweetStatusId,
+			long retweetUserId, int retweetCount, int followersCount, int friendsCount, int statusesCount,
+			double latitude, double longitude, String userLocation, String userDescription, String userURL,
+			String[] urls) {
+		Status status = new Status();
+		status.id = id;
+		status.epoch = epoch;
+		status.createdAt = createdAt;
+		status.userid = userid;
+		status.screenname = screenname;
+		status.text = text;
+		status.lang = lang;
+		status.place = place;
+		status.inReplyToStatusId = inReplyToStatusId;
+		status.inReplyToUserId = inReplyToUserId;
+		status.retweetStatusId = retweetStatusId;
+		status.retweetUserId = retweetUserId;
+		status.retweetCount = retweetCount;
+		status.followersCount = followersCount;
+		status.friendsCount = friendsCount;
+		status.statusesCount = statusesCount;
+		status.latitude = latitude;
+		status.longitude = longitude;
+		status.userLocation = userLocation;
+		status.userDescription = userDescription;
+		status.userURL = userURL;
+		status.urls = urls;
+		return status;
+	}
+
+	/**
+	 * Returns the fields of the status as JSON in the format of the Twitter API,
+	 * from which {@link #fromJson(String)} parses an equal status. Used by
+	 * {@link StatusArchiveReader#nextRaw()}, since archives do not keep the JSON
+	 * the statuses were parsed from.
+	 */
+	String toJson() {
+		JsonObject user = new JsonObject();
+		user.addProperty("id_str", userid);
+		user.addProperty("screen_name", screenname);
+		user.addProperty("followers_count", followersCount);
+		user.addProperty("friends_count", friendsCount);
+		user.addProperty("statuses_count", statusesCount);
+		user.addProperty("location", userLocation);
+		user.addProperty("description", userDescription);
+		user.addProperty("url", userURL);
+
+		JsonObject obj = new JsonObject();
+		obj.addProperty("created_at", createdAt);
+		obj.addProperty("id", id);
+		obj.addProperty("text", text);
+		obj.add("user", user);
+		obj.addProperty("lang", lang);
+		if (place != null) {
+			JsonObject p = new JsonObject();
+			p.addProperty("full_name", place);
+			obj.add("place", p);
+		}
+		if (inReplyToStatusId != -1L) {
+			obj.addProperty("in_reply_to_status_id", inReplyToStatusId);
+		}
+		if (inReplyToUserId != -1L) {
+			obj.addProperty("in_reply_to_user_id", inReplyToUserId);
+		}
+		if (retweetStatusId != -1L) {
+			JsonObject retweetUser = new JsonObject();
+			retweetUser.addProperty("id", retweetUserId);
+			JsonObject retweet = new JsonObject();
+			retweet.addProperty("id", retweetStatusId);
+			retweet.add("user", retweetUser);
+			obj.add("retweeted_status", retweet);
+			obj.addProperty("retweet_count", retweetCount);
+		}
+		if (latitude != Double.NEGATIVE_INFINITY && longitude != Double.NEGATIVE_INFINITY) {
+			// GeoJSON lists longitude first
+			JsonArray point = new JsonArray();
+			point.add(new JsonPrimitive(longitude));
+			point.add(new JsonPrimitive(latitude));
+			JsonObject coordinates = new JsonObject();
+			coordinates.addProperty("type", "Point");
+			coordinates.add("coordinates", point);
+			obj.add("coordinates", coordinates);
+		}
+		if (urls != null) {
+			JsonArray entities = new JsonArray();
+			for (String url : urls) {
+				JsonObject entity = new JsonObject();
+				entity.add("expanded_url", JSON_PARSER.parse(url));
+				entities.add(entity);
+			}
+			JsonObject e = new JsonObject();
+			e.add("urls", entities);
+			obj.add("entities", e);
+		}
+		return obj.toString();
+	}
+
 	public long getId() {
 		return id;
 	}
@@ -99,10 +214,21 @@ public class Status {
 		return place;
 	}
 
+	/**
+	 * Returns the status as a JSON tree, or <code>null</code> if it was parsed
+	 * without keeping its JSON; see {@link #fromJson(String, boolean)}.
+	 */
 	public JsonObject getJsonObject() {
+		if (jsonObject == null && jsonString != null) {
+			jsonObject = (JsonObject) new JsonParser().parse(jsonString);
+		}
 		return jsonObject;
 	}
 
+	/**
+	 * Returns the JSON the status was parsed from, or <code>null</code> if it was
+	 * not kept; see {@link #fromJson(String, boolean)}.
+	 */
 	public String getJsonString() {
 		return jsonString;
 	}
@@ -159,7 +285,359 @@ public class Status {
 		return userLocation;
 	}
 
+	/**
+	 * Parses a status, pulling only the fields exposed here out of the JSON and
+	 * skipping everything else. Returns <code>null</code> for malformed JSON and
+	 * for anything that is not a complete status, such as delete notices.
+	 */
 	public static Status fromJson(String json) {
+		return fromJson(json, false);
+	}
+
+	/**
+	 * Parses a status like {@link #fromJson(String)}, optionally keeping the JSON
+	 * for {@link #getJsonString()} and {@link #getJsonObject()}.
+	 */
+	public static Status fromJson(String json, boolean keepJson) {
+		Status status = new Status();
+		try (JsonReader reader = new JsonReader(new StringReader(json))) {
+			// as lenient as JsonParser
+			reader.setLenient(true);
+			if (!status.read(reader) || reader.peek() != JsonToken.END_DOCUMENT) {
+				return null;
+			}
+		} catch (IOException | RuntimeException e) {
+			// Catch any malformed JSON.
+			return null;
+		}
+
+		try {
+			status.epoch = DATE_FORMATTER.get().parse(status.createdAt).getTime() / 1000;
+		} catch (ParseException e) {
+			status.epoch = -1L;
+		}
+
+		if (keepJson) {
+			status.jsonString = json;
+		}
+		return status;
+	}
+
+	/**
+	 * Reads the fields of a status off the reader, which is positioned at the
+	 * top-level object, and returns whether all required fields were there.
+	 */
+	private boolean read(JsonReader reader) throws IOException {
+		boolean hasText = false, hasId = false, hasUser = false;
+		boolean hasRetweet = false;
+		String retweetCountString = null;
+
+		place = null;
+		inReplyToStatusId = -1L;
+		inReplyToUserId = -1L;
+		latitude = Double.NEGATIVE_INFINITY;
+		longitude = Double.NEGATIVE_INFINITY;
+		lang = "unknown";
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "text":
+				text = readString(reader);
+				hasText = text != null;
+				break;
+			case "id":
+				id = reader.nextLong();
+				hasId = true;
+				break;
+			case "created_at":
+				createdAt = readString(reader);
+				break;
+			case "user":
+				hasUser = readUser(reader);
+				break;
+			case "place":
+				if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+					place = readField(reader, "full_name");
+				} else {
+					reader.skipValue();
+				}
+				break;
+			case "in_reply_to_status_id":
+				inReplyToStatusId = readLong(reader, -1L);
+				break;
+			case "in_reply_to_user_id":
+				inReplyToUserId = readLong(reader, -1L);
+				break;
+			case "retweeted_status":
+				hasRetweet = readRetweetedStatus(reader);
+				break;
+			case "retweet_count":
+				retweetCountString = readString(reader);
+				break;
+			case "coordinates":
+				readCoordinates(reader);
+				break;
+			case "lang":
+				String l = readString(reader);
+				lang = l == null ? "unknown" : l;
+				break;
+			case "entities":
+				readEntities(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		retweetCount = -1;
+		if (hasRetweet && retweetCountString != null) {
+			try {
+				// retweet_count might say "100+"
+				retweetCount = Integer.parseInt(retweetCountString.replace("+", ""));
+			} catch (NumberFormatException e) {
+				hasRetweet = false;
+			}
+		}
+		if (!hasRetweet || retweetCountString == null) {
+			retweetStatusId = -1L;
+			retweetUserId = -1L;
+		}
+
+		return hasText && hasId && hasUser && createdAt != null;
+	}
+
+	/**
+	 * Reads the user object, and returns whether all required fields were there.
+	 */
+	private boolean readUser(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return false;
+		}
+
+		boolean hasFollowers = false, hasFriends = false, hasStatuses = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "screen_name":
+				screenname = readString(reader);
+				break;
+			case "id_str":
+				userid = readString(reader);
+				break;
+			case "followers_count":
+				followersCount = reader.nextInt();
+				hasFollowers = true;
+				break;
+			case "friends_count":
+				friendsCount = reader.nextInt();
+				hasFriends = true;
+				break;
+			case "statuses_count":
+				statusesCount = reader.nextInt();
+				hasStatuses = true;
+				break;
+			case "location":
+				userLocation = readString(reader);
+				break;
+			case "description":
+				userDescription = readString(reader);
+				break;
+			case "url":
+				userURL = readString(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return screenname != null && userid != null && hasFollowers && hasFriends && hasStatuses;
+	}
+
+	/**
+	 * Reads the ids of the original status and its author, and returns whether
+	 * both were there.
+	 */
+	private boolean readRetweetedStatus(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return false;
+		}
+
+		boolean hasId = false, hasUserId = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("id".equals(name)) {
+				retweetStatusId = readLong(reader, Long.MIN_VALUE);
+				hasId = retweetStatusId != Long.MIN_VALUE;
+			} else if ("user".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				String userId = readField(reader, "id");
+				try {
+					retweetUserId = Long.parseLong(userId);
+					hasUserId = true;
+				} catch (NumberFormatException e) {
+					hasUserId = false;
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return hasId && hasUserId;
+	}
+
+	/**
+	 * Reads the GeoJSON point, which lists longitude first, then latitude.
+	 */
+	private void readCoordinates(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return;
+		}
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!"coordinates".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+				reader.skipValue();
+				continue;
+			}
+
+			double[] point = new double[2];
+			int n = 0;
+			boolean valid = true;
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (n < 2 && isPrimitive(reader.peek())) {
+					try {
+						point[n] = Double.parseDouble(readString(reader));
+					} catch (NumberFormatException | NullPointerException e) {
+						valid = false;
+					}
+				} else {
+					reader.skipValue();
+					valid &= n >= 2;
+				}
+				n++;
+			}
+			reader.endArray();
+
+			if (valid && n >= 2) {
+				longitude = point[0];
+				latitude = point[1];
+			} else {
+				longitude = Double.NEGATIVE_INFINITY;
+				latitude = Double.NEGATIVE_INFINITY;
+			}
+		}
+		reader.endObject();
+	}
+
+	/**
+	 * Reads the expanded urls of the url entities. As before, each url is kept
+	 * as its JSON, quotes included.
+	 */
+	private void readEntities(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return;
+		}
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!"urls".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+				reader.skipValue();
+				continue;
+			}
+
+			List<String> l = new ArrayList<String>();
+			boolean valid = true;
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+					reader.skipValue();
+					valid = false;
+					continue;
+				}
+
+				String url = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if ("expanded_url".equals(reader.nextName())) {
+						url = JSON_PARSER.parse(reader).toString();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+
+				if (url == null) {
+					valid = false;
+				}
+				l.add(url);
+			}
+			reader.endArray();
+			urls = valid ? l.toArray(new String[l.size()]) : null;
+		}
+		reader.endObject();
+	}
+
+	/**
+	 * Reads the given string field of an object, skipping everything else.
+	 */
+	private static String readField(JsonReader reader, String field) throws IOException {
+		String value = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (field.equals(reader.nextName())) {
+				value = readString(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return value;
+	}
+
+	private static boolean isPrimitive(JsonToken token) {
+		return token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN;
+	}
+
+	/**
+	 * Reads a primitive as a string, or returns <code>null</code> for null and
+	 * for objects and arrays, which are skipped.
+	 */
+	private static String readString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+			return reader.nextString();
+		} else if (token == JsonToken.BOOLEAN) {
+			return String.valueOf(reader.nextBoolean());
+		}
+		reader.skipValue();
+		return null;
+	}
+
+	private static long readLong(JsonReader reader, long defaultValue) throws IOException {
+		String value = readString(reader);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Parses a status through a complete Gson tree, which is kept with the
+	 * status. Slower than {@link #fromJson(String)}, which yields the same
+	 * fields; kept as a reference.
+	 */
+	public static Status fromJsonTree(String json) {
 		JsonObject obj = null;
 		try {
 			obj = (JsonObject) JSON_PARSER.parse(json);
@@ -181,7 +659,7 @@ public class Status {
 		status.createdAt = obj.get("created_at").getAsString();
 
 		try {
-			status.epoch = (new SimpleDateFormat(DATE_FORMAT)).parse(status.createdAt).getTime() / 1000;
+			status.epoch = DATE_FORMATTER.get().parse(status.createdAt).getTime() / 1000;
 		} catch (ParseException e) {
 			status.epoch = -1L;
 		}
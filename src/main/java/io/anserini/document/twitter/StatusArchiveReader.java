@@ -0,0 +1,251 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.document.twitter;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Stream of statuses, backed by an archive written by
+ * {@link StatusArchiveWriter}. Each block is read with positional
+ * {@link FileChannel} reads into a heap buffer reused from block to block, and
+ * decoded column by column, so reading runs at about the speed of the disk
+ * rather than that of a JSON parser. Blocks are not memory-mapped: a mapping
+ * per block costs more to set up than the read it saves, and is only released
+ * once garbage collected.
+ *
+ * <p>The JSON itself is not archived: {@link #nextRaw()} returns the archived
+ * fields re-serialized as JSON, which {@link Status#fromJson(String)} parses
+ * back into an equal status, and {@link JsonStatusCorpusReader#nextRaw()} skips
+ * archives so that raw reads over a corpus only see original JSON.</p>
+ */
+public class StatusArchiveReader implements StatusStream {
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(8);
+	private ByteBuffer data = ByteBuffer.allocate(0);
+	private long position;
+	private Status[] block = new Status[0];
+	private int next = 0;
+
+	public StatusArchiveReader(File file) throws IOException {
+		Preconditions.checkNotNull(file);
+
+		if (!file.getName().endsWith(StatusArchiveWriter.SUFFIX)) {
+			throw new IOException("Expecting " + StatusArchiveWriter.SUFFIX + " archive file!");
+		}
+
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		readFully(blockHeader, 0);
+		if (blockHeader.getInt(0) != StatusArchiveWriter.MAGIC) {
+			channel.close();
+			throw new IOException(file + " is not a status archive");
+		}
+		if (blockHeader.getInt(4) != StatusArchiveWriter.VERSION) {
+			channel.close();
+			throw new IOException(file + " has unsupported archive version " + blockHeader.getInt(4));
+		}
+		position = blockHeader.capacity();
+	}
+
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		int start = buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position() - start) < 0) {
+				throw new EOFException("Truncated archive " + file);
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Returns the next status, or <code>null</code> if no more statuses.
+	 */
+	public Status next() throws IOException {
+		if (next == block.length) {
+			if (position >= channel.size()) {
+				return null;
+			}
+			block = readBlock();
+			next = 0;
+		}
+		return block[next++];
+	}
+
+	/**
+	 * Returns the next status re-serialized as JSON, or <code>null</code> if no
+	 * more statuses. Only the archived fields are there; see
+	 * {@link StatusArchiveWriter}.
+	 */
+	public String nextRaw() throws IOException {
+		Status status = next();
+		return status == null ? null : status.toJson();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private Status[] readBlock() throws IOException {
+		blockHeader.clear();
+		readFully(blockHeader, position);
+		int count = blockHeader.getInt(0);
+		int length = blockHeader.getInt(4);
+		if (data.capacity() < length) {
+			data = ByteBuffer.allocate(length);
+		}
+		data.clear();
+		data.limit(length);
+		readFully(data, position + blockHeader.capacity());
+		position += blockHeader.capacity() + length;
+
+		long[] ids = new long[count];
+		ByteBuffer column = nextColumn(data);
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			ids[i] = previous += readVLong(column);
+		}
+		long[] epochs = new long[count];
+		column = nextColumn(data);
+		previous = 0;
+		for (int i = 0; i < count; i++) {
+			epochs[i] = previous += readVLong(column);
+		}
+		String[] createdAts = readStrings(nextColumn(data), count);
+		String[] userids = readStrings(nextColumn(data), count);
+		String[] screennames = readStrings(nextColumn(data), count);
+		String[] texts = readStrings(nextColumn(data), count);
+		String[] langs = readCodes(nextColumn(data), count);
+		String[] places = readCodes(nextColumn(data), count);
+		long[] inReplyToStatusIds = readVLongs(nextColumn(data), count);
+		long[] inReplyToUserIds = readVLongs(nextColumn(data), count);
+		long[] retweetStatusIds = readVLongs(nextColumn(data), count);
+		long[] retweetUserIds = readVLongs(nextColumn(data), count);
+		long[] retweetCounts = readVLongs(nextColumn(data), count);
+		long[] followersCounts = readVLongs(nextColumn(data), count);
+		long[] friendsCounts = readVLongs(nextColumn(data), count);
+		long[] statusesCounts = readVLongs(nextColumn(data), count);
+		double[] latitudes = readDoubles(nextColumn(data), count);
+		double[] longitudes = readDoubles(nextColumn(data), count);
+		String[] userLocations = readCodes(nextColumn(data), count);
+		String[] userDescriptions = readStrings(nextColumn(data), count);
+		String[] userURLs = readStrings(nextColumn(data), count);
+
+		column = nextColumn(data);
+		Status[] statuses = new Status[count];
+		for (int i = 0; i < count; i++) {
+			String[] urls = null;
+			int n = (int) readVLong(column);
+			if (n >= 0) {
+				urls = new String[n];
+				for (int j = 0; j < n; j++) {
+					urls[j] = readString(column);
+				}
+			}
+			statuses[i] = Status.fromArchive(ids[i], epochs[i], createdAts[i], userids[i], screennames[i], texts[i],
+					langs[i], places[i], inReplyToStatusIds[i], inReplyToUserIds[i], retweetStatusIds[i],
+					retweetUserIds[i], (int) retweetCounts[i], (int) followersCounts[i], (int) friendsCounts[i],
+					(int) statusesCounts[i], latitudes[i], longitudes[i], userLocations[i], userDescriptions[i],
+					userURLs[i], urls);
+		}
+		return statuses;
+	}
+
+	private static long[] readVLongs(ByteBuffer column, int count) {
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readVLong(column);
+		}
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer column, int count) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = column.getDouble();
+		}
+		return values;
+	}
+
+	private static String[] readStrings(ByteBuffer column, int count) {
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readString(column);
+		}
+		return values;
+	}
+
+	private static String[] readCodes(ByteBuffer column, int count) {
+		String[] dictionary = readDictionary(column);
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readCode(column, dictionary);
+		}
+		return values;
+	}
+
+	private static ByteBuffer nextColumn(ByteBuffer data) {
+		int length = data.getInt();
+		ByteBuffer column = data.slice();
+		column.limit(length);
+		data.position(data.position() + length);
+		return column;
+	}
+
+	private static long readVLong(ByteBuffer in) {
+		long z = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			z |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (z >>> 1) ^ -(z & 1);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = (int) readVLong(in);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String[] readDictionary(ByteBuffer in) {
+		String[] dictionary = new String[(int) readVLong(in)];
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = readString(in);
+		}
+		return dictionary;
+	}
+
+	private static String readCode(ByteBuffer in, String[] dictionary) {
+		int code = (int) readVLong(in);
+		return code < 0 ? null : dictionary[code];
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.document.twitter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+
+/**
+ * Writes statuses into a binary, column-oriented archive, which
+ * {@link StatusArchiveReader} reads back without parsing any JSON.
+ *
+ * <p>An archive starts with a magic number and a version, followed by blocks
+ * of up to {@link #DEFAULT_BLOCK_SIZE} statuses. A block is its status count
+ * and byte length, then one column per field, each prefixed by its byte
+ * length. Ids and epochs are delta-encoded, all integers are zig-zag
+ * variable-length, strings are length-prefixed UTF-8 (length -1 for
+ * <code>null</code>), coordinates are raw doubles, and languages, places and
+ * user locations are encoded against a dictionary of the block.</p>
+ *
+ * <p>The columns are, in order: id, epoch, created at, user id, screen name,
+ * text, lang, place, in reply to status id, in reply to user id, retweeted
+ * status id, retweeted user id, retweet count, followers count, friends count,
+ * statuses count, latitude, longitude, user location, user description, user
+ * url and url entities.</p>
+ *
+ * <p>Since the header of a block gives its byte length, the reader reads one
+ * whole block at a time into a heap buffer with a positional read, and skips to
+ * the next block without decoding any columns.</p>
+ */
+public class StatusArchiveWriter implements Closeable {
+	private static final Logger LOG = LogManager.getLogger(StatusArchiveWriter.class);
+
+	static final int MAGIC = 0x53544131;
+	static final int VERSION = 1;
+
+	public static final String SUFFIX = ".sta";
+	public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+	/**
+	 * A column of the block being written.
+	 */
+	private static final class Column extends ByteArrayOutputStream {
+		void writeVLong(long v) {
+			long z = (v << 1) ^ (v >> 63);
+			while ((z & ~0x7FL) != 0) {
+				write((int) ((z & 0x7F) | 0x80));
+				z >>>= 7;
+			}
+			write((int) z);
+		}
+
+		void writeDouble(double d) {
+			long bits = Double.doubleToLongBits(d);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				write((int) (bits >>> shift));
+			}
+		}
+
+		void writeString(String s) {
+			if (s == null) {
+				writeVLong(-1);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVLong(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+	}
+
+	private final DataOutputStream out;
+	private final int blockSize;
+	private final List<Status> pending;
+	private final Column column = new Column();
+	private final Column header = new Column();
+	private final Column dictionary = new Column();
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+	private final DataOutputStream blockOut = new DataOutputStream(block);
+	private long count = 0;
+
+	public StatusArchiveWriter(Path path) throws IOException {
+		this(path, DEFAULT_BLOCK_SIZE);
+	}
+
+	public StatusArchiveWriter(Path path, int blockSize) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+		this.blockSize = blockSize;
+		this.pending = new ArrayList<Status>(blockSize);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	public void add(Status status) throws IOException {
+		pending.add(status);
+		count++;
+		if (pending.size() == blockSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Returns the number of statuses added.
+	 */
+	public long count() {
+		return count;
+	}
+
+	private void endColumn() throws IOException {
+		blockOut.writeInt(column.size());
+		column.writeTo(blockOut);
+		column.reset();
+	}
+
+	private void writeDictionaryColumn(List<String> values) throws IOException {
+		Map<String, Integer> codes = new HashMap<String, Integer>();
+		for (String value : values) {
+			if (value == null) {
+				column.writeVLong(-1);
+				continue;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = codes.size();
+				codes.put(value, code);
+				dictionary.writeString(value);
+			}
+			column.writeVLong(code);
+		}
+
+		// the dictionary comes first, then the codes
+		header.writeVLong(codes.size());
+		blockOut.writeInt(header.size() + dictionary.size() + column.size());
+		header.writeTo(blockOut);
+		dictionary.writeTo(blockOut);
+		column.writeTo(blockOut);
+		header.reset();
+		dictionary.reset();
+		column.reset();
+	}
+
+	private void flush() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		long previous = 0;
+		for (Status s : pending) {
+			column.writeVLong(s.getId() - previous);
+			previous = s.getId();
+		}
+		endColumn();
+		previous = 0;
+		for (Status s : pending) {
+			column.writeVLong(s.getEpoch() - previous);
+			previous = s.getEpoch();
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeString(s.getCreatedAt());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeString(s.getUserid());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeString(s.getScreenname());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeString(s.getText());
+		}
+		endColumn();
+
+		List<String> values = new ArrayList<String>(pending.size());
+		for (Status s : pending) {
+			values.add(s.getLang());
+		}
+		writeDictionaryColumn(values);
+		values.clear();
+		for (Status s : pending) {
+			values.add(s.getPlace());
+		}
+		writeDictionaryColumn(values);
+
+		for (Status s : pending) {
+			column.writeVLong(s.getInReplyToStatusId());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getInReplyToUserId());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getRetweetedStatusId());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getRetweetedUserId());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getRetweetCount());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getFollowersCount());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getFriendsCount());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeVLong(s.getStatusesCount());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeDouble(s.getlatitude());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeDouble(s.getLongitude());
+		}
+		endColumn();
+
+		values.clear();
+		for (Status s : pending) {
+			values.add(s.getUserLocation());
+		}
+		writeDictionaryColumn(values);
+
+		for (Status s : pending) {
+			column.writeString(s.getUserDescription());
+		}
+		endColumn();
+		for (Status s : pending) {
+			column.writeString(s.getUserURL());
+		}
+		endColumn();
+		for (Status s : pending) {
+			String[] urls = s.getURLEntities();
+			if (urls == null) {
+				column.writeVLong(-1);
+				continue;
+			}
+			column.writeVLong(urls.length);
+			for (String url : urls) {
+				column.writeString(url);
+			}
+		}
+		endColumn();
+
+		out.writeInt(pending.size());
+		out.writeInt(block.size());
+		block.writeTo(out);
+		block.reset();
+		pending.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	public static class Args {
+		@Option(name = "-input", metaVar = "[path]", required = true, usage = "collection of gzipped JSON statuses")
+		public String input;
+
+		@Option(name = "-output", metaVar = "[path]", required = true, usage = "directory to write the archives to")
+		public String output;
+
+		@Option(name = "-threads", metaVar = "[Number]", usage = "number of block files converted at once")
+		public int threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Converts every block file of a collection into an archive, under the same
+	 * relative path in the output directory. The output can then be read in
+	 * place of the collection by {@link JsonStatusCorpusReader}.
+	 */
+	public static void main(String[] argv) throws Exception {
+		Args args = new Args();
+		CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+		try {
+			parser.parseArgument(argv);
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage(System.err);
+			System.exit(-1);
+		}
+
+		final Path input = new File(args.input).toPath().toAbsolutePath();
+		final Path output = new File(args.output).toPath().toAbsolutePath();
+		if (output.startsWith(input)) {
+			System.err.println("Error: " + output + " must not be inside " + input);
+			System.exit(-1);
+		}
+
+		long startTime = System.currentTimeMillis();
+		final AtomicLong total = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(args.threads);
+		for (final File file : new JsonStatusCorpusReader(input.toFile(), "glob:*.gz").getFiles()) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					String name = input.relativize(file.toPath().toAbsolutePath()).toString();
+					Path archive = output.resolve(name.substring(0, name.length() - ".gz".length()) + SUFFIX);
+					try {
+						Files.createDirectories(archive.getParent());
+						StatusStream block = new JsonStatusBlockReader(file);
+						try (StatusArchiveWriter writer = new StatusArchiveWriter(archive)) {
+							Status status;
+							while ((status = block.next()) != null) {
+								writer.add(status);
+							}
+							total.addAndGet(writer.count());
+							LOG.info(file.getName() + ": " + writer.count() + " statuses written to " + archive);
+						} finally {
+							block.close();
+						}
+					} catch (IOException e) {
+						LOG.error("Converting " + file + " failed", e);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+		LOG.info("Total of " + total.get() + " statuses archived in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
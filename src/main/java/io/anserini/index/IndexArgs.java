@@ -52,4 +52,56 @@ public class IndexArgs {
 
   @Option(name = "-doclimit", metaVar = "[Number]", required = false, usage = "Maximum number of *.warc documents to index (-1 to index everything)")
   int doclimit = -1;
-}
\ No newline at end of file
+
+  @Option(name = "-streamingText", usage = "Boolean switch to extract text with a streaming tag stripper instead of a Jsoup DOM")
+  boolean streamingText = false;
+
+  @Option(name = "-pipeline", usage = "Boolean switch to split reading, parsing and writing into separate pipelined stages")
+  boolean pipeline = false;
+
+  @Option(name = "-parseThreads", metaVar = "[Number]", usage = "Number of parse threads in pipelined mode (default: number of cores)")
+  int parseThreads = Runtime.getRuntime().availableProcessors();
+
+  @Option(name = "-writeThreads", metaVar = "[Number]", usage = "Number of write threads in pipelined mode")
+  int writeThreads = 4;
+
+  @Option(name = "-recordQueue", metaVar = "[Number]", usage = "Capacity of the raw record queue between the read and parse stages")
+  int recordQueue = 1000;
+
+  @Option(name = "-documentQueue", metaVar = "[Number]", usage = "Capacity of the document queue between the parse and write stages")
+  int documentQueue = 1000;
+
+  @Option(name = "-writeBatch", metaVar = "[Number]", usage = "Number of documents a write thread takes off the document queue at once in pipelined mode; they are added one at a time")
+  int writeBatch = 100;
+
+  @Option(name = "-resume", usage = "Boolean switch to continue an interrupted run, skipping files recorded as completed in the index")
+  boolean resume = false;
+
+  @Option(name = "-checkpoint", metaVar = "[Minutes]", usage = "Minutes between intermediate commits recording completed files (0 to disable)")
+  int checkpoint = 30;
+
+  @Option(name = "-shards", metaVar = "[Number]", usage = "Number of shards, each built by its own writer under <index>/shard-<k>")
+  int shards = 1;
+
+  @Option(name = "-shard", metaVar = "[Number]", usage = "Build only this shard (0-based), e.g. one shard per process or machine")
+  int shard = -1;
+
+  @Option(name = "-mergeShards", usage = "Boolean switch to merge the shards into a single index with addIndexes; " +
+          "with -resume, merges shards built by separate -shard runs")
+  boolean mergeShards = false;
+
+  @Option(name = "-profile", metaVar = "[Path]", usage = "IndexWriter tuning profile (properties file, see IndexWriterProfile)")
+  String profile = null;
+
+  @Option(name = "-metricsInterval", metaVar = "[Seconds]", usage = "Seconds between indexing metrics log lines (0 to log them only at the end)")
+  int metricsInterval = 60;
+
+  @Option(name = "-metricsPort", metaVar = "[Number]", usage = "Local port to serve indexing metrics as JSON on at /metrics (0 to disable)")
+  int metricsPort = 0;
+
+  @Option(name = "-pattern", metaVar = "[Pattern]", usage = "Only index files matching a glob: or regex: pattern, or containing one of several :-separated substrings")
+  String pattern = null;
+
+  @Option(name = "-largestFirst", usage = "List the whole collection first and index the largest files first, instead of as they are found")
+  boolean largestFirst = false;
+}
@@ -19,18 +19,20 @@ package io.anserini.index;
 import io.anserini.document.twitter.JsonStatusCorpusReader;
 import io.anserini.document.twitter.Status;
 import io.anserini.document.twitter.StatusStream;
+import io.anserini.index.twitter.DeletedTweets;
 import io.anserini.index.twitter.TweetAnalyzer;
-import io.anserini.rts.TweetStreamReader.StatusField;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import io.anserini.index.twitter.TweetDocumentBuilder;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -43,22 +45,12 @@ import org.apache.commons.cli.ParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleField;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
-import org.apache.tools.bzip2.CBZip2InputStream;
 
 /**
  * Reference implementation for indexing statuses.
@@ -72,23 +64,6 @@ public class IndexTweets {
 	private IndexTweets() {
 	}
 
-	public static enum StatusField {
-		ID("id"), SCREEN_NAME("screen_name"), USER_ID("user_id"), EPOCH("epoch"), TEXT("text"), LANG(
-				"lang"), IN_REPLY_TO_STATUS_ID("in_reply_to_status_id"), IN_REPLY_TO_USER_ID(
-						"in_reply_to_user_id"), FOLLOWERS_COUNT("followers_count"), FRIENDS_COUNT(
-								"friends_count"), STATUSES_COUNT("statuses_count"), RETWEETED_STATUS_ID(
-										"retweeted_status_id"), RETWEETED_USER_ID("retweeted_user_id"), RETWEET_COUNT(
-												"retweet_count"), LATITUDE("latitude"), LONGITUDE("longitude"), PLACE(
-														"place"), USER_LOCATION("user_location"), USER_DESCRIPTION(
-																"user_description"), USER_URL("user_url");
-
-		public final String name;
-
-		StatusField(String s) {
-			name = s;
-		}
-	};
-
 	private static final String HELP_OPTION = "h";
 	private static final String COLLECTION_OPTION = "collection";
 	private static final String INDEX_OPTION = "index";
@@ -96,6 +71,171 @@ public class IndexTweets {
 	private static final String DELETES_OPTION = "deletes";
 	private static final String OPTIMIZE_OPTION = "optimize";
 	private static final String STORE_TERM_VECTORS_OPTION = "store";
+	private static final String THREADS_OPTION = "threads";
+	private static final String COMMIT_INTERVAL_OPTION = "commit_interval";
+	private static final String RAM_BUFFER_OPTION = "ram_buffer";
+	private static final String METRICS_INTERVAL_OPTION = "metrics_interval";
+	private static final String METRICS_PORT_OPTION = "metrics_port";
+
+	private static final int DEFAULT_COMMIT_INTERVAL = 300;
+	private static final double DEFAULT_RAM_BUFFER = 512;
+
+	/**
+	 * Adds a status to the index if it passes the filters, counting it in the
+	 * metrics either way.
+	 *
+	 * @return whether the status was added
+	 */
+	private static boolean addStatus(IndexWriter writer, Status status, TweetDocumentBuilder builder,
+			DeletedTweets deletes, long maxId, IndexingMetrics metrics) throws IOException {
+		if (!accept(status, deletes, maxId)) {
+			metrics.addSkipped(1);
+			return false;
+		}
+
+		long start = System.nanoTime();
+		ReusableDocument doc = builder.build(status);
+		long built = System.nanoTime();
+		writer.addDocument(doc);
+		metrics.addTime(IndexingMetrics.Stage.PARSE, built - start);
+		metrics.addTime(IndexingMetrics.Stage.INDEX, System.nanoTime() - built);
+		metrics.addDocuments(1);
+		return true;
+	}
+
+	private static boolean accept(Status status, DeletedTweets deletes, long maxId) {
+		if (status.getText() == null) {
+			return false;
+		}
+
+		// Skip deletes tweetids.
+		if (deletes != null && deletes.contains(status.getId())) {
+			return false;
+		}
+
+		if (status.getId() > maxId) {
+			return false;
+		}
+
+		if (!status.getLang().equals("en")
+				|| (status.getPlace() == null && (status.getLongitude() == Double.NEGATIVE_INFINITY
+						|| status.getlatitude() == Double.NEGATIVE_INFINITY))) {
+			return false;
+		}
+		return true;
+	}
+
+	// marks the end of the block queue
+	private static final File POISON_PILL = new File("");
+
+	/**
+	 * Takes block files off the queue and adds their statuses to the shared
+	 * writer, each file through its own block stream.
+	 */
+	private static final class BlockIndexer extends Thread {
+		final private BlockingQueue<File> queue;
+		final private CountDownLatch done;
+		final private IndexWriter writer;
+		final private DeletedTweets deletes;
+		final private long maxId;
+		final private AtomicLong count;
+		final private IndexingMetrics metrics;
+
+		final private TweetDocumentBuilder builder;
+
+		BlockIndexer(BlockingQueue<File> queue, CountDownLatch done, IndexWriter writer, boolean termVectors,
+				DeletedTweets deletes, long maxId, AtomicLong count, IndexingMetrics metrics, int i) {
+			this.queue = queue;
+			this.done = done;
+			this.writer = writer;
+			this.builder = new TweetDocumentBuilder(termVectors, true);
+			this.deletes = deletes;
+			this.maxId = maxId;
+			this.count = count;
+			this.metrics = metrics;
+			setName("indexer-" + i);
+		}
+
+		@Override
+		public void run() {
+			try {
+				File file;
+				while ((file = queue.take()) != POISON_PILL) {
+					int cnt = 0;
+					StatusStream block = null;
+					try {
+						block = JsonStatusCorpusReader.openBlock(file);
+						Status status;
+						long start = System.nanoTime();
+						while ((status = block.next()) != null) {
+							metrics.addTime(IndexingMetrics.Stage.READ, System.nanoTime() - start);
+							if (addStatus(writer, status, builder, deletes, maxId, metrics))
+								cnt++;
+							start = System.nanoTime();
+						}
+						metrics.addBytesIn(file.length());
+					} catch (IOException | RuntimeException e) {
+						LOG.error(getName() + ": error indexing " + file, e);
+					} finally {
+						if (block != null) {
+							try {
+								block.close();
+							} catch (IOException e) {
+								LOG.warn(getName() + ": error closing " + file, e);
+							}
+						}
+					}
+					count.addAndGet(cnt);
+					LOG.info(file.getName() + ": " + cnt + " statuses indexed");
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Indexes the block files with a pool of threads sharing one writer, and
+	 * commits from the calling thread every <code>commitNanos</code>.
+	 *
+	 * @return number of statuses added
+	 */
+	private static long indexInParallel(File[] files, int threads, IndexWriter writer, boolean termVectors,
+			DeletedTweets deletes, long maxId, long commitNanos, IndexingMetrics metrics)
+			throws IOException, InterruptedException {
+		LOG.info("Indexing " + files.length + " block files with " + threads + " threads");
+
+		final BlockingQueue<File> queue = new ArrayBlockingQueue<File>(files.length + threads);
+		for (File file : files)
+			queue.add(file);
+		for (int i = 0; i < threads; i++)
+			queue.add(POISON_PILL);
+
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong count = new AtomicLong();
+		final List<BlockIndexer> indexers = new ArrayList<BlockIndexer>();
+		for (int i = 0; i < threads; i++) {
+			BlockIndexer indexer = new BlockIndexer(queue, done, writer, termVectors, deletes, maxId, count, metrics, i);
+			indexers.add(indexer);
+			indexer.start();
+		}
+
+		try {
+			while (!done.await(commitNanos, TimeUnit.NANOSECONDS)) {
+				writer.commit();
+				LOG.info(count.get() + " statuses indexed, " + queue.size() + " block files left, "
+						+ writer.ramBytesUsed() / (1024 * 1024) + "MB buffered");
+			}
+		} catch (InterruptedException ie) {
+			for (BlockIndexer indexer : indexers)
+				indexer.interrupt();
+			throw ie;
+		}
+		writer.commit();
+		return count.get();
+	}
 
 	@SuppressWarnings("static-access")
 	public static void main(String[] args) throws Exception {
@@ -109,11 +249,25 @@ public class IndexTweets {
 				.withDescription("source collection directory").create(COLLECTION_OPTION));
 		options.addOption(
 				OptionBuilder.withArgName("dir").hasArg().withDescription("index location").create(INDEX_OPTION));
-		options.addOption(OptionBuilder.withArgName("file").hasArg().withDescription("file with deleted tweetids")
+		options.addOption(OptionBuilder.withArgName("file").hasArg().withDescription("file with deleted tweetids, a (bzip2) text list or a DeletedTweets file")
 				.create(DELETES_OPTION));
 		options.addOption(OptionBuilder.withArgName("id").hasArg().withDescription("max id").create(MAX_ID_OPTION));
 		options.addOption(OptionBuilder.withArgName("collection_pattern").hasArg()
 				.withDescription("source collection directory").create("collection_pattern"));
+		options.addOption(OptionBuilder.withArgName("num").hasArg()
+				.withDescription("number of threads indexing block files in parallel").create(THREADS_OPTION));
+		options.addOption(OptionBuilder.withArgName("seconds").hasArg()
+				.withDescription("seconds between commits (default " + DEFAULT_COMMIT_INTERVAL + ")")
+				.create(COMMIT_INTERVAL_OPTION));
+		options.addOption(OptionBuilder.withArgName("MB").hasArg()
+				.withDescription("RAM buffer size that triggers a flush (default " + DEFAULT_RAM_BUFFER + ")")
+				.create(RAM_BUFFER_OPTION));
+		options.addOption(OptionBuilder.withArgName("seconds").hasArg()
+				.withDescription("seconds between indexing metrics log lines (default 60, 0 to log them only at the end)")
+				.create(METRICS_INTERVAL_OPTION));
+		options.addOption(OptionBuilder.withArgName("port").hasArg()
+				.withDescription("local port to serve indexing metrics as JSON on at /metrics (off by default)")
+				.create(METRICS_PORT_OPTION));
 		CommandLine cmdline = null;
 		CommandLineParser parser = new GnuParser();
 		try {
@@ -135,21 +289,13 @@ public class IndexTweets {
 
 		System.out.println(collectionPath + " " + indexPath);
 
-		final FieldType textOptions = new FieldType();
-		textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-		textOptions.setStored(true);
-		textOptions.setTokenized(true);
-		if (cmdline.hasOption(STORE_TERM_VECTORS_OPTION)) {
-			textOptions.setStoreTermVectors(true);
-
-		}
+		final boolean termVectors = cmdline.hasOption(STORE_TERM_VECTORS_OPTION);
 
 		LOG.info("collection: " + collectionPath);
 		LOG.info("index: " + indexPath);
 		LOG.info("collection_pattern " + cmdline.getOptionValue("collection_pattern"));
-		LongOpenHashSet deletes = null;
+		DeletedTweets deletes = null;
 		if (cmdline.hasOption(DELETES_OPTION)) {
-			deletes = new LongOpenHashSet();
 			File deletesFile = new File(cmdline.getOptionValue(DELETES_OPTION));
 			if (!deletesFile.exists()) {
 				System.err.println("Error: " + deletesFile + " does not exist!");
@@ -157,21 +303,8 @@ public class IndexTweets {
 			}
 			LOG.info("Reading deletes from " + deletesFile);
 
-			FileInputStream fin = new FileInputStream(deletesFile);
-			byte[] ignoreBytes = new byte[2];
-			fin.read(ignoreBytes); // "B", "Z" bytes from commandline tools
-			BufferedReader br = new BufferedReader(new InputStreamReader(new CBZip2InputStream(fin)));
-
-			String s;
-			while ((s = br.readLine()) != null) {
-				if (s.contains("\t")) {
-					deletes.add(Long.parseLong(s.split("\t")[0]));
-				} else {
-					deletes.add(Long.parseLong(s));
-				}
-			}
-			br.close();
-			fin.close();
+			// mapped rather than loaded, converting a text list first
+			deletes = DeletedTweets.load(deletesFile.toPath());
 			LOG.info("Read " + deletes.size() + " tweetids from deletes file.");
 		}
 
@@ -188,12 +321,20 @@ public class IndexTweets {
 			System.exit(-1);
 		}
 
-		final StatusStream stream = new JsonStatusCorpusReader(file, cmdline.getOptionValue("collection_pattern"));
+		final JsonStatusCorpusReader stream = new JsonStatusCorpusReader(file, cmdline.getOptionValue("collection_pattern"));
 
 		final Directory dir = new SimpleFSDirectory(Paths.get(cmdline.getOptionValue(INDEX_OPTION)));
 		final IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
 
 		config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		// segments are flushed when the buffer fills up rather than at every commit
+		config.setRAMBufferSizeMB(cmdline.hasOption(RAM_BUFFER_OPTION)
+				? Double.parseDouble(cmdline.getOptionValue(RAM_BUFFER_OPTION)) : DEFAULT_RAM_BUFFER);
+
+		final int threads = cmdline.hasOption(THREADS_OPTION)
+				? Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION)) : 1;
+		final long commitNanos = TimeUnit.SECONDS.toNanos(cmdline.hasOption(COMMIT_INTERVAL_OPTION)
+				? Long.parseLong(cmdline.getOptionValue(COMMIT_INTERVAL_OPTION)) : DEFAULT_COMMIT_INTERVAL);
 
 		final IndexWriter writer = new IndexWriter(dir, config);
 
@@ -208,7 +349,7 @@ public class IndexTweets {
 				}
 				;
 
-				System.out.println("# of documents indexed this round:" + writer.numDocs());
+				LOG.info("# of documents indexed this round: " + writer.numDocs());
 
 				try {
 					writer.close();
@@ -222,81 +363,47 @@ public class IndexTweets {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
-				System.out.println("Shutting down");
+				LOG.info("Shutting down");
 
 			}
 		});
-		int cnt = 0;
-		Status status;
+		final IndexingMetrics metrics = new IndexingMetrics();
+		metrics.setWriters(writer);
+		metrics.setIndexPath(Paths.get(indexPath));
+		metrics.start(cmdline.hasOption(METRICS_INTERVAL_OPTION)
+				? Integer.parseInt(cmdline.getOptionValue(METRICS_INTERVAL_OPTION)) : 60,
+				cmdline.hasOption(METRICS_PORT_OPTION) ? Integer.parseInt(cmdline.getOptionValue(METRICS_PORT_OPTION)) : 0);
+
+		long cnt = 0;
+		long lastCommit = System.nanoTime();
 		try {
-			while ((status = stream.next()) != null) {
-				if (status.getText() == null) {
-					continue;
-				}
-
-				// Skip deletes tweetids.
-				if (deletes != null && deletes.contains(status.getId())) {
-					continue;
-				}
-
-				if (status.getId() > maxId) {
-					continue;
-				}
-
-				if (status.getLang().equals("en")
-						&& (status.getPlace() != null || (status.getLongitude() != Double.NEGATIVE_INFINITY
-								&& status.getlatitude() != Double.NEGATIVE_INFINITY))) {
-					cnt++;
-					Document doc = new Document();
-					doc.add(new LongField(StatusField.ID.name, status.getId(), Field.Store.YES));
-
-					doc.add(new Field(StatusField.TEXT.name, status.getText(), textOptions));
-					doc.add(new StringField(StatusField.USER_ID.name, status.getUserid(), Field.Store.YES));
-					if (status.getUserDescription() != null)
-						doc.add(new Field(StatusField.USER_DESCRIPTION.name, status.getUserDescription(), textOptions));
-					if (status.getUserLocation() != null)
-						doc.add(new StringField(StatusField.USER_LOCATION.name, status.getUserLocation(),
-								Field.Store.YES));
-					if (status.getUserURL() != null)
-						doc.add(new StringField(StatusField.USER_URL.name, status.getUserURL(), Field.Store.YES));
-
-					doc.add(new IntField(StatusField.STATUSES_COUNT.name, status.getStatusesCount(), Store.YES));
-
-					if (status.getURLEntities() != null) {
-						List<String> urls = new ArrayList<String>();
-
-						for (int i = 0; i < status.getURLEntities().length; i++) {
-
-							String url = status.getURLEntities()[i];
-
-							if (url != null) {
-								urls.add(url);
-								
-							}
-
+			if (threads > 1) {
+				cnt = indexInParallel(stream.getFiles(), threads, writer, termVectors,
+						deletes, maxId, commitNanos, metrics);
+			} else {
+				Status status;
+				// fields are created once and only have their values reset for each status
+				final TweetDocumentBuilder builder = new TweetDocumentBuilder(termVectors, true);
+				long start = System.nanoTime();
+				while ((status = stream.next()) != null) {
+					metrics.addTime(IndexingMetrics.Stage.READ, System.nanoTime() - start);
+					if (addStatus(writer, status, builder, deletes, maxId, metrics)) {
+						cnt++;
+						if (cnt % 10000 == 0)
+							LOG.info(cnt + " statuses indexed");
+						if (System.nanoTime() - lastCommit >= commitNanos) {
+							writer.commit();
+							lastCommit = System.nanoTime();
 						}
-						if (urls.size() > 0)
-							doc.add(new StringField("tweetOutlinkDomain", String.join(" ", urls), Field.Store.YES));
-
-					}
-
-					if (status.getLongitude() != Double.NEGATIVE_INFINITY
-							&& status.getlatitude() != Double.NEGATIVE_INFINITY) {
-						doc.add(new DoubleField(StatusField.LONGITUDE.name, status.getLongitude(), Store.YES));
-						doc.add(new DoubleField(StatusField.LATITUDE.name, status.getlatitude(), Store.YES));
-					}
-					if (status.getPlace() != null)
-						doc.add(new StringField(StatusField.PLACE.name, status.getPlace(), Store.YES));
-
-					writer.addDocument(doc);
-					if (cnt % 10000 == 0) {
-						LOG.info(cnt + " statuses indexed");
-						writer.commit();
 					}
+					start = System.nanoTime();
 				}
-
 			}
 
+			if (threads <= 1) {
+				for (File block : stream.getFiles())
+					metrics.addBytesIn(block.length());
+			}
 			LOG.info(String.format("Total of %s statuses added", cnt));
 
 			if (cmdline.hasOption(OPTIMIZE_OPTION)) {
@@ -309,6 +416,7 @@ public class IndexTweets {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			metrics.stop();
 			writer.close();
 			dir.close();
 			stream.close();
@@ -19,16 +19,12 @@ package io.anserini.index;
 import io.anserini.document.twitter.JsonStatusCorpusReader;
 import io.anserini.document.twitter.Status;
 import io.anserini.document.twitter.StatusStream;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.index.twitter.TweetAnalyzer;
-import io.anserini.rts.TweetStreamReader;
-import io.anserini.rts.TweetStreamReader.StatusField;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import io.anserini.index.twitter.TweetDocumentBuilder;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Paths;
 
 import org.apache.commons.cli.CommandLine;
@@ -42,29 +38,17 @@ import org.apache.commons.cli.ParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleField;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.NumericRangeQuery;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
-import org.apache.lucene.util.BytesRefBuilder;
-import org.apache.lucene.util.NumericUtils;
-import org.apache.tools.bzip2.CBZip2InputStream;
 
 /**
  * Reference implementation for indexing statuses.
@@ -78,21 +62,6 @@ public class IndexTweetsUpdatePlace {
 	private IndexTweetsUpdatePlace() {
 	}
 
-	public static enum StatusField {
-		ID("id"), SCREEN_NAME("screen_name"), EPOCH("epoch"), TEXT("text"), LANG("lang"), IN_REPLY_TO_STATUS_ID(
-				"in_reply_to_status_id"), IN_REPLY_TO_USER_ID("in_reply_to_user_id"), FOLLOWERS_COUNT(
-						"followers_count"), FRIENDS_COUNT("friends_count"), STATUSES_COUNT(
-								"statuses_count"), RETWEETED_STATUS_ID("retweeted_status_id"), RETWEETED_USER_ID(
-										"retweeted_user_id"), RETWEET_COUNT("retweet_count"), LATITUDE(
-												"latitude"), LONGITUDE("longitude"), PLACE("place");
-
-		public final String name;
-
-		StatusField(String s) {
-			name = s;
-		}
-	};
-
 	private static final String HELP_OPTION = "h";
 	private static final String COLLECTION_OPTION = "collection";
 	private static final String INDEX_OPTION = "index";
@@ -101,6 +70,8 @@ public class IndexTweetsUpdatePlace {
 	private static final String OPTIMIZE_OPTION = "optimize";
 	private static final String STORE_TERM_VECTORS_OPTION = "store";
 
+	private static final double RAM_BUFFER_SIZE = 512;
+
 	@SuppressWarnings("static-access")
 	public static void main(String[] args) throws Exception {
 		Options options = new Options();
@@ -148,14 +119,8 @@ public class IndexTweetsUpdatePlace {
 			System.exit(-1);
 		}
 
-		final FieldType textOptions = new FieldType();
-		textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-		textOptions.setStored(true);
-		textOptions.setTokenized(true);
-		if (cmdline.hasOption(STORE_TERM_VECTORS_OPTION)) {
-			textOptions.setStoreTermVectors(true);
-
-		}
+		final TweetDocumentBuilder builder = new TweetDocumentBuilder(
+				cmdline.hasOption(STORE_TERM_VECTORS_OPTION), true);
 
 		final StatusStream stream = new JsonStatusCorpusReader(file);
 
@@ -163,121 +128,97 @@ public class IndexTweetsUpdatePlace {
 		final IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
 
 		config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+		config.setRAMBufferSizeMB(RAM_BUFFER_SIZE);
+		// All updates become visible in a single commit at the end; an interrupted run leaves the index untouched.
+		config.setCommitOnClose(false);
 
+		// The statuses already in the index, as of before the updates.
+		final IndexReader reader = DirectoryReader.open(dir);
 		final IndexWriter writer = new IndexWriter(dir, config);
-		System.out.print("Original # of docs "+writer.numDocs());
-		int updateCount = 0;
+		LOG.info("Original # of docs " + reader.numDocs());
+
+		// Coordinates can only be updated in place where the index already has them as numeric DocValues.
+		FieldInfos fieldInfos = MultiFields.getMergedFieldInfos(reader);
+		final boolean coordinateDocValues = isNumericDocValues(fieldInfos, StatusField.LATITUDE)
+				&& isNumericDocValues(fieldInfos, StatusField.LONGITUDE);
 
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			public void run() {
-
 				try {
 					stream.close();
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-
 				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				try {
+					// rolls back the updates, unless they were committed
 					writer.close();
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
 				try {
 					dir.close();
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
-				System.out.println("Shutting down");
-
 			}
 		});
-		int cnt = 0;
+
+		int updateCount = 0;
+		int coordinateCount = 0;
+		int skippedCount = 0;
 		Status status;
 		try {
 			while ((status = stream.next()) != null) {
-				
-				if (status.getPlace() != null) {
-
-					
-					
-				    
-//					Query q = NumericRangeQuery.newLongRange(TweetStreamReader.StatusField.ID.name, status.getId(),
-//							status.getId(), true, true);
-//					System.out.print("Deleting docCount="+writer.numDocs());
-//					writer.deleteDocuments(q);
-//					writer.commit();
-//					System.out.print(" Deleted docCount="+writer.numDocs());
-
-					Document doc = new Document();
-					doc.add(new LongField(StatusField.ID.name, status.getId(), Field.Store.YES));
-					doc.add(new LongField(StatusField.EPOCH.name, status.getEpoch(), Field.Store.YES));
-					doc.add(new TextField(StatusField.SCREEN_NAME.name, status.getScreenname(), Store.YES));
-
-					doc.add(new Field(StatusField.TEXT.name, status.getText(), textOptions));
-
-					doc.add(new IntField(StatusField.FRIENDS_COUNT.name, status.getFollowersCount(), Store.YES));
-					doc.add(new IntField(StatusField.FOLLOWERS_COUNT.name, status.getFriendsCount(), Store.YES));
-					doc.add(new IntField(StatusField.STATUSES_COUNT.name, status.getStatusesCount(), Store.YES));
-					doc.add(new DoubleField(StatusField.LONGITUDE.name, status.getLongitude(), Store.YES));
-					doc.add(new DoubleField(StatusField.LATITUDE.name, status.getlatitude(), Store.YES));
-					doc.add(new StringField(StatusField.PLACE.name, status.getPlace(), Store.YES));
-					long inReplyToStatusId = status.getInReplyToStatusId();
-					if (inReplyToStatusId > 0) {
-						doc.add(new LongField(StatusField.IN_REPLY_TO_STATUS_ID.name, inReplyToStatusId,
-								Field.Store.YES));
-						doc.add(new LongField(StatusField.IN_REPLY_TO_USER_ID.name, status.getInReplyToUserId(),
-								Field.Store.YES));
-					}
-
-					String lang = status.getLang();
-					if (!lang.equals("unknown")) {
-						doc.add(new TextField(StatusField.LANG.name, status.getLang(), Store.YES));
-					}
-
-					long retweetStatusId = status.getRetweetedStatusId();
-					if (retweetStatusId > 0) {
-						doc.add(new LongField(StatusField.RETWEETED_STATUS_ID.name, retweetStatusId, Field.Store.YES));
-						doc.add(new LongField(StatusField.RETWEETED_USER_ID.name, status.getRetweetedUserId(),
-								Field.Store.YES));
-						doc.add(new IntField(StatusField.RETWEET_COUNT.name, status.getRetweetCount(), Store.YES));
-						if (status.getRetweetCount() < 0 || status.getRetweetedStatusId() < 0) {
-							LOG.warn("Error parsing retweet fields of " + status.getId());
-						}
-					}
+				boolean hasCoordinates = status.getLongitude() != Double.NEGATIVE_INFINITY
+						&& status.getlatitude() != Double.NEGATIVE_INFINITY;
+				if (status.getPlace() == null && !hasCoordinates) {
+					continue;
+				}
 
-					long id=status.getId();
-					BytesRefBuilder brb = new BytesRefBuilder();
-				    NumericUtils.longToPrefixCodedBytes(id, 0, brb);
-				    Term term = new Term(StatusField.ID.name, brb.get());
-				    writer.updateDocument(term,doc);
-				    
-//					writer.addDocument(doc);
-					
-					
-					updateCount += 1;
-					
-					if (updateCount % 10000 == 0) {
-						
-						LOG.info(updateCount + " statuses updated");
-						writer.commit();
-						System.out.println("Updated docCount="+writer.numDocs());
-					}
+				Term term = TweetDocumentBuilder.idTerm(status.getId());
+				if (reader.docFreq(term) == 0) {
+					// not in the index, e.g. deleted or past its max id
+					skippedCount++;
+					continue;
+				}
 
+				if (status.getPlace() == null && coordinateDocValues) {
+					// Only the coordinates change, and they are DocValues columns: update them in place, which
+					// rewrites a small per-segment file at flush instead of the document. The stored and range-indexed
+					// copies keep their old values; searches and rerankers read the columns.
+					writer.updateNumericDocValue(term, StatusField.LATITUDE.name,
+							Double.doubleToRawLongBits(status.getlatitude()));
+					writer.updateNumericDocValue(term, StatusField.LONGITUDE.name,
+							Double.doubleToRawLongBits(status.getLongitude()));
+					coordinateCount++;
+				} else {
+					// Place is an indexed string field, which DocValues updates cannot change, so the whole document
+					// is replaced; the writer buffers these and resolves the deletes in bulk when it flushes.
+					writer.updateDocument(term, builder.build(status));
 				}
 
-				
+				updateCount++;
+				if (updateCount % 10000 == 0) {
+					LOG.info(updateCount + " statuses updated");
+				}
 			}
 
+			writer.commit();
+			LOG.info(updateCount + " statuses updated, " + coordinateCount + " of them in place, " + skippedCount
+					+ " not in the index");
 			LOG.info("Total elapsed time: " + (System.currentTimeMillis() - startTime) + "ms");
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			writer.close();
-			dir.close();
-			stream.close();
 		}
 	}
+
+	private static boolean isNumericDocValues(FieldInfos fieldInfos, StatusField field) {
+		FieldInfo info = fieldInfos.fieldInfo(field.name);
+		return info != null && info.getDocValuesType() == DocValuesType.NUMERIC;
+	}
 }
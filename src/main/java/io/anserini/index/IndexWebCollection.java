@@ -18,6 +18,8 @@ package io.anserini.index;
  */
 
 import io.anserini.document.*;
+import io.anserini.util.ByteBufferInputStream;
+import io.anserini.util.ReadAheadGZIPInputStream;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,13 +28,14 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.FieldType;
-import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.jsoup.Jsoup;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -40,15 +43,26 @@ import org.kohsuke.args4j.OptionHandlerFilter;
 import org.kohsuke.args4j.ParserProperties;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Indexer for Gov2, ClueWeb09, and ClueWeb12 corpara.
@@ -61,111 +75,178 @@ public final class IndexWebCollection {
   public static final String FIELD_ID = "id";
   public static final String RESPONSE = "response";
 
-  private final class IndexerThread extends Thread {
+  /**
+   * Marker placed on the work queue, once per worker, after the last input file has been queued.
+   */
+  private static final Path POISON_PILL = Paths.get("");
 
-    final private Path inputWarcFile;
+  /**
+   * Commit user data key holding the newline-separated list of input files (relative to the
+   * collection root) whose documents are all contained in that commit.
+   */
+  public static final String COMMIT_COMPLETED_FILES = "completed_files";
 
-    final private IndexWriter writer;
+  /**
+   * Shard <i>k</i> of a sharded build lives in the sub-directory <code>SHARD_PREFIX + k</code> of the index path.
+   */
+  public static final String SHARD_PREFIX = "shard-";
 
-    public IndexerThread(IndexWriter writer, Path inputWarcFile) throws IOException {
-      this.writer = writer;
-      this.inputWarcFile = inputWarcFile;
-      setName(inputWarcFile.getFileName().toString());
-    }
+  public static Path shardPath(Path indexPath, int shard) {
+    return indexPath.resolve(SHARD_PREFIX + shard);
+  }
 
-    private int indexWarcRecord(WarcRecord warcRecord) throws IOException {
-      // see if it's a response record
-      if (!RESPONSE.equals(warcRecord.type()))
-        return 0;
+  /**
+   * Tracks one input file until all of its documents are in the writer of its shard. The reader
+   * holds one reference while it is reading and every record queued for the pipelined stages holds
+   * another, so the file is done exactly when the last of them is released.
+   */
+  private final class FileProgress {
 
-      String id = warcRecord.id();
+    private final Path file;
 
-      org.jsoup.nodes.Document jDoc;
-      try {
-        jDoc = Jsoup.parse(warcRecord.content());
-      } catch (java.lang.IllegalArgumentException iae) {
-        LOG.error("Parsing document with JSoup failed, skipping document : " + id, iae);
-        System.err.println(id);
-        return 1;
-      }
+    private final int shard;
 
-      String contents = jDoc.text();
-      // don't index empty documents but count them
-      if (contents.trim().length() == 0) {
-        System.err.println(id);
-        return 1;
-      }
+    private final IndexWriter writer;
 
-      // make a new, empty document
-      Document document = new Document();
+    private final AtomicInteger outstanding = new AtomicInteger(1);
 
-      // document id
-      document.add(new StringField(FIELD_ID, id, Field.Store.YES));
+    private final AtomicInteger written = new AtomicInteger();
 
-      FieldType fieldType = new FieldType();
+    private volatile boolean failed = false;
 
-      // Are we storing document vectors?
-      if (docVectors) {
-        fieldType.setStored(false);
-        fieldType.setStoreTermVectors(true);
-        fieldType.setStoreTermVectorPositions(true);
-      }
+    public FileProgress(Path file) {
+      this.file = file;
+      this.shard = shardOf(file);
+      this.writer = writers[shard];
+    }
 
-      // Are we building a "positional" or "count" index?
-      if (positions) {
-        fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-      } else {
-        fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    void retain() {
+      outstanding.incrementAndGet();
+    }
+
+    void release() {
+      if (outstanding.decrementAndGet() == 0) {
+        report();
+        fileDone(file, shard, failed);
       }
+    }
 
-      document.add(new Field(FIELD_BODY, contents, fieldType));
+    /**
+     * Prints the number of documents of the file that made it into the writer.
+     */
+    private void report() {
+      String name = file.getParent().getFileName().toString() + File.separator + file.getFileName().toString();
+      if (Collection.CW09.equals(collection))
+        System.out.println("*./" + name + "  " + written.get());
+      else
+        System.out.println("./" + name + "\t" + written.get());
+    }
+  }
+
+  /**
+   * An item on one of the pipeline queues, along with the file it came from.
+   */
+  private static final class Pending<T> {
+
+    final T item;
 
-      writer.addDocument(document);
-      return 1;
+    final FileProgress file;
 
+    Pending(T item, FileProgress file) {
+      this.item = item;
+      this.file = file;
     }
+  }
 
-    private int indexClueWeb12WarcFile() throws IOException {
+  /**
+   * Long-lived worker that takes input files off the shared work queue until it sees {@link #POISON_PILL}.
+   */
+  private final class IndexerThread extends Thread {
 
-      int i = 0;
+    final private BlockingQueue<Path> queue;
 
-      try (DataInputStream inStream = new DataInputStream(new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ)))) {
-        // iterate through our stream
-        ClueWeb12WarcRecord wDoc;
-        while ((wDoc = ClueWeb12WarcRecord.readNextWarcRecord(inStream, ClueWeb12WarcRecord.WARC_VERSION)) != null) {
-          i += indexWarcRecord(wDoc);
-        }
-      }
-      return i;
+    final private CountDownLatch done;
+
+    private Path inputWarcFile;
+
+    private FileProgress progress;
+
+    final private HtmlTextExtractor extractor = streamingText ? new HtmlTextExtractor() : null;
+
+    final private ReusableDocument template = new ReusableDocument();
+
+    public IndexerThread(BlockingQueue<Path> queue, CountDownLatch done, int i) {
+      this.queue = queue;
+      this.done = done;
+      setName("indexer-" + i);
     }
 
-    private int indexClueWeb09WarcFile() throws IOException {
+    private void indexWarcRecord(WarcRecord warcRecord) throws IOException {
+      // see if it's a response record
+      if (!RESPONSE.equals(warcRecord.type()))
+        return;
+
+      // in pipelined mode parsing and writing happen on the shared stages
+      if (records != null) {
+        progress.retain();
+        try {
+          records.put(new Pending<>(warcRecord, progress));
+        } catch (InterruptedException ie) {
+          progress.release();
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while queueing " + warcRecord.id());
+        }
+        return;
+      }
 
-      int i = 0;
+      // the writer is done with the template when addDocument returns, so it is reused for every record
+      long start = System.nanoTime();
+      String contents = extractText(warcRecord, extractor);
+      metrics.addTime(IndexingMetrics.Stage.PARSE, System.nanoTime() - start);
+      if (contents != null) {
+        template.clear()
+                .addString(FIELD_ID, warcRecord.id(), Field.Store.YES)
+                .add(FIELD_BODY, contents, bodyType);
+        start = System.nanoTime();
+        if (resume)
+          progress.writer.updateDocument(new Term(FIELD_ID, warcRecord.id()), template);
+        else
+          progress.writer.addDocument(template);
+        metrics.addTime(IndexingMetrics.Stage.INDEX, System.nanoTime() - start);
+        metrics.addDocuments(1);
+        progress.written.incrementAndGet();
+      }
+    }
 
-      try (DataInputStream inStream = new DataInputStream(new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ)))) {
+    private void indexWarcFile() throws IOException {
+      try (WarcRecordReader reader = new WarcRecordReader(Channels.newChannel(new ReadAheadGZIPInputStream(
+              Files.newInputStream(inputWarcFile, StandardOpenOption.READ))), collection)) {
         // iterate through our stream
-        ClueWeb09WarcRecord wDoc;
-        while ((wDoc = ClueWeb09WarcRecord.readNextWarcRecord(inStream, ClueWeb09WarcRecord.WARC_VERSION)) != null) {
-          i += indexWarcRecord(wDoc);
+        WarcRecordReader.Record wDoc;
+        long start = System.nanoTime();
+        while ((wDoc = reader.next()) != null) {
+          // records share the reader's buffer, so queued ones need their own copy
+          if (records != null && RESPONSE.equals(wDoc.type()))
+            wDoc = wDoc.detach();
+          metrics.addTime(IndexingMetrics.Stage.READ, System.nanoTime() - start);
+          indexWarcRecord(wDoc);
+          start = System.nanoTime();
         }
       }
-      return i;
     }
 
-    private int indexGov2File() throws IOException {
-
-      int i = 0;
+    private void indexGov2File() throws IOException {
 
       StringBuilder builder = new StringBuilder();
 
       boolean found = false;
 
       try (
-              InputStream stream = new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ), Gov2Record.BUFFER_SIZE);
+              InputStream stream = new ReadAheadGZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ));
               BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
 
 
+        long start = System.nanoTime();
         for (; ; ) {
           String line = reader.readLine();
           if (line == null)
@@ -181,37 +262,263 @@ public final class IndexWebCollection {
           if (line.startsWith(Gov2Record.TERMINATING_DOC)) {
             found = false;
             WarcRecord gov2 = Gov2Record.parseGov2Record(builder);
-            i += indexWarcRecord(gov2);
+            metrics.addTime(IndexingMetrics.Stage.READ, System.nanoTime() - start);
+            indexWarcRecord(gov2);
             builder.setLength(0);
+            start = System.nanoTime();
           }
 
           if (found)
             builder.append(line).append(" ");
         }
       }
+    }
 
-      return i;
+    // the number of documents written is reported once the last of them is in, see FileProgress
+    private void indexFile() throws IOException {
+      if (Collection.CW09.equals(collection) || Collection.CW12.equals(collection))
+        indexWarcFile();
+      else if (Collection.GOV2.equals(collection))
+        indexGov2File();
     }
 
     @Override
     public void run() {
-      {
-        try {
-          if (Collection.CW09.equals(collection)) {
-            int addCount = indexClueWeb09WarcFile();
-            System.out.println("*./" + inputWarcFile.getParent().getFileName().toString() + File.separator + inputWarcFile.getFileName().toString() + "  " + addCount);
-          } else if (Collection.CW12.equals(collection)) {
-            int addCount = indexClueWeb12WarcFile();
-            System.out.println("./" + inputWarcFile.getParent().getFileName().toString() + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
-          } else if (Collection.GOV2.equals(collection)) {
-            int addCount = indexGov2File();
-            System.out.println("./" + inputWarcFile.getParent().getFileName().toString() + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
+      try {
+        while (true) {
+          Path next = queue.take();
+          if (next == POISON_PILL)
+            break;
+
+          inputWarcFile = next;
+          progress = new FileProgress(next);
+          try {
+            indexFile();
+            metrics.addBytesIn(Files.size(inputWarcFile));
+          } catch (IOException ioe) {
+            progress.failed = true;
+            LOG.error(getName() + ": ERROR: unexpected IOException while indexing " + inputWarcFile, ioe);
+          } catch (RuntimeException re) {
+            progress.failed = true;
+            // a malformed file must not take the worker down with it, or the queue would stall
+            LOG.error(getName() + ": ERROR: unexpected exception while indexing " + inputWarcFile, re);
+          } finally {
+            progress.release();
+          }
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  /**
+   * Extracts the text of a response record, or returns null if it should be skipped (unparseable
+   * or empty documents).
+   *
+   * @param warcRecord response record
+   * @param extractor  the calling thread's streaming extractor, or null to extract text with Jsoup
+   */
+  private String extractText(WarcRecord warcRecord, HtmlTextExtractor extractor) {
+    String id = warcRecord.id();
+
+    // ClueWeb records come from the byte-level reader, and their payload is parsed straight from
+    // its buffer instead of being decoded into a String first
+    ByteBuffer payload = warcRecord instanceof WarcRecordReader.Record
+            ? ((WarcRecordReader.Record) warcRecord).payload() : null;
+
+    String contents;
+    if (extractor != null) {
+      contents = payload != null
+              ? extractor.text(payload, StandardCharsets.UTF_8)
+              : extractor.text(warcRecord.content());
+    } else {
+      org.jsoup.nodes.Document jDoc;
+      try {
+        jDoc = payload != null
+                ? Jsoup.parse(new ByteBufferInputStream(payload), StandardCharsets.UTF_8.name(), "")
+                : Jsoup.parse(warcRecord.content());
+      } catch (IOException | java.lang.IllegalArgumentException iae) {
+        LOG.error("Parsing document with JSoup failed, skipping document : " + id, iae);
+        metrics.addSkipped(1);
+        return null;
+      }
+      contents = jDoc.text();
+    }
+
+    // don't index empty documents but count them
+    if (contents.trim().length() == 0) {
+      LOG.debug("Skipping empty document: " + id);
+      metrics.addSkipped(1);
+      return null;
+    }
+    return contents;
+  }
+
+  /**
+   * Turns a response record into a new Lucene document, or returns null if it should be skipped.
+   * Used where documents are queued, and so cannot share a template.
+   */
+  private Document buildDocument(WarcRecord warcRecord, HtmlTextExtractor extractor) {
+    String contents = extractText(warcRecord, extractor);
+    if (contents == null)
+      return null;
+
+    // make a new, empty document
+    Document document = new Document();
+
+    // document id
+    document.add(new StringField(FIELD_ID, warcRecord.id(), Field.Store.YES));
+    document.add(new Field(FIELD_BODY, contents, bodyType));
+    return document;
+  }
+
+  /**
+   * Builds the type of the body field from the positions and docVectors settings. The type is
+   * frozen and shared by all documents.
+   */
+  private FieldType bodyFieldType() {
+    FieldType fieldType = new FieldType();
+
+    // Are we storing document vectors?
+    if (docVectors) {
+      fieldType.setStored(false);
+      fieldType.setStoreTermVectors(true);
+      fieldType.setStoreTermVectorPositions(true);
+    }
+
+    // Are we building a "positional" or "count" index?
+    if (positions) {
+      fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    } else {
+      fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    }
+
+    fieldType.freeze();
+    return fieldType;
+  }
+
+  private static final Pending<WarcRecord> RECORD_POISON_PILL = new Pending<>(null, null);
+
+  private static final Pending<Document> DOCUMENT_POISON_PILL = new Pending<>(null, null);
+
+  /**
+   * Pipelined mode, parse stage: takes raw records off the record queue, extracts their text and
+   * hands the resulting documents to the write stage.
+   */
+  private final class ParserThread extends Thread {
+
+    final private CountDownLatch done;
+
+    final private HtmlTextExtractor extractor = streamingText ? new HtmlTextExtractor() : null;
+
+    public ParserThread(CountDownLatch done, int i) {
+      this.done = done;
+      setName("parser-" + i);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Pending<WarcRecord> record = records.take();
+          if (record == RECORD_POISON_PILL)
+            break;
+
+          Document document = null;
+          long start = System.nanoTime();
+          try {
+            document = buildDocument(record.item, extractor);
+          } catch (RuntimeException re) {
+            LOG.error(getName() + ": ERROR: unexpected exception while parsing " + record.item.id(), re);
           }
+          metrics.addTime(IndexingMetrics.Stage.PARSE, System.nanoTime() - start);
+
+          if (document != null)
+            documents.put(new Pending<>(document, record.file));
+          else
+            record.file.release();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        failPipeline(this, t);
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  /**
+   * Pipelined mode, write stage: takes documents off the document queue in batches of up to
+   * {@link #writeBatchSize} and adds them one by one to the writer of their shard. A partial batch is
+   * flushed whenever the queue runs dry, so documents never sit waiting for a batch to fill up.
+   */
+  private final class WriterThread extends Thread {
+
+    final private CountDownLatch done;
+
+    public WriterThread(CountDownLatch done, int i) {
+      this.done = done;
+      setName("writer-" + i);
+    }
 
+    private void flush(List<Pending<Document>> batch) {
+      if (batch.isEmpty())
+        return;
+
+      // addDocuments would index the batch as one block, which the writer cannot flush partway
+      // through and drops entirely if a single document is bad
+      long start = System.nanoTime();
+      int added = 0;
+      for (Pending<Document> pending : batch) {
+        IndexWriter writer = pending.file.writer;
+        try {
+          if (resume)
+            writer.updateDocument(new Term(FIELD_ID, pending.item.get(FIELD_ID)), pending.item);
+          else
+            writer.addDocument(pending.item);
+          pending.file.written.incrementAndGet();
+          added++;
         } catch (IOException ioe) {
-          LOG.error(Thread.currentThread().getName() + ": ERROR: unexpected IOException:", ioe);
+          pending.file.failed = true;
+          LOG.error(getName() + ": ERROR: unexpected IOException while adding " + pending.item.get(FIELD_ID), ioe);
         }
       }
+      metrics.addTime(IndexingMetrics.Stage.INDEX, System.nanoTime() - start);
+      metrics.addDocuments(added);
+
+      for (Pending<Document> pending : batch)
+        pending.file.release();
+      batch.clear();
+    }
+
+    @Override
+    public void run() {
+      final List<Pending<Document>> batch = new ArrayList<>(writeBatchSize);
+      try {
+        Pending<Document> document = documents.take();
+        while (document != DOCUMENT_POISON_PILL) {
+          batch.add(document);
+          if (batch.size() >= writeBatchSize)
+            flush(batch);
+
+          document = documents.poll();
+          if (document == null) {
+            flush(batch);
+            document = documents.take();
+          }
+        }
+        flush(batch);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        failPipeline(this, t);
+      } finally {
+        done.countDown();
+      }
     }
   }
 
@@ -230,6 +537,15 @@ public final class IndexWebCollection {
     this.docVectors = docVectors;
   }
 
+  private boolean streamingText = false;
+
+  /**
+   * Extracts text with {@link HtmlTextExtractor} instead of building a Jsoup DOM for every page.
+   */
+  public void setStreamingText(boolean streamingText) {
+    this.streamingText = streamingText;
+  }
+
   private boolean optimize = false;
 
   public void setOptimize(boolean optimize) {
@@ -242,8 +558,143 @@ public final class IndexWebCollection {
     this.doclimit = doclimit;
   }
 
+  private IndexWriterProfile profile = new IndexWriterProfile();
+
+  public void setProfile(IndexWriterProfile profile) {
+    this.profile = profile;
+  }
+
+  private int shards = 1;
+
+  public void setShards(int shards) {
+    this.shards = shards;
+  }
+
+  private int shard = -1;
+
+  /**
+   * Builds only the given shard, so that the shards of one collection can be built by separate
+   * processes, possibly on separate machines.
+   */
+  public void setShard(int shard) {
+    this.shard = shard;
+  }
+
+  private boolean mergeShards = false;
+
+  public void setMergeShards(boolean mergeShards) {
+    this.mergeShards = mergeShards;
+  }
+
+  private boolean pipeline = false;
+
+  public void setPipeline(boolean pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  private int parseThreads = Runtime.getRuntime().availableProcessors();
+
+  public void setParseThreads(int parseThreads) {
+    this.parseThreads = parseThreads;
+  }
+
+  private int writeThreads = 4;
+
+  public void setWriteThreads(int writeThreads) {
+    this.writeThreads = writeThreads;
+  }
+
+  private int recordQueueSize = 1000;
+
+  public void setRecordQueueSize(int recordQueueSize) {
+    this.recordQueueSize = recordQueueSize;
+  }
+
+  private int documentQueueSize = 1000;
+
+  public void setDocumentQueueSize(int documentQueueSize) {
+    this.documentQueueSize = documentQueueSize;
+  }
+
+  private boolean resume = false;
+
+  public void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  private int checkpointMinutes = 30;
+
+  public void setCheckpointMinutes(int checkpointMinutes) {
+    this.checkpointMinutes = checkpointMinutes;
+  }
+
+  private int writeBatchSize = 100;
+
+  public void setWriteBatchSize(int writeBatchSize) {
+    this.writeBatchSize = writeBatchSize;
+  }
+
+  private int metricsInterval = 60;
+
+  /**
+   * Sets how often, in seconds, the indexing metrics are logged; 0 to log them only at the end.
+   */
+  public void setMetricsInterval(int metricsInterval) {
+    this.metricsInterval = metricsInterval;
+  }
+
+  private int metricsPort = 0;
+
+  /**
+   * Serves the indexing metrics as JSON on the given local port while indexing; 0 for none.
+   */
+  public void setMetricsPort(int metricsPort) {
+    this.metricsPort = metricsPort;
+  }
+
+  private String pattern = null;
+
+  /**
+   * Restricts indexing to the files matching a <code>glob:</code> or <code>regex:</code> pattern,
+   * or containing one of several <code>:</code>-separated substrings, besides the suffix.
+   */
+  public void setPattern(String pattern) {
+    this.pattern = pattern;
+  }
+
+  private boolean largestFirst = false;
+
+  /**
+   * Lists the whole collection before indexing starts and hands out the files largest first,
+   * rather than as the walk finds them.
+   */
+  public void setLargestFirst(boolean largestFirst) {
+    this.largestFirst = largestFirst;
+  }
+
   private final Collection collection;
 
+  // queues between the read, parse and write stages; only set in pipelined mode
+  private BlockingQueue<Pending<WarcRecord>> records;
+  private BlockingQueue<Pending<Document>> documents;
+
+  // first unexpected failure of a parse or write thread, and the thread waiting for the stages to finish
+  private final AtomicReference<Throwable> pipelineFailure = new AtomicReference<>();
+  private volatile Thread coordinator;
+
+  // one writer per shard; when building a single shard only the writer of that shard is open
+  private IndexWriter[] writers;
+
+  // per shard, files (relative to docDir) whose documents are all in the writer, including those
+  // found in the index we resumed from
+  private final List<Set<String>> completedManifests = new ArrayList<>();
+
+  // type of the body field, set up once the settings are final
+  private FieldType bodyType;
+
+  private final IndexingMetrics metrics = new IndexingMetrics();
+  private final AtomicLong completedFiles = new AtomicLong();
+
   public IndexWebCollection(String docsPath, String indexPath, Collection collection) throws IOException {
 
     this.indexPath = Paths.get(indexPath);
@@ -259,134 +710,362 @@ public final class IndexWebCollection {
     this.collection = collection;
   }
 
+  /**
+   * Called when a parse or write thread dies. The other stages would block forever on the queue it
+   * no longer drains, so the coordinator is interrupted, which cancels every thread of the run.
+   */
+  private void failPipeline(Thread stage, Throwable t) {
+    LOG.error(stage.getName() + ": ERROR: pipeline stage failed, stopping", t);
+    if (pipelineFailure.compareAndSet(null, t) && coordinator != null)
+      coordinator.interrupt();
+  }
 
-  static Deque<Path> discoverWarcFiles(Path p, final String suffix) {
-
-    final Deque<Path> stack = new ArrayDeque<>();
-
-    FileVisitor<Path> fv = new SimpleFileVisitor<Path>() {
-
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+  /**
+   * Called once per input file, after every one of its documents has been handed to the writer.
+   * Failed files are not recorded in the manifest, so that a resumed run retries them.
+   */
+  private void fileDone(Path file, int shard, boolean failed) {
+    completedFiles.incrementAndGet();
+    if (failed)
+      return;
 
-        Path name = file.getFileName();
-        if (name != null && name.toString().endsWith(suffix))
-          stack.add(file);
-        return FileVisitResult.CONTINUE;
-      }
+    String name = docDir.relativize(file).toString();
+    Set<String> manifest = completedManifests.get(shard);
+    synchronized (manifest) {
+      manifest.add(name);
+    }
+  }
 
-      @Override
-      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-        if ("OtherData".equals(dir.getFileName().toString())) {
-          LOG.info("Skipping: " + dir);
-          return FileVisitResult.SKIP_SUBTREE;
-        }
-        return FileVisitResult.CONTINUE;
-      }
+  /**
+   * Assigns a file to a shard by its path relative to the collection root, so that every process
+   * of a multi-process build, and every resumed run, agrees on the assignment.
+   */
+  private int shardOf(Path file) {
+    return (docDir.relativize(file).toString().hashCode() & Integer.MAX_VALUE) % shards;
+  }
 
-      @Override
-      public FileVisitResult visitFileFailed(Path file, IOException ioe) {
-        LOG.error("Visiting failed for " + file.toString(), ioe);
-        return FileVisitResult.SKIP_SUBTREE;
+  /**
+   * Commits every open shard, recording the files completed so far in the commit user data.
+   * Documents of files still in progress may be part of the commit too; they are replaced when
+   * those files are indexed again on resume.
+   */
+  private void checkpoint() throws IOException {
+    for (int k = 0; k < shards; k++) {
+      if (writers[k] == null)
+        continue;
+
+      final String manifest;
+      Set<String> completed = completedManifests.get(k);
+      synchronized (completed) {
+        manifest = String.join("\n", completed);
       }
-    };
 
-    try {
-      Files.walkFileTree(p, fv);
-    } catch (IOException e) {
-      LOG.error("IOException during file visiting", e);
+      Map<String, String> commitData = new HashMap<>();
+      commitData.put(COMMIT_COMPLETED_FILES, manifest);
+      writers[k].setCommitData(commitData);
+      writers[k].commit();
     }
-    return stack;
   }
 
+  private IndexWriter openWriter(Path path, int writers) throws IOException {
+    final Directory dir = FSDirectory.open(path);
 
-  public int indexWithThreads(int numThreads) throws IOException, InterruptedException {
+    final IndexWriterConfig iwc = new IndexWriterConfig(new EnglishAnalyzer());
 
-    LOG.info("Indexing with " + numThreads + " threads to directory '" + indexPath.toAbsolutePath() + "'...");
+    iwc.setSimilarity(new BM25Similarity());
+    iwc.setOpenMode(resume ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+    profile.configure(iwc, writers);
 
-    final Directory dir = FSDirectory.open(indexPath);
+    return new IndexWriter(dir, iwc);
+  }
 
-    final IndexWriterConfig iwc = new IndexWriterConfig(new EnglishAnalyzer());
+  /**
+   * Merges the shards of a sharded build into a single index at the index path with
+   * {@link IndexWriter#addIndexes(Directory...)}, then removes the shard directories.
+   *
+   * @param indexPath index path the shards were built under
+   * @param shards    number of shards
+   * @param optimize  whether to merge the result down to one segment
+   * @param profile   tuning profile for the writer of the merged index
+   * @return the number of documents in the merged index
+   * @throws IOException
+   */
+  public static int mergeShards(Path indexPath, int shards, boolean optimize, IndexWriterProfile profile)
+          throws IOException {
+    LOG.info("Merging " + shards + " shards into '" + indexPath.toAbsolutePath() + "'...");
 
+    final IndexWriterConfig iwc = new IndexWriterConfig(new EnglishAnalyzer());
     iwc.setSimilarity(new BM25Similarity());
     iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-    iwc.setRAMBufferSizeMB(512);
-    iwc.setUseCompoundFile(false);
-    iwc.setMergeScheduler(new ConcurrentMergeScheduler());
+    profile.configure(iwc, 1);
 
-    final IndexWriter writer = new IndexWriter(dir, iwc);
+    for (int k = 0; k < shards; k++) {
+      if (!Files.isDirectory(shardPath(indexPath, k)))
+        throw new IllegalArgumentException("Shard directory '" + shardPath(indexPath, k) + "' does not exist");
+    }
 
-    final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
-    final String suffix = Collection.GOV2.equals(collection) ? ".gz" : ".warc.gz";
-    final Deque<Path> warcFiles = discoverWarcFiles(docDir, suffix);
+    final Directory[] dirs = new Directory[shards];
+    final int numIndexed;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexPath), iwc)) {
+      for (int k = 0; k < shards; k++)
+        dirs[k] = FSDirectory.open(shardPath(indexPath, k));
 
-    if (doclimit > 0 && warcFiles.size() < doclimit)
-      for (int i = doclimit; i < warcFiles.size(); i++)
-        warcFiles.removeFirst();
+      writer.addIndexes(dirs);
+      if (optimize)
+        writer.forceMerge(1);
+      writer.commit();
+      numIndexed = writer.maxDoc();
+    } finally {
+      IOUtils.close(dirs);
+    }
 
-    long totalWarcFiles = warcFiles.size();
-    LOG.info(totalWarcFiles + " many " + suffix + " files found under the docs path : " + docDir.toString());
+    for (int k = 0; k < shards; k++)
+      IOUtils.rm(shardPath(indexPath, k));
 
+    return numIndexed;
+  }
 
-    for (int i = 0; i < 2000; i++) {
-      if (!warcFiles.isEmpty())
-        executor.execute(new IndexerThread(writer, warcFiles.removeFirst()));
-      else {
-        if (!executor.isShutdown()) {
-          Thread.sleep(30000);
-          executor.shutdown();
+
+  static Deque<Path> discoverWarcFiles(Path p, final String suffix) {
+    final LinkedBlockingDeque<Path> stack = new LinkedBlockingDeque<>();
+    try {
+      discoverWarcFiles(p, suffix, stack, -1, new DirectoryStream.Filter<Path>() {
+        @Override
+        public boolean accept(Path entry) {
+          return true;
         }
+      });
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    return stack;
+  }
+
+  /**
+   * Lists the collection, walking its directories in parallel, and queues the matching files as
+   * they are found, blocking whenever the queue is full; the walk stops once <code>limit</code>
+   * files are queued.
+   *
+   * @param p      collection root
+   * @param suffix file name suffix to match
+   * @param queue  destination queue
+   * @param limit  maximum number of files to queue (-1 for no limit)
+   * @param filter decides which of the matching files to queue
+   * @return the number of files queued
+   */
+  static int discoverWarcFiles(Path p, final String suffix, final BlockingQueue<Path> queue, final int limit,
+                               final DirectoryStream.Filter<Path> filter) throws InterruptedException {
+    return discoverWarcFiles(p, CorpusFiles.suffix(suffix), queue, limit, filter, false);
+  }
+
+  /**
+   * As above, or with <code>largestFirst</code>, queues the files largest first once the whole
+   * collection is listed. Workers taking files in that order finish with the short ones instead of
+   * waiting on one large file at the end, which pays off when the walk is quick next to indexing.
+   */
+  static int discoverWarcFiles(Path p, PathMatcher matcher, BlockingQueue<Path> queue, int limit,
+                               DirectoryStream.Filter<Path> filter, boolean largestFirst) throws InterruptedException {
+    CorpusFiles corpus = new CorpusFiles(p, matcher).skipDirectory("OtherData").setFilter(filter);
+    if (!largestFirst)
+      return corpus.discover(queue, limit);
+
+    List<Path> files = corpus.discover();
+    if (Thread.interrupted())
+      throw new InterruptedException();
+
+    int count = 0;
+    for (Path file : files) {
+      if (count == limit)
         break;
+      queue.put(file);
+      count++;
+    }
+    return count;
+  }
+
+  private long lastCheckpoint = System.nanoTime();
+
+  private void awaitWithProgress(CountDownLatch latch, AtomicLong queuedFiles)
+          throws InterruptedException, IOException {
+    while (!latch.await(1, TimeUnit.MINUTES)) {
+      long total = queuedFiles.get();
+      LOG.info(String.format("%d documents indexed, %d of %s files completed", metrics.documents(),
+              completedFiles.get(), total < 0 ? "?" : String.valueOf(total)));
+
+      if (checkpointMinutes > 0 &&
+              System.nanoTime() - lastCheckpoint >= TimeUnit.MINUTES.toNanos(checkpointMinutes)) {
+        checkpoint();
+        lastCheckpoint = System.nanoTime();
+        LOG.info("Checkpoint: " + completedFiles.get() + " files committed");
       }
     }
+  }
 
+  public int indexWithThreads(int numThreads) throws IOException, InterruptedException {
 
-    long first = 0;
-    //add some delay to let some threads spawn by scheduler
-    Thread.sleep(30000);
+    LOG.info("Indexing with " + numThreads + " threads to directory '" + indexPath.toAbsolutePath() + "'...");
 
+    bodyType = bodyFieldType();
+
+    // Shard k is built under its own sub-directory of the index path by an independent writer, so
+    // threads writing different shards never contend on flushing or merging. The RAM buffer of
+    // the profile is split among the writers open in this process.
+    writers = new IndexWriter[shards];
+    int open = shard >= 0 ? 1 : shards;
+    final Set<String> skip = new HashSet<>();
+    for (int k = 0; k < shards; k++) {
+      completedManifests.add(new HashSet<String>());
+      if (shard >= 0 && k != shard)
+        continue;
+
+      writers[k] = openWriter(shards == 1 ? indexPath : shardPath(indexPath, k), open);
+
+      // The last commit lists the files that were fully indexed before the previous run stopped;
+      // any other file is indexed again, and its documents replace whatever part of it made it in.
+      if (resume) {
+        String manifest = writers[k].getCommitData().get(COMMIT_COMPLETED_FILES);
+        if (manifest != null && !manifest.isEmpty())
+          Collections.addAll(completedManifests.get(k), manifest.split("\n"));
+        skip.addAll(completedManifests.get(k));
+        LOG.info("Resuming" + (shards == 1 ? "" : " shard " + k) + ": " + writers[k].maxDoc() + " documents and " +
+                completedManifests.get(k).size() + " completed files in the index");
+      }
+    }
 
-    try {
-      // Wait for existing tasks to terminate
-      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+    metrics.setWriters(writers);
+    metrics.setIndexPath(indexPath);
+    metrics.setProfile(profile);
+    metrics.start(metricsInterval, metricsPort);
 
-        final long completedTaskCount = executor.getCompletedTaskCount();
+    // the metrics server runs non-daemon threads, so it is stopped on every way out
+    int numIndexed = 0;
+    try {
+      final DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+        @Override
+        public boolean accept(Path file) {
+          return (shard < 0 || shardOf(file) == shard) && !skip.contains(docDir.relativize(file).toString());
+        }
+      };
+
+      final String suffix = Collection.GOV2.equals(collection) ? ".gz" : ".warc.gz";
+
+      // Bounded, so that discovery never runs far ahead of the workers; a few files per worker is
+      // enough to keep every worker busy while the walk continues.
+      final BlockingQueue<Path> queue = new ArrayBlockingQueue<>(numThreads * 4);
+      final CountDownLatch done = new CountDownLatch(numThreads);
+      final AtomicLong queuedFiles = new AtomicLong(-1);
+
+      final List<Thread> threads = new ArrayList<>();
+
+      // In pipelined mode the workers below only read and frame records; parsing and writing are
+      // handed to shared stages connected by bounded queues, so a full queue slows the stage feeding it.
+      CountDownLatch parsersDone = null;
+      CountDownLatch writersDone = null;
+      if (pipeline) {
+        LOG.info("Pipelined ingestion: " + parseThreads + " parse threads, " + writeThreads + " write threads");
+        records = new ArrayBlockingQueue<>(recordQueueSize);
+        documents = new ArrayBlockingQueue<>(documentQueueSize);
+
+        parsersDone = new CountDownLatch(parseThreads);
+        for (int i = 0; i < parseThreads; i++)
+          threads.add(new ParserThread(parsersDone, i));
+
+        writersDone = new CountDownLatch(writeThreads);
+        for (int i = 0; i < writeThreads; i++)
+          threads.add(new WriterThread(writersDone, i));
+      }
 
-        LOG.info(String.format("%.2f percentage completed", (double) completedTaskCount / totalWarcFiles * 100.0d));
+      final int numWorkers = numThreads;
+      for (int i = 0; i < numThreads; i++)
+        threads.add(new IndexerThread(queue, done, i));
+
+      threads.add(new Thread("discovery") {
+        @Override
+        public void run() {
+          try {
+            PathMatcher matcher = CorpusFiles.suffix(suffix);
+            if (pattern != null)
+              matcher = CorpusFiles.and(matcher, CorpusFiles.matcher(pattern));
+            int n = discoverWarcFiles(docDir, matcher, queue, doclimit, filter, largestFirst);
+            queuedFiles.set(n);
+            LOG.info(n + " many " + suffix + " files found under the docs path : " + docDir.toString());
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+          }
 
-        if (!warcFiles.isEmpty())
-          for (long i = first; i < completedTaskCount; i++) {
-            if (!warcFiles.isEmpty())
-              executor.execute(new IndexerThread(writer, warcFiles.removeFirst()));
-            else {
-              if (!executor.isShutdown())
-                executor.shutdown();
-            }
+          try {
+            for (int i = 0; i < numWorkers; i++)
+              queue.put(POISON_PILL);
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
           }
+        }
+      });
+
+      coordinator = Thread.currentThread();
+      for (Thread thread : threads)
+        thread.start();
 
-        first = completedTaskCount;
-        Thread.sleep(1000);
+      try {
+        // Wait for the workers to drain the queue, reporting progress in the meantime. await returns
+        // as soon as the last worker exits, so there is no fixed delay at either end of the run.
+        awaitWithProgress(done, queuedFiles);
+
+        if (pipeline) {
+          // readers are done, so the record queue only holds what is left to parse; shut each stage
+          // down behind the last item it has to process
+          for (int i = 0; i < parseThreads; i++)
+            records.put(RECORD_POISON_PILL);
+          awaitWithProgress(parsersDone, queuedFiles);
+
+          for (int i = 0; i < writeThreads; i++)
+            documents.put(DOCUMENT_POISON_PILL);
+          awaitWithProgress(writersDone, queuedFiles);
+        }
+      } catch (InterruptedException ie) {
+        // (Re-)Cancel if current thread also interrupted
+        for (Thread thread : threads)
+          thread.interrupt();
+        // Preserve interrupt status, unless it came from a failed stage
+        if (pipelineFailure.get() == null)
+          Thread.currentThread().interrupt();
       }
-    } catch (InterruptedException ie) {
-      // (Re-)Cancel if current thread also interrupted
-      executor.shutdownNow();
-      // Preserve interrupt status
-      Thread.currentThread().interrupt();
-    }
 
-    if (totalWarcFiles != executor.getCompletedTaskCount())
-      throw new RuntimeException("totalWarcFiles = " + totalWarcFiles + " is not equal to completedTaskCount =  " + executor.getCompletedTaskCount());
+      if (pipelineFailure.get() != null) {
+        // the stage may have failed after the last wait, and its interrupt is still pending
+        Thread.interrupted();
+        throw new RuntimeException("pipelined ingestion failed", pipelineFailure.get());
+      }
 
+      if (queuedFiles.get() != completedFiles.get())
+        throw new RuntimeException("totalWarcFiles = " + queuedFiles.get() + " is not equal to completedFiles =  " + completedFiles.get());
 
-    int numIndexed = writer.maxDoc();
+      for (IndexWriter writer : writers) {
+        if (writer != null)
+          numIndexed += writer.maxDoc();
+      }
 
-    try {
-      writer.commit();
-      if (optimize)
-        writer.forceMerge(1);
+      // shards that are merged afterwards are optimized as part of the merge
+      final boolean merge = mergeShards && shards > 1 && shard < 0;
+      try {
+        checkpoint();
+        if (optimize && !merge) {
+          for (IndexWriter writer : writers) {
+            if (writer != null)
+              writer.forceMerge(1);
+          }
+        }
+      } finally {
+        IOUtils.close(writers);
+      }
+
+      if (merge)
+        numIndexed = mergeShards(indexPath, shards, optimize, profile);
     } finally {
-      writer.close();
+      metrics.stop();
     }
+    LOG.info("IndexWriter: " + profile.summary());
 
     return numIndexed;
   }
@@ -406,6 +1085,11 @@ public final class IndexWebCollection {
       return;
     }
 
+    if (indexArgs.shards < 1 || indexArgs.shard >= indexArgs.shards) {
+      System.err.println("-shard must be between 0 and the number of shards given by -shards");
+      return;
+    }
+
     if (indexArgs.docvectors && !indexArgs.positions)
       LOG.warn("to store docVectors you must store positions too. With this configuration, both positions and docVectors will not be stored!");
 
@@ -416,7 +1100,25 @@ public final class IndexWebCollection {
     indexer.setDocVectors(indexArgs.docvectors);
     indexer.setPositions(indexArgs.positions);
     indexer.setOptimize(indexArgs.optimize);
+    indexer.setStreamingText(indexArgs.streamingText);
     indexer.setDocLimit(indexArgs.doclimit);
+    indexer.setPipeline(indexArgs.pipeline);
+    indexer.setParseThreads(indexArgs.parseThreads);
+    indexer.setWriteThreads(indexArgs.writeThreads);
+    indexer.setRecordQueueSize(indexArgs.recordQueue);
+    indexer.setDocumentQueueSize(indexArgs.documentQueue);
+    indexer.setWriteBatchSize(indexArgs.writeBatch);
+    indexer.setResume(indexArgs.resume);
+    indexer.setCheckpointMinutes(indexArgs.checkpoint);
+    if (indexArgs.profile != null)
+      indexer.setProfile(IndexWriterProfile.load(Paths.get(indexArgs.profile)));
+    indexer.setShards(indexArgs.shards);
+    indexer.setShard(indexArgs.shard);
+    indexer.setMergeShards(indexArgs.mergeShards);
+    indexer.setMetricsInterval(indexArgs.metricsInterval);
+    indexer.setMetricsPort(indexArgs.metricsPort);
+    indexer.setPattern(indexArgs.pattern);
+    indexer.setLargestFirst(indexArgs.largestFirst);
 
     LOG.info("Index path: " + indexArgs.index);
     LOG.info("Threads: " + indexArgs.threads);
@@ -424,6 +1126,10 @@ public final class IndexWebCollection {
     LOG.info("Store docVectors: " + indexArgs.docvectors);
     LOG.info("Optimize (merge segments): " + indexArgs.optimize);
     LOG.info("Doc limit: " + (indexArgs.doclimit == -1 ? "all docs" : "" + indexArgs.doclimit));
+    LOG.info("Pipelined: " + indexArgs.pipeline);
+    LOG.info("Text extraction: " + (indexArgs.streamingText ? "streaming" : "Jsoup"));
+    LOG.info("Resume: " + indexArgs.resume);
+    LOG.info("Shards: " + indexArgs.shards + (indexArgs.shard >= 0 ? " (building shard " + indexArgs.shard + ")" : ""));
 
     LOG.info("Indexer: start");
 
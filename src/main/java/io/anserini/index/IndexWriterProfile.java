@@ -0,0 +1,279 @@
+package io.anserini.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tuning profile for the index writers of {@link IndexWebCollection}, loaded from a properties file
+ * so that build time can be traded against segment count without patching code. Keys that are
+ * left out keep the indexer's defaults:
+ *
+ * <pre>
+ * ramBufferSizeMB = 512                 # total for all writers of a sharded build; -1 to disable
+ * maxBufferedDocs = -1                  # -1 to disable
+ * ramPerThreadHardLimitMB = 1945
+ * useCompoundFile = false
+ * noCFSRatio = 0.1
+ *
+ * mergePolicy = tiered                  # tiered, logByteSize, logDoc or none
+ * mergePolicy.segmentsPerTier = 10      # tiered
+ * mergePolicy.maxMergeAtOnce = 10       # tiered
+ * mergePolicy.maxMergedSegmentMB = 5120 # tiered
+ * mergePolicy.floorSegmentMB = 2        # tiered
+ * mergePolicy.mergeFactor = 10          # logByteSize, logDoc
+ * mergePolicy.minMergeMB = 1.6          # logByteSize
+ * mergePolicy.maxMergeMB = 2048         # logByteSize
+ * mergePolicy.minMergeDocs = 1000       # logDoc
+ * mergePolicy.maxMergeDocs = 2147483647 # logDoc
+ *
+ * mergeScheduler.maxThreadCount = 4     # if only one count is given, the other is derived
+ * mergeScheduler.maxMergeCount = 9      # from it as Lucene does when detecting them
+ * mergeScheduler.autoIOThrottle = true
+ * </pre>
+ *
+ * <p>The profile also collects the time the writers configured with it spend flushing and merging,
+ * see {@link #summary()}.</p>
+ */
+public final class IndexWriterProfile {
+
+  private static final Logger LOG = LogManager.getLogger(IndexWriterProfile.class);
+
+  private final Properties properties;
+
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong flushNanos = new AtomicLong();
+  private final AtomicLong merges = new AtomicLong();
+  private final AtomicLong mergeNanos = new AtomicLong();
+  private final AtomicLong mergedDocs = new AtomicLong();
+
+  public IndexWriterProfile() {
+    this(new Properties());
+  }
+
+  public IndexWriterProfile(Properties properties) {
+    this.properties = properties;
+  }
+
+  public static IndexWriterProfile load(Path path) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    LOG.info("Loaded IndexWriter profile " + path + ": " + properties);
+    return new IndexWriterProfile(properties);
+  }
+
+  /**
+   * Applies the profile to a writer configuration.
+   *
+   * @param iwc     configuration to tune
+   * @param writers number of writers in this process the RAM buffer is split among
+   * @return the same configuration
+   */
+  public IndexWriterConfig configure(IndexWriterConfig iwc, int writers) {
+    double ramBufferSizeMB = getDouble("ramBufferSizeMB", 512);
+    if (ramBufferSizeMB != IndexWriterConfig.DISABLE_AUTO_FLUSH)
+      ramBufferSizeMB = Math.max(Math.min(64, ramBufferSizeMB), ramBufferSizeMB / writers);
+
+    // lower the other limit first, so that both are never disabled at the same time
+    int maxBufferedDocs = getInt("maxBufferedDocs", IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    if (maxBufferedDocs != IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+      iwc.setMaxBufferedDocs(maxBufferedDocs);
+      iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+    } else {
+      iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+      iwc.setMaxBufferedDocs(maxBufferedDocs);
+    }
+
+    if (properties.containsKey("ramPerThreadHardLimitMB"))
+      iwc.setRAMPerThreadHardLimitMB(getInt("ramPerThreadHardLimitMB", 0));
+
+    iwc.setUseCompoundFile(getBoolean("useCompoundFile", false));
+    iwc.setMergePolicy(mergePolicy());
+    iwc.setMergeScheduler(mergeScheduler());
+    iwc.setInfoStream(new FlushInfoStream());
+
+    return iwc;
+  }
+
+  private MergePolicy mergePolicy() {
+    String type = properties.getProperty("mergePolicy", "tiered").trim();
+
+    MergePolicy mergePolicy;
+    if ("tiered".equalsIgnoreCase(type)) {
+      TieredMergePolicy tiered = new TieredMergePolicy();
+      tiered.setSegmentsPerTier(getDouble("mergePolicy.segmentsPerTier", tiered.getSegmentsPerTier()));
+      tiered.setMaxMergeAtOnce(getInt("mergePolicy.maxMergeAtOnce", tiered.getMaxMergeAtOnce()));
+      tiered.setMaxMergedSegmentMB(getDouble("mergePolicy.maxMergedSegmentMB", tiered.getMaxMergedSegmentMB()));
+      tiered.setFloorSegmentMB(getDouble("mergePolicy.floorSegmentMB", tiered.getFloorSegmentMB()));
+      mergePolicy = tiered;
+    } else if ("logByteSize".equalsIgnoreCase(type)) {
+      LogByteSizeMergePolicy log = new LogByteSizeMergePolicy();
+      log.setMergeFactor(getInt("mergePolicy.mergeFactor", log.getMergeFactor()));
+      log.setMinMergeMB(getDouble("mergePolicy.minMergeMB", log.getMinMergeMB()));
+      log.setMaxMergeMB(getDouble("mergePolicy.maxMergeMB", log.getMaxMergeMB()));
+      mergePolicy = log;
+    } else if ("logDoc".equalsIgnoreCase(type)) {
+      LogDocMergePolicy log = new LogDocMergePolicy();
+      log.setMergeFactor(getInt("mergePolicy.mergeFactor", log.getMergeFactor()));
+      log.setMinMergeDocs(getInt("mergePolicy.minMergeDocs", log.getMinMergeDocs()));
+      log.setMaxMergeDocs(getInt("mergePolicy.maxMergeDocs", log.getMaxMergeDocs()));
+      mergePolicy = log;
+    } else if ("none".equalsIgnoreCase(type)) {
+      return NoMergePolicy.INSTANCE;
+    } else {
+      throw new IllegalArgumentException("Unknown merge policy: " + type);
+    }
+
+    if (properties.containsKey("noCFSRatio"))
+      mergePolicy.setNoCFSRatio(getDouble("noCFSRatio", mergePolicy.getNoCFSRatio()));
+    return mergePolicy;
+  }
+
+  private ConcurrentMergeScheduler mergeScheduler() {
+    ConcurrentMergeScheduler scheduler = new TimedMergeScheduler();
+
+    boolean hasThreads = properties.containsKey("mergeScheduler.maxThreadCount");
+    boolean hasMerges = properties.containsKey("mergeScheduler.maxMergeCount");
+    if (hasThreads || hasMerges) {
+      // CMS takes both counts or neither; a missing one follows its auto-detected defaults for an SSD:
+      // up to 4 threads, half the cores, and 5 more merges than threads
+      int defaultThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+      int maxThreadCount = hasThreads ? getInt("mergeScheduler.maxThreadCount", defaultThreads)
+              : Math.min(defaultThreads, getInt("mergeScheduler.maxMergeCount", defaultThreads + 5));
+      int maxMergeCount = hasMerges ? getInt("mergeScheduler.maxMergeCount", maxThreadCount + 5)
+              : maxThreadCount + 5;
+      scheduler.setMaxMergesAndThreads(maxMergeCount, maxThreadCount);
+    }
+
+    if (!getBoolean("mergeScheduler.autoIOThrottle", true))
+      scheduler.disableAutoIOThrottle();
+
+    return scheduler;
+  }
+
+  /**
+   * Merge scheduler that adds the time spent in each merge to the profile's totals.
+   */
+  private final class TimedMergeScheduler extends ConcurrentMergeScheduler {
+    @Override
+    protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+      final long start = System.nanoTime();
+      try {
+        super.doMerge(writer, merge);
+      } finally {
+        mergeNanos.addAndGet(System.nanoTime() - start);
+        merges.incrementAndGet();
+        mergedDocs.addAndGet(merge.totalMaxDoc);
+      }
+    }
+  }
+
+  /**
+   * Picks the per-segment flush times out of the messages of the "DWPT" component and drops everything else.
+   */
+  private final class FlushInfoStream extends InfoStream {
+
+    private static final String COMPONENT = "DWPT";
+    private static final String FLUSH_TIME = "flush time ";
+
+    @Override
+    public void message(String component, String message) {
+      if (!message.startsWith(FLUSH_TIME))
+        return;
+
+      int end = message.indexOf(' ', FLUSH_TIME.length());
+      try {
+        double millis = Double.parseDouble(message.substring(FLUSH_TIME.length(), end < 0 ? message.length() : end));
+        flushNanos.addAndGet((long) (millis * 1000000));
+        flushes.incrementAndGet();
+      } catch (NumberFormatException e) {
+        // not the message we are after
+      }
+    }
+
+    @Override
+    public boolean isEnabled(String component) {
+      return COMPONENT.equals(component);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  public long getFlushes() {
+    return flushes.get();
+  }
+
+  public long getFlushNanos() {
+    return flushNanos.get();
+  }
+
+  public long getMerges() {
+    return merges.get();
+  }
+
+  public long getMergeNanos() {
+    return mergeNanos.get();
+  }
+
+  /**
+   * Returns a one-line summary of the time spent flushing and merging so far.
+   */
+  public String summary() {
+    return String.format("%d flushes in %ds, %d merges of %d documents in %ds", flushes.get(),
+            TimeUnit.NANOSECONDS.toSeconds(flushNanos.get()), merges.get(), mergedDocs.get(),
+            TimeUnit.NANOSECONDS.toSeconds(mergeNanos.get()));
+  }
+
+  private int getInt(String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    return value == null ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private double getDouble(String key, double defaultValue) {
+    String value = properties.getProperty(key);
+    return value == null ? defaultValue : Double.parseDouble(value.trim());
+  }
+
+  private boolean getBoolean(String key, boolean defaultValue) {
+    String value = properties.getProperty(key);
+    return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+}
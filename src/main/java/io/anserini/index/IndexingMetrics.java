@@ -0,0 +1,261 @@
+package io.anserini.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput metrics of an indexing run: documents and bytes per second, time spent in each stage,
+ * skipped documents, and the RAM buffer and merge activity of the writers. While started, the
+ * metrics are logged periodically as a single <code>key=value</code> line and, optionally, served as
+ * JSON on a local HTTP endpoint, so that the bottleneck stage of a live build can be spotted.
+ *
+ * <p>Stage times are summed over all threads, so with several threads they grow faster than the
+ * wall clock; compare them with each other rather than with the elapsed time.</p>
+ */
+public final class IndexingMetrics {
+
+  private static final Logger LOG = LogManager.getLogger(IndexingMetrics.class);
+
+  public enum Stage {
+    /** Decompressing and framing input records. */
+    READ,
+    /** Extracting the text of a record and building its document. */
+    PARSE,
+    /** Handing documents to the writer, which analyzes and inverts them. */
+    INDEX
+  }
+
+  private final long start = System.nanoTime();
+
+  private final AtomicLong documents = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+
+  private volatile List<IndexWriter> writers = new ArrayList<>();
+  private volatile Path indexPath;
+  private volatile IndexWriterProfile profile;
+
+  private Thread reporter;
+  private HttpServer server;
+
+  public void addDocuments(long n) {
+    documents.addAndGet(n);
+  }
+
+  public void addSkipped(long n) {
+    skipped.addAndGet(n);
+  }
+
+  /**
+   * Counts input bytes, as read from disk.
+   */
+  public void addBytesIn(long n) {
+    bytesIn.addAndGet(n);
+  }
+
+  public void addTime(Stage stage, long nanos) {
+    stageNanos.addAndGet(stage.ordinal(), nanos);
+  }
+
+  public long documents() {
+    return documents.get();
+  }
+
+  /**
+   * Sets the writers whose RAM buffer and merges are reported.
+   */
+  public void setWriters(IndexWriter... writers) {
+    List<IndexWriter> open = new ArrayList<>();
+    for (IndexWriter writer : writers) {
+      if (writer != null)
+        open.add(writer);
+    }
+    this.writers = open;
+  }
+
+  /**
+   * Sets the directory whose size is reported as the bytes written.
+   */
+  public void setIndexPath(Path indexPath) {
+    this.indexPath = indexPath;
+  }
+
+  /**
+   * Sets the profile whose flush and merge totals are reported.
+   */
+  public void setProfile(IndexWriterProfile profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * Returns the current values, in a fixed order.
+   */
+  public Map<String, Object> snapshot() {
+    final double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+    final long docs = documents.get();
+    final long in = bytesIn.get();
+    final long out = indexPath == null ? 0 : sizeOf(indexPath);
+
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("elapsed_sec", Math.round(seconds));
+    snapshot.put("docs", docs);
+    snapshot.put("docs_per_sec", round(docs / seconds));
+    snapshot.put("skipped", skipped.get());
+    snapshot.put("mb_in", round(in / 1048576.0));
+    snapshot.put("mb_in_per_sec", round(in / 1048576.0 / seconds));
+    snapshot.put("mb_out", round(out / 1048576.0));
+    snapshot.put("mb_out_per_sec", round(out / 1048576.0 / seconds));
+    for (Stage stage : Stage.values())
+      snapshot.put(stage.name().toLowerCase(Locale.ROOT) + "_sec",
+              TimeUnit.NANOSECONDS.toSeconds(stageNanos.get(stage.ordinal())));
+
+    long ramBytes = 0;
+    int merging = 0;
+    for (IndexWriter writer : writers) {
+      try {
+        ramBytes += writer.ramBytesUsed();
+        merging += writer.getMergingSegments().size();
+      } catch (RuntimeException e) {
+        // closed while we were looking
+      }
+    }
+    snapshot.put("ram_mb", round(ramBytes / 1048576.0));
+    snapshot.put("merging_segments", merging);
+
+    IndexWriterProfile profile = this.profile;
+    if (profile != null) {
+      snapshot.put("flushes", profile.getFlushes());
+      snapshot.put("flush_sec", TimeUnit.NANOSECONDS.toSeconds(profile.getFlushNanos()));
+      snapshot.put("merges", profile.getMerges());
+      snapshot.put("merge_sec", TimeUnit.NANOSECONDS.toSeconds(profile.getMergeNanos()));
+    }
+    return snapshot;
+  }
+
+  /**
+   * Formats a snapshot as a single <code>key=value</code> line.
+   */
+  public static String format(Map<String, Object> snapshot) {
+    StringBuilder sb = new StringBuilder("metrics");
+    for (Map.Entry<String, Object> entry : snapshot.entrySet())
+      sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+    return sb.toString();
+  }
+
+  /**
+   * Starts logging the metrics every <code>intervalSeconds</code> and, if <code>port</code> is
+   * positive, serving them as JSON on <code>http://localhost:port/metrics</code>.
+   */
+  public synchronized void start(final int intervalSeconds, int port) throws IOException {
+    if (port > 0) {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/metrics", new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+          byte[] body = new Gson().toJson(snapshot()).getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        }
+      });
+      server.start();
+      LOG.info("Serving indexing metrics on http://localhost:" + port + "/metrics");
+    }
+
+    if (intervalSeconds > 0) {
+      reporter = new Thread("metrics") {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              TimeUnit.SECONDS.sleep(intervalSeconds);
+              LOG.info(format(snapshot()));
+            }
+          } catch (InterruptedException ie) {
+            // stopped
+          }
+        }
+      };
+      reporter.setDaemon(true);
+      reporter.start();
+    }
+  }
+
+  /**
+   * Stops reporting, and logs the final values.
+   */
+  public synchronized void stop() {
+    if (reporter != null) {
+      reporter.interrupt();
+      reporter = null;
+    }
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+    LOG.info(format(snapshot()));
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100) / 100.0;
+  }
+
+  private static long sizeOf(Path dir) {
+    long size = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path path : stream) {
+        // files come and go as segments are flushed and merged
+        try {
+          size += Files.isDirectory(path) ? sizeOf(path) : Files.size(path);
+        } catch (IOException e) {
+          // deleted in the meantime
+        }
+      }
+    } catch (IOException e) {
+      // not there yet
+    }
+    return size;
+  }
+}
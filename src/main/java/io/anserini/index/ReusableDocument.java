@@ -0,0 +1,177 @@
+package io.anserini.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexableField;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-thread document template for indexers. Each field is created the first time its name is
+ * added and only has its value reset for later records, so indexing a record allocates no
+ * <code>Document</code> and no <code>Field</code>s. It can be passed to
+ * {@link org.apache.lucene.index.IndexWriter#addDocument(Iterable)} and
+ * {@link org.apache.lucene.index.IndexWriter#updateDocument(org.apache.lucene.index.Term, Iterable)}
+ * directly.
+ *
+ * <p>A field name must always be added with the same kind of field. The template may be reused as
+ * soon as the writer call returns, but not shared between threads.</p>
+ */
+public final class ReusableDocument implements Iterable<IndexableField> {
+
+  private final List<IndexableField> fields = new ArrayList<>();
+  private final Map<String, Field> cache = new HashMap<>();
+  // DocValues fields may share their name with an indexed field, so they are cached apart
+  private final Map<String, Field> docValuesCache = new HashMap<>();
+
+  /**
+   * Removes the fields of the previous record.
+   */
+  public ReusableDocument clear() {
+    fields.clear();
+    return this;
+  }
+
+  public ReusableDocument addLong(String name, long value, Field.Store store) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new LongField(name, value, store);
+      cache.put(name, field);
+    } else {
+      field.setLongValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addInt(String name, int value, Field.Store store) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new IntField(name, value, store);
+      cache.put(name, field);
+    } else {
+      field.setIntValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addDouble(String name, double value, Field.Store store) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new DoubleField(name, value, store);
+      cache.put(name, field);
+    } else {
+      field.setDoubleValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addString(String name, String value, Field.Store store) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new StringField(name, value, store);
+      cache.put(name, field);
+    } else {
+      field.setStringValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addText(String name, String value, Field.Store store) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new TextField(name, value, store);
+      cache.put(name, field);
+    } else {
+      field.setStringValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  /**
+   * Adds a string-valued field of a custom type, which should be frozen.
+   */
+  public ReusableDocument add(String name, String value, FieldType type) {
+    Field field = cache.get(name);
+    if (field == null) {
+      field = new Field(name, value, type);
+      cache.put(name, field);
+    } else {
+      field.setStringValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addNumericDocValues(String name, long value) {
+    Field field = docValuesCache.get(name);
+    if (field == null) {
+      field = new NumericDocValuesField(name, value);
+      docValuesCache.put(name, field);
+    } else {
+      field.setLongValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  public ReusableDocument addDoubleDocValues(String name, double value) {
+    Field field = docValuesCache.get(name);
+    if (field == null) {
+      field = new DoubleDocValuesField(name, value);
+      docValuesCache.put(name, field);
+    } else {
+      field.setDoubleValue(value);
+    }
+    fields.add(field);
+    return this;
+  }
+
+  /**
+   * Returns the string value of a field of the current record, or null.
+   */
+  public String get(String name) {
+    for (IndexableField field : fields) {
+      if (field.name().equals(name))
+        return field.stringValue();
+    }
+    return null;
+  }
+
+  @Override
+  public Iterator<IndexableField> iterator() {
+    return fields.iterator();
+  }
+}
@@ -17,14 +17,13 @@
 package io.anserini.index;
 
 import io.anserini.document.twitter.JsonStatusCorpusReader;
+import io.anserini.document.twitter.Status;
 import io.anserini.document.twitter.StatusStream;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.index.twitter.TweetAnalyzer;
+import io.anserini.index.twitter.UserTimelines;
 import io.anserini.nrts.TweetSearcher;
-import io.anserini.rts.TweetStreamReader;
-import io.anserini.rts.TweetStreamReader.StatusField;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import twitter4j.Status;
-import twitter4j.json.DataObjectFactory;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -37,11 +36,11 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -94,8 +93,6 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.BytesRefBuilder;
-import org.apache.lucene.util.NumericUtils;
 import org.apache.tools.bzip2.CBZip2InputStream;
 
 /**
@@ -122,19 +119,7 @@ public class UpdateIndex {
   private static final Double[] latitude = { 40.7141667, 41.8500000, 34.040667, 39.9522222, 38.8950000, 29.7630556,
       44.9800000, 39.1619444, 43.6613889, 38.627222, 41.482222, 40.439722 };
 
-  public static enum StatusField {
-    ID("id"), SCREEN_NAME("screen_name"), EPOCH("epoch"), TEXT("text"), LANG("lang"), IN_REPLY_TO_STATUS_ID(
-        "in_reply_to_status_id"), IN_REPLY_TO_USER_ID("in_reply_to_user_id"), FOLLOWERS_COUNT(
-            "followers_count"), FRIENDS_COUNT("friends_count"), STATUSES_COUNT("statuses_count"), RETWEETED_STATUS_ID(
-                "retweeted_status_id"), RETWEETED_USER_ID("retweeted_user_id"), RETWEET_COUNT(
-                    "retweet_count"), LATITUDE("latitude"), LONGITUDE("longitude"), PLACE("place");
-
-    public final String name;
-
-    StatusField(String s) {
-      name = s;
-    }
-  };
+  private static final Set<String> USER_ID_FIELD = Collections.singleton(StatusField.USER_ID.name);
 
   private static final String HELP_OPTION = "h";
   private static final String COLLECTION_OPTION = "collection";
@@ -143,6 +128,9 @@ public class UpdateIndex {
   private static final String DELETES_OPTION = "deletes";
   private static final String OPTIMIZE_OPTION = "optimize";
   private static final String STORE_TERM_VECTORS_OPTION = "store";
+  private static final String TIMELINE_BUFFER_OPTION = "timeline_buffer";
+
+  private static final int DEFAULT_TIMELINE_BUFFER = 128;
 
   @SuppressWarnings("static-access")
   public static void main(String[] args) throws Exception {
@@ -156,6 +144,9 @@ public class UpdateIndex {
     options.addOption(OptionBuilder.withArgName("file").hasArg().withDescription("file with deleted tweetids")
         .create(DELETES_OPTION));
     options.addOption(OptionBuilder.withArgName("id").hasArg().withDescription("max id").create(MAX_ID_OPTION));
+    options.addOption(OptionBuilder.withArgName("MB").hasArg()
+        .withDescription("memory for user timelines before spilling to disk (default " + DEFAULT_TIMELINE_BUFFER + ")")
+        .create(TIMELINE_BUFFER_OPTION));
 
     CommandLine cmdline = null;
     CommandLineParser parser = new GnuParser();
@@ -173,12 +164,15 @@ public class UpdateIndex {
     }
 
     String indexPath = cmdline.getOptionValue(INDEX_OPTION);
+    long timelineBuffer = cmdline.hasOption(TIMELINE_BUFFER_OPTION)
+        ? Long.parseLong(cmdline.getOptionValue(TIMELINE_BUFFER_OPTION)) : DEFAULT_TIMELINE_BUFFER;
 
     final FieldType textOptions = new FieldType();
     textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
     textOptions.setStored(true);
     textOptions.setTokenized(true);
     textOptions.setStoreTermVectors(true);
+    textOptions.freeze();
 
     LOG.info("index: " + indexPath);
 
@@ -188,42 +182,14 @@ public class UpdateIndex {
       System.exit(-1);
     }
 
-    final StatusStream stream = new JsonStatusCorpusReader(file);
-
-    Status status;
-    String s;
-    HashMap<Long, String> hm = new HashMap<Long, String>();
-    try {
-      while ((s = stream.nextRaw()) != null) {
-        try {
-          status = DataObjectFactory.createStatus(s);
-
-          if (status.getText() == null) {
-            continue;
-          }
-
-          hm.put(status.getUser().getId(),
-              hm.get(status.getUser().getId()) + status.getText().replaceAll("[\\r\\n]+", " "));
-
-        } catch (Exception e) {
-
-        }
-      }
-
-    } catch (Exception e) {
-      e.printStackTrace();
-    } finally {
-
-      stream.close();
-    }
-
-    ArrayList<String> userIDList = new ArrayList<String>();
+    LongOpenHashSet userIDList = new LongOpenHashSet();
     try (BufferedReader br = new BufferedReader(new FileReader(new File("userID")))) {
       String line;
       while ((line = br.readLine()) != null) {
-        userIDList.add(line.replaceAll("[\\r\\n]+", ""));
-
-        // process the line.
+        line = line.trim();
+        if (!line.isEmpty()) {
+          userIDList.add(Long.parseLong(line));
+        }
       }
     }
 
@@ -234,24 +200,19 @@ public class UpdateIndex {
       e.printStackTrace();
     }
 
-    final Directory dir = new SimpleFSDirectory(Paths.get(cmdline.getOptionValue(INDEX_OPTION)));
-    final IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
-
-    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-
-    final IndexWriter writer = new IndexWriter(dir, config);
-
     IndexSearcher searcher = new IndexSearcher(reader);
     System.out.println("The total number of docs indexed "
-        + searcher.collectionStatistics(TweetStreamReader.StatusField.TEXT.name).docCount());
+        + searcher.collectionStatistics(StatusField.TEXT.name).docCount());
 
+    // First find the listed users with a status in one of the cities, so that only their timelines are kept.
+    LongOpenHashSet matchedUsers = new LongOpenHashSet();
     for (int city = 0; city < cityName.length; city++) {
 
       // Pittsburgh's coordinate -79.976389, 40.439722
 
-      Query q_long = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LONGITUDE.name,
+      Query q_long = NumericRangeQuery.newDoubleRange(StatusField.LONGITUDE.name,
           new Double(longitude[city] - 0.05), new Double(longitude[city] + 0.05), true, true);
-      Query q_lat = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LATITUDE.name,
+      Query q_lat = NumericRangeQuery.newDoubleRange(StatusField.LATITUDE.name,
           new Double(latitude[city] - 0.05), new Double(latitude[city] + 0.05), true, true);
 
       BooleanQuery bqCityName = new BooleanQuery();
@@ -281,33 +242,6 @@ public class UpdateIndex {
       finalQuery.add(bqCityName, BooleanClause.Occur.SHOULD);
 
       TotalHitCountCollector totalHitCollector = new TotalHitCountCollector();
-
-      // Query hasFieldQuery = new ConstantScoreQuery(new
-      // FieldValueFilter("timeline"));
-      //
-      // searcher.search(hasFieldQuery, totalHitCollector);
-      //
-      // if (totalHitCollector.getTotalHits() > 0) {
-      // TopScoreDocCollector collector =
-      // TopScoreDocCollector.create(Math.max(0,
-      // totalHitCollector.getTotalHits()));
-      // searcher.search(finalQuery, collector);
-      // ScoreDoc[] hits = collector.topDocs().scoreDocs;
-      //
-      //
-      // HashMap<String, Integer> hasHit = new HashMap<String, Integer>();
-      // int dupcount = 0;
-      // for (int i = 0; i < hits.length; ++i) {
-      // int docId = hits[i].doc;
-      // Document d;
-      //
-      // d = searcher.doc(docId);
-      //
-      // System.out.println(d.getFields());
-      // }
-      // }
-
-      // totalHitCollector = new TotalHitCountCollector();
       searcher.search(finalQuery, totalHitCollector);
 
       if (totalHitCollector.getTotalHits() > 0) {
@@ -317,75 +251,82 @@ public class UpdateIndex {
 
         System.out.println("City " + cityName[city] + " " + collector.getTotalHits() + " hits.");
 
-        HashMap<String, Integer> hasHit = new HashMap<String, Integer>();
-        int dupcount = 0;
         for (int i = 0; i < hits.length; ++i) {
-          int docId = hits[i].doc;
-          Document d;
-
-          d = searcher.doc(docId);
-
-          if (userIDList.contains(d.get(IndexTweets.StatusField.USER_ID.name))
-              && hm.containsKey(Long.parseLong(d.get(IndexTweets.StatusField.USER_ID.name)))) {
-//            System.out.println("Has timeline field?" + (d.get("timeline") != null));
-//            System.out.println(reader.getDocCount("timeline"));
-//            d.add(new Field("timeline", hm.get(Long.parseLong(d.get(IndexTweets.StatusField.USER_ID.name))),
-//                textOptions));
-            System.out.println("Found a user hit");
-            BytesRefBuilder brb = new BytesRefBuilder();
-            NumericUtils.longToPrefixCodedBytes(Long.parseLong(d.get(IndexTweets.StatusField.ID.name)), 0, brb);
-            Term term = new Term(IndexTweets.StatusField.ID.name, brb.get());
-//            System.out.println(reader.getDocCount("timeline"));
-
-            Document d_new = new Document();
-//            for (IndexableField field : d.getFields()) {
-//              d_new.add(field);
-//            }
-            // System.out.println(d_new.getFields());
-            d_new.add(new StringField("userBackground", d.get(IndexTweets.StatusField.USER_ID.name),Store.YES));
-            d_new.add(new Field("timeline",hm.get(Long.parseLong(d.get(IndexTweets.StatusField.USER_ID.name))), textOptions));
-            // System.out.println(d_new.get());
-            writer.addDocument(d_new);
-            writer.commit();
-
-//            t = new Term("label", "why");
-//            TermQuery tqnew = new TermQuery(t);
-//
-//            totalHitCollector = new TotalHitCountCollector();
-//
-//            searcher.search(tqnew, totalHitCollector);
-//
-//            if (totalHitCollector.getTotalHits() > 0) {
-//              collector = TopScoreDocCollector.create(Math.max(0, totalHitCollector.getTotalHits()));
-//              searcher.search(tqnew, collector);
-//              hits = collector.topDocs().scoreDocs;
-//
-//              System.out.println("City " + cityName[city] + " " + collector.getTotalHits() + " hits.");
-//
-//              for (int k = 0; k < hits.length; k++) {
-//                docId = hits[k].doc;
-//                d = searcher.doc(docId);
-//                System.out.println(d.get(IndexTweets.StatusField.ID.name));
-//                System.out.println(d.get(IndexTweets.StatusField.PLACE.name));
-//              }
-//            }
-
-            // writer.deleteDocuments(term);
-            // writer.commit();
-            // writer.addDocument(d);
-            // writer.commit();
-
-//            System.out.println(reader.getDocCount("timeline"));
-            // writer.updateDocument(term, d);
-            // writer.commit();
-
+          String userId = searcher.doc(hits[i].doc, USER_ID_FIELD).get(StatusField.USER_ID.name);
+          if (userId != null && userIDList.contains(Long.parseLong(userId))) {
+            matchedUsers.add(Long.parseLong(userId));
           }
+        }
+      }
+    }
+    LOG.info(matchedUsers.size() + " listed users have statuses in the cities");
 
+    // Then aggregate the timelines of those users, in bounded memory.
+    final UserTimelines timelines = new UserTimelines(Paths.get(System.getProperty("java.io.tmpdir")),
+        timelineBuffer * (1 << 20) / 2);
+    final StatusStream stream = new JsonStatusCorpusReader(file);
+    Status status;
+    long skipped = 0;
+    try {
+      // parsed statuses rather than the raw JSON, so that status archives can be read as well
+      while ((status = stream.next()) != null) {
+        if (status.getText() == null || status.getUserid() == null) {
+          continue;
+        }
+
+        long userId;
+        try {
+          userId = Long.parseLong(status.getUserid());
+        } catch (NumberFormatException e) {
+          skipped++;
+          continue;
+        }
+        if (matchedUsers.contains(userId)) {
+          timelines.add(userId, status.getText().replaceAll("[\\r\\n]+", " "));
         }
       }
+    } finally {
+      stream.close();
     }
+    LOG.info("Timelines spilled into " + timelines.runs() + " runs, " + skipped
+        + " statuses skipped for malformed user ids");
+
+    // Finally index one background document per user, in a single batch and commit. Updates replace the
+    // documents of an earlier run.
+    final Directory dir = new SimpleFSDirectory(Paths.get(cmdline.getOptionValue(INDEX_OPTION)));
+    final IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
+
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    config.setCommitOnClose(false);
+
+    final IndexWriter writer = new IndexWriter(dir, config);
+
+    final Document doc = new Document();
+    final Field userField = new StringField("userBackground", "", Store.YES);
+    final Field timelineField = new Field("timeline", "", textOptions);
+    doc.add(userField);
+    doc.add(timelineField);
+
+    final int[] updated = new int[1];
+    try {
+      timelines.forEach(new UserTimelines.Handler() {
+        @Override
+        public void timeline(long userId, CharSequence text) throws IOException {
+          String user = Long.toString(userId);
+          userField.setStringValue(user);
+          timelineField.setStringValue(text.toString());
+          writer.updateDocument(new Term("userBackground", user), doc);
+          updated[0]++;
+        }
+      });
+      writer.commit();
+    } finally {
+      timelines.close();
+    }
+    LOG.info(updated[0] + " user backgrounds updated");
+
     reader.close();
     writer.close();
-
+    dir.close();
   }
 }
@@ -20,23 +20,17 @@ import io.anserini.document.twitter.JsonStatusCorpusReader;
 import io.anserini.document.twitter.Status;
 import io.anserini.document.twitter.StatusStream;
 import io.anserini.index.twitter.TweetAnalyzer;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-//import twitter4j.Status;
-import twitter4j.json.DataObjectFactory;
+import io.anserini.index.twitter.UserPostCounts;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -46,36 +40,16 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleField;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexOptions;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.SimpleFSDirectory;
-import org.apache.tools.bzip2.CBZip2InputStream;
 
 /**
- * Reference implementation for indexing statuses.
+ * Counts the Pittsburgh related posts of every user in a corpus, reading the
+ * block files in parallel, and writes the counts as a {@link UserPostCounts}
+ * file.
  */
 public class UserPostFrequencyDistribution {
 	private static final Logger LOG = LogManager.getLogger(UserPostFrequencyDistribution.class);
@@ -89,32 +63,88 @@ public class UserPostFrequencyDistribution {
 	private UserPostFrequencyDistribution() {
 	}
 
-	public static enum StatusField {
-		ID("id"), USER_ID_STRING("user_id_string"), SCREEN_NAME("screen_name"), EPOCH("epoch"), TEXT("text"), LANG(
-				"lang"), IN_REPLY_TO_STATUS_ID("in_reply_to_status_id"), IN_REPLY_TO_USER_ID(
-						"in_reply_to_user_id"), FOLLOWERS_COUNT("followers_count"), FRIENDS_COUNT(
-								"friends_count"), STATUSES_COUNT("statuses_count"), RETWEETED_STATUS_ID(
-										"retweeted_status_id"), RETWEETED_USER_ID("retweeted_user_id"), RETWEET_COUNT(
-												"retweet_count"), LATITUDE("latitude"), LONGITUDE("longitude"), PLACE(
-														"place"), PREVIOUS_PITTSBURGH_POST(
-																"previous_pittsburgh_post"), POST_COUNT_TOTAL(
-																		"post_count_total");
-
-		public final String name;
-
-		StatusField(String s) {
-			name = s;
-		}
-	};
-
 	static double pittsburghLongitude = -79.976389d;
 	static double pittsburghLatitude = 40.439722d;
 
 	private static final String HELP_OPTION = "h";
 	private static final String COLLECTION_OPTION = "collection";
+	private static final String THREADS_OPTION = "threads";
 
 	private static final String STORE_TERM_VECTORS_OPTION = "store";
 
+	/**
+	 * Returns whether the status is about Pittsburgh: posted near it, from a
+	 * place or user location in it, or mentioning it.
+	 */
+	static boolean isPittsburghRelated(Status status) {
+		// coordinates are -infinity when absent
+		if (Math.abs(status.getLongitude() - pittsburghLongitude) < 0.05d
+				&& Math.abs(status.getlatitude() - pittsburghLatitude) < 0.05d) {
+			return true;
+		}
+		if (status.getPlace() != null && status.getPlace().contains("Pittsburgh, PA")) {
+			return true;
+		}
+		if (status.getUserLocation() != null && status.getUserLocation().contains("Pittsburgh, PA")) {
+			return true;
+		}
+		return status.getText() != null && status.getText().contains("Pittsburgh");
+	}
+
+	/**
+	 * Counts the Pittsburgh related posts of the block files it takes off the
+	 * queue, into a table of its own.
+	 */
+	private static final class BlockCounter extends Thread {
+		final private BlockingQueue<File> queue;
+		final private AtomicLong statusCount;
+		final private AtomicLong skipped;
+		final UserPostCounts counts = new UserPostCounts();
+
+		BlockCounter(BlockingQueue<File> queue, AtomicLong statusCount, AtomicLong skipped, int i) {
+			this.queue = queue;
+			this.statusCount = statusCount;
+			this.skipped = skipped;
+			setName("counter-" + i);
+		}
+
+		@Override
+		public void run() {
+			File file;
+			while ((file = queue.poll()) != null) {
+				long cnt = 0;
+				StatusStream block = null;
+				try {
+					block = JsonStatusCorpusReader.openBlock(file);
+					Status status;
+					while ((status = block.next()) != null) {
+						cnt++;
+						if (status.getUserid() != null && isPittsburghRelated(status)) {
+							try {
+								counts.add(Long.parseLong(status.getUserid()), status.getStatusesCount());
+							} catch (IllegalArgumentException e) {
+								// malformed or non-positive user id
+								skipped.incrementAndGet();
+							}
+						}
+					}
+				} catch (IOException | RuntimeException e) {
+					LOG.error(getName() + ": error reading " + file, e);
+				} finally {
+					if (block != null) {
+						try {
+							block.close();
+						} catch (IOException e) {
+							LOG.warn(getName() + ": error closing " + file, e);
+						}
+					}
+				}
+				statusCount.addAndGet(cnt);
+				LOG.info(file.getName() + ": " + cnt + " statuses, " + counts.size() + " users so far in " + getName());
+			}
+		}
+	}
+
 	@SuppressWarnings("static-access")
 	public static void main(String[] args) throws Exception {
 		Options options = new Options();
@@ -125,10 +155,12 @@ public class UserPostFrequencyDistribution {
 
 		options.addOption(OptionBuilder.withArgName("collection").hasArg()
 				.withDescription("source collection directory").create(COLLECTION_OPTION));
-		options.addOption(OptionBuilder.withArgName("property").hasArg().withDescription("source collection directory")
-				.create("property"));
+		options.addOption(OptionBuilder.withArgName("property").hasArg()
+				.withDescription("output file of the per-user counts, see UserPostCounts").create("property"));
 		options.addOption(OptionBuilder.withArgName("collection_pattern").hasArg()
 				.withDescription("source collection directory").create("collection_pattern"));
+		options.addOption(OptionBuilder.withArgName("num").hasArg()
+				.withDescription("number of threads reading block files in parallel").create(THREADS_OPTION));
 
 		CommandLine cmdline = null;
 		CommandLineParser parser = new GnuParser();
@@ -139,24 +171,20 @@ public class UserPostFrequencyDistribution {
 			System.exit(-1);
 		}
 
-		if (cmdline.hasOption(HELP_OPTION) || !cmdline.hasOption(COLLECTION_OPTION)) {
+		if (cmdline.hasOption(HELP_OPTION) || !cmdline.hasOption(COLLECTION_OPTION)
+				|| !cmdline.hasOption("property")) {
 			HelpFormatter formatter = new HelpFormatter();
 			formatter.printHelp(UserPostFrequencyDistribution.class.getName(), options);
 			System.exit(-1);
 		}
 
 		String collectionPath = cmdline.getOptionValue(COLLECTION_OPTION);
-
-		final FieldType textOptions = new FieldType();
-		textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-		textOptions.setStored(true);
-		textOptions.setTokenized(true);
-		textOptions.setStoreTermVectors(true);
+		int threads = cmdline.hasOption(THREADS_OPTION) ? Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION))
+				: Runtime.getRuntime().availableProcessors();
 
 		LOG.info("collection: " + collectionPath);
 		LOG.info("collection_pattern " + cmdline.getOptionValue("collection_pattern"));
 		LOG.info("property " + cmdline.getOptionValue("property"));
-		LongOpenHashSet deletes = null;
 
 		long startTime = System.currentTimeMillis();
 		File file = new File(collectionPath);
@@ -165,105 +193,33 @@ public class UserPostFrequencyDistribution {
 			System.exit(-1);
 		}
 
-		final JsonStatusCorpusReader stream = new JsonStatusCorpusReader(file,
-				cmdline.getOptionValue("collection_pattern"));
-
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			public void run() {
-
-				try {
-
-					stream.close();
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
-				;
-
-				System.out.println("# of users indexed this round: " + userIndexedCount);
-
-				System.out.println("Shutting down");
-
-			}
-		});
-		Status status;
-		boolean readerNotInitialized = true;
-
-		try {
-			Properties prop = new Properties();
-			while ((status = stream.next()) != null) {
-
-				
-
-				// try{
-				// status = DataObjectFactory.createStatus(s);
-				// if (status==null||status.getText() == null) {
-				// continue;
-				// }}catch(Exception e){
-				//
-				// }
-				//
-
-				boolean pittsburghRelated = false;
-				try {
-
-					if (Math.abs(status.getLongitude() - pittsburghLongitude) < 0.05d
-							&& Math.abs(status.getlatitude() - pittsburghLatitude) < 0.05d)
-						pittsburghRelated = true;
-				} catch (Exception e) {
-
-				}
-				try {
-					if (status.getPlace().contains("Pittsburgh, PA"))
-						pittsburghRelated = true;
-				} catch (Exception e) {
-
-				}
-				try {
-					if (status.getUserLocation().contains("Pittsburgh, PA"))
-						pittsburghRelated = true;
-				} catch (Exception e) {
-
-				}
-
-				try {
-					if (status.getText().contains("Pittsburgh"))
-						pittsburghRelated = true;
-				} catch (Exception e) {
-
-				}
-
-				if (pittsburghRelated) {
-					
-					int previousPostCount = 0;
-
-					if (prop.containsKey(String.valueOf(status.getUserid()))) {
-						previousPostCount = Integer
-								.valueOf(prop.getProperty(String.valueOf(status.getUserid())).split(" ")[1]);
-					}
-
-					prop.setProperty(String.valueOf(status.getUserid()),
-							String.valueOf(status.getStatusesCount()) + " " + (1 + previousPostCount));
-					if (prop.size()>0&&prop.size() % 1000 == 0) {
-						Runtime runtime = Runtime.getRuntime();
-						runtime.gc();
-						System.out.println("Property size " + prop.size() + "Memory used:  "
-								+ ((runtime.totalMemory() - runtime.freeMemory()) / (1024L * 1024L)) + " MB\n");
-					}
-					OutputStream output = new FileOutputStream(cmdline.getOptionValue("property"),false);
-					prop.store(output, null);
-					output.close();
-
-				}
-			}
-//			prop.store(output, null);
-			LOG.info(String.format("Total of %s statuses added", userIndexedCount));
-			LOG.info("Total elapsed time: " + (System.currentTimeMillis() - startTime) + "ms");
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
+		final JsonStatusCorpusReader stream = cmdline.hasOption("collection_pattern")
+				? new JsonStatusCorpusReader(file, cmdline.getOptionValue("collection_pattern"))
+				: new JsonStatusCorpusReader(file);
+		File[] files = stream.getFiles();
+		stream.close();
+
+		LOG.info("Counting " + files.length + " block files with " + threads + " threads");
+		BlockingQueue<File> queue = new ArrayBlockingQueue<File>(Math.max(1, files.length), false, Arrays.asList(files));
+		AtomicLong statusCount = new AtomicLong();
+		AtomicLong skipped = new AtomicLong();
+		List<BlockCounter> counters = new ArrayList<BlockCounter>();
+		for (int i = 0; i < threads; i++) {
+			BlockCounter counter = new BlockCounter(queue, statusCount, skipped, i);
+			counters.add(counter);
+			counter.start();
+		}
 
-			stream.close();
+		UserPostCounts counts = new UserPostCounts();
+		for (BlockCounter counter : counters) {
+			counter.join();
+			counts.merge(counter.counts);
 		}
+		userIndexedCount = counts.size();
+
+		counts.write(Paths.get(cmdline.getOptionValue("property")));
+		LOG.info(String.format("Total of %s statuses read, %s users counted, %s statuses skipped for malformed user ids",
+				statusCount.get(), userIndexedCount, skipped.get()));
+		LOG.info("Total elapsed time: " + (System.currentTimeMillis() - startTime) + "ms");
 	}
 }
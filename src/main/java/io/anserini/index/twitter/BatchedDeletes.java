@@ -0,0 +1,166 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Buffers the deletes of a status stream and hands them to the writer in
+ * batches, as exact terms on the numeric id field rather than one range query
+ * per delete. Term deletes are only buffered by the writer and resolved in bulk
+ * when it flushes, so a burst of deletes costs the stream little. Deletes go
+ * through a {@link TrackingIndexWriter}, so that near-real-time searchers
+ * waiting on its generation see them.
+ *
+ * <p>A batch is applied as soon as it is full, by the thread that fills it, and
+ * otherwise after at most <code>maxDelayMillis</code> by a background thread.
+ * Memory is bounded by the batch size.</p>
+ */
+public final class BatchedDeletes implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(BatchedDeletes.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+  private final TrackingIndexWriter writer;
+  private final String field;
+  private final int batchSize;
+  private final Thread flusher;
+
+  private long[] pending;
+  private int size = 0;
+
+  private final AtomicLong deleted = new AtomicLong();
+
+  public BatchedDeletes(TrackingIndexWriter writer, String field) {
+    this(writer, field, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * @param writer         writer to delete from
+   * @param field          numeric field holding the ids, indexed as a <code>LongField</code>
+   * @param batchSize      number of deletes per call to the writer
+   * @param maxDelayMillis longest time a delete is buffered
+   */
+  public BatchedDeletes(TrackingIndexWriter writer, String field, int batchSize, final long maxDelayMillis) {
+    this.writer = writer;
+    this.field = field;
+    this.batchSize = batchSize;
+    this.pending = new long[batchSize];
+
+    this.flusher = new Thread("deletes-flusher") {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            TimeUnit.MILLISECONDS.sleep(maxDelayMillis);
+            try {
+              flush();
+            } catch (IOException | RuntimeException e) {
+              LOG.error("Error applying deletes", e);
+            }
+          }
+        } catch (InterruptedException ie) {
+          // closed
+        }
+      }
+    };
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Deletes the status with the given id.
+   */
+  public void delete(long id) throws IOException {
+    long[] batch = null;
+    synchronized (this) {
+      pending[size++] = id;
+      if (size == batchSize) {
+        batch = pending;
+        pending = new long[batchSize];
+        size = 0;
+      }
+    }
+    // applied outside the lock, so that other threads can keep buffering
+    if (batch != null) {
+      apply(batch, batch.length);
+    }
+  }
+
+  /**
+   * Hands all buffered deletes to the writer.
+   */
+  public void flush() throws IOException {
+    long[] batch;
+    int n;
+    synchronized (this) {
+      if (size == 0) {
+        return;
+      }
+      batch = pending;
+      n = size;
+      pending = new long[batchSize];
+      size = 0;
+    }
+    apply(batch, n);
+  }
+
+  private void apply(long[] ids, int n) throws IOException {
+    Term[] terms = new Term[n];
+    BytesRefBuilder bytes = new BytesRefBuilder();
+    for (int i = 0; i < n; i++) {
+      // the full-precision term of a LongField, which identifies the value exactly
+      NumericUtils.longToPrefixCoded(ids[i], 0, bytes);
+      terms[i] = new Term(field, bytes.toBytesRef());
+    }
+    writer.deleteDocuments(terms);
+    deleted.addAndGet(n);
+  }
+
+  /**
+   * Returns the number of deletes handed to the writer so far.
+   */
+  public long deleted() {
+    return deleted.get();
+  }
+
+  /**
+   * Stops the background thread and applies the remaining deletes; the writer
+   * is left open.
+   */
+  @Override
+  public void close() throws IOException {
+    flusher.interrupt();
+    try {
+      flusher.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+}
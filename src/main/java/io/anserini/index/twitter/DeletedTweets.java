@@ -0,0 +1,453 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+
+/**
+ * Set of deleted tweet ids, memory-mapped from a compact file of sorted,
+ * distinct ids, so that even hundreds of millions of deletes cost little heap
+ * and no start-up time. Lookups work on primitive longs.
+ *
+ * <p>The file holds a 16-byte header (magic, version, number of ids) followed by
+ * the ids as big-endian longs in ascending order. It is built from the usual
+ * deletes list, one id per line with optional tab-separated columns after it,
+ * with an external sort whose memory use is bounded by the run size.</p>
+ */
+public final class DeletedTweets implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(DeletedTweets.class);
+
+  static final int MAGIC = 0x444c4944; // "DLID"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+
+  static final int DEFAULT_RUN_SIZE = 1 << 24; // 128MB of ids
+
+  // the run buffer starts small and doubles up to the run size, so small lists stay small
+  private static final int INITIAL_BUFFER_SIZE = 1 << 12;
+
+  // a single mapping cannot exceed 2GB, so larger files are mapped in slices
+  private static final int SLICE_SHIFT = 27;
+  private static final long SLICE_MASK = (1L << SLICE_SHIFT) - 1;
+
+  // ids per block of the in-heap sample, one 4K page of the file
+  private static final int BLOCK_SIZE = 512;
+
+  private final LongBuffer[] slices;
+  private final long size;
+
+  // first id of every block, to find the page an id would be on without touching the file
+  private final long[] samples;
+
+  private DeletedTweets(LongBuffer[] slices, long size) {
+    this.slices = slices;
+    this.size = size;
+
+    this.samples = new long[(int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = get((long) i * BLOCK_SIZE);
+    }
+  }
+
+  /**
+   * Maps a file written by {@link #build(BufferedReader, Path)}.
+   */
+  public static DeletedTweets open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new EOFException(path + " is too short to be a deletes file");
+        }
+      }
+      header.flip();
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException(path + " is not a deletes file");
+      }
+      long size = header.getLong();
+      if (channel.size() != HEADER_SIZE + size * 8) {
+        throw new IOException(path + " should hold " + size + " ids but is " + channel.size() + " bytes long");
+      }
+
+      // mappings stay valid once the channel is closed
+      LongBuffer[] slices = new LongBuffer[(int) ((size + SLICE_MASK) >>> SLICE_SHIFT)];
+      for (int s = 0; s < slices.length; s++) {
+        long from = (long) s << SLICE_SHIFT;
+        long length = Math.min(size - from, 1L << SLICE_SHIFT);
+        slices[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + from * 8, length * 8).asLongBuffer();
+      }
+      return new DeletedTweets(slices, size);
+    }
+  }
+
+  /**
+   * Opens a deletes list in either format: a file written by
+   * {@link #build(BufferedReader, Path)} is mapped as is, a text list (plain or
+   * bzip2-compressed) is converted to a temporary file first.
+   */
+  public static DeletedTweets load(Path path) throws IOException {
+    if (isDeletesFile(path)) {
+      DeletedTweets deletes = open(path);
+      LOG.info("Mapped " + deletes.size() + " deleted tweetids from " + path);
+      return deletes;
+    }
+
+    Path converted = Files.createTempFile("deletes", ".bin");
+    converted.toFile().deleteOnExit();
+    try (BufferedReader reader = openText(path)) {
+      long n = build(reader, converted);
+      LOG.info("Converted " + n + " deleted tweetids from " + path + " to " + converted);
+    }
+    return open(converted);
+  }
+
+  /**
+   * Returns whether the file starts with the header of a deletes file.
+   */
+  public static boolean isDeletesFile(Path path) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Opens a text deletes list, decompressing it if it was written by the bzip2
+   * command line tools.
+   */
+  public static BufferedReader openText(Path path) throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(path));
+    in.mark(2);
+    if (in.read() == 'B' && in.read() == 'Z') {
+      // CBZip2InputStream expects the "B", "Z" bytes to be consumed already
+      in = new CBZip2InputStream(in);
+    } else {
+      in.reset();
+    }
+    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  private long get(long i) {
+    return slices[(int) (i >>> SLICE_SHIFT)].get((int) (i & SLICE_MASK));
+  }
+
+  public boolean contains(long id) {
+    int block = Arrays.binarySearch(samples, id);
+    if (block >= 0) {
+      return true;
+    }
+    block = -block - 2;
+    if (block < 0) {
+      return false;
+    }
+
+    long lo = (long) block * BLOCK_SIZE + 1;
+    long hi = Math.min(lo - 1 + BLOCK_SIZE, size) - 1;
+    while (lo <= hi) {
+      long mid = (lo + hi) >>> 1;
+      long value = get(mid);
+      if (value < id) {
+        lo = mid + 1;
+      } else if (value > id) {
+        hi = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public void close() {
+    // mappings are released when the buffers are garbage collected
+  }
+
+  /**
+   * Writes the ids of a text deletes list to a deletes file.
+   *
+   * @return number of distinct ids written
+   */
+  public static long build(BufferedReader reader, Path output) throws IOException {
+    return build(reader, output, DEFAULT_RUN_SIZE);
+  }
+
+  static long build(BufferedReader reader, Path output, int runSize) throws IOException {
+    List<Path> runs = new ArrayList<Path>();
+    long[] buffer = new long[Math.min(runSize, INITIAL_BUFFER_SIZE)];
+    try {
+      int n = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        String id = (tab < 0 ? line : line.substring(0, tab)).trim();
+        if (id.isEmpty()) {
+          continue;
+        }
+
+        buffer[n++] = Long.parseLong(id);
+        if (n == buffer.length) {
+          if (buffer.length < runSize) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min(runSize, 2L * buffer.length));
+          } else {
+            runs.add(writeRun(buffer, n));
+            n = 0;
+          }
+        }
+      }
+
+      if (runs.isEmpty()) {
+        // everything fit in memory
+        Arrays.sort(buffer, 0, n);
+        return write(output, new SortedIds(buffer, n));
+      }
+      if (n > 0) {
+        runs.add(writeRun(buffer, n));
+      }
+      buffer = null;
+
+      List<SortedIds> inputs = new ArrayList<SortedIds>();
+      try {
+        for (Path run : runs) {
+          inputs.add(new SortedIds(run));
+        }
+        return write(output, new MergedIds(inputs));
+      } finally {
+        for (SortedIds input : inputs) {
+          input.close();
+        }
+      }
+    } finally {
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+    }
+  }
+
+  private static Path writeRun(long[] buffer, int n) throws IOException {
+    Arrays.sort(buffer, 0, n);
+    Path run = Files.createTempFile("deletes", ".run");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+      for (int i = 0; i < n; i++) {
+        out.writeLong(buffer[i]);
+      }
+    }
+    return run;
+  }
+
+  /**
+   * Writes the header and the distinct ids of an ascending sequence.
+   */
+  private static long write(Path output, IdSequence ids) throws IOException {
+    long count = 0;
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(0); // number of ids, filled in below
+
+      long last = 0;
+      while (ids.next()) {
+        long id = ids.current();
+        if (count == 0 || id != last) {
+          out.writeLong(id);
+          last = id;
+          count++;
+        }
+      }
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+      file.seek(8);
+      file.writeLong(count);
+    }
+    return count;
+  }
+
+  /**
+   * Ascending sequence of ids, possibly with duplicates.
+   */
+  private interface IdSequence {
+    boolean next() throws IOException;
+
+    long current();
+  }
+
+  /**
+   * Sorted ids, either in memory or in a run file.
+   */
+  private static final class SortedIds implements IdSequence, Closeable {
+    private final long[] buffer;
+    private final int n;
+    private final DataInputStream in;
+    private int i = -1;
+    private long current;
+
+    SortedIds(long[] buffer, int n) {
+      this.buffer = buffer;
+      this.n = n;
+      this.in = null;
+    }
+
+    SortedIds(Path run) throws IOException {
+      this.buffer = null;
+      this.n = -1;
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (in == null) {
+        if (++i >= n) {
+          return false;
+        }
+        current = buffer[i];
+        return true;
+      }
+
+      try {
+        current = in.readLong();
+        return true;
+      } catch (EOFException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public long current() {
+      return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Merges sorted runs. There are few runs, so the smallest head is found with
+   * a linear scan.
+   */
+  private static final class MergedIds implements IdSequence {
+    private final List<SortedIds> runs;
+    private boolean started = false;
+    private long current;
+
+    MergedIds(List<SortedIds> runs) throws IOException {
+      this.runs = new ArrayList<SortedIds>();
+      for (SortedIds run : runs) {
+        if (run.next()) {
+          this.runs.add(run);
+        }
+      }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (started) {
+        // advance the run the last id came from
+        for (int i = 0; i < runs.size(); i++) {
+          SortedIds run = runs.get(i);
+          if (run.current() == current) {
+            if (!run.next()) {
+              runs.remove(i);
+            }
+            break;
+          }
+        }
+      }
+      started = true;
+
+      if (runs.isEmpty()) {
+        return false;
+      }
+      current = runs.get(0).current();
+      for (int i = 1; i < runs.size(); i++) {
+        current = Math.min(current, runs.get(i).current());
+      }
+      return true;
+    }
+
+    @Override
+    public long current() {
+      return current;
+    }
+  }
+
+  public static class Args {
+    @Option(name = "-input", metaVar = "[file]", required = true, usage = "deletes list, plain or bzip2-compressed")
+    public String input;
+
+    @Option(name = "-output", metaVar = "[file]", required = true, usage = "deletes file to write")
+    public String output;
+  }
+
+  public static void main(String[] argv) throws IOException {
+    Args args = new Args();
+    CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+    try {
+      parser.parseArgument(argv);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.exit(-1);
+    }
+
+    long start = System.currentTimeMillis();
+    try (BufferedReader reader = openText(Paths.get(args.input))) {
+      long n = build(reader, Paths.get(args.output));
+      LOG.info("Wrote " + n + " deleted tweetids to " + args.output + " in "
+          + (System.currentTimeMillis() - start) + "ms");
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Reads the values of one numeric {@link StatusField} by top-level docid, from
+ * the DocValues column of each segment. Looking up the values of a hit list
+ * this way costs a few random reads per hit, where loading the stored document
+ * decompresses a whole block of them.
+ *
+ * <p>Segments written without the column (indexes built before the field had
+ * DocValues) fall back to the stored field, so old indexes give the same values,
+ * only slower.</p>
+ *
+ * <p>A column holds per-segment iterators and is not thread-safe; use one per
+ * thread, e.g. per query.</p>
+ */
+public final class StatusColumn {
+  private final StatusField field;
+  private final Set<String> fieldSet;
+  private final List<LeafReaderContext> leaves;
+
+  private final boolean[] loaded;
+  private final NumericDocValues[] values;
+  private final Bits[] docsWithField;
+
+  // segment of the previous lookup; hits of a query often come from the same one
+  private int last = -1;
+
+  public StatusColumn(IndexReader reader, StatusField field) {
+    this.field = field;
+    this.fieldSet = Collections.singleton(field.name);
+    this.leaves = reader.leaves();
+    this.loaded = new boolean[leaves.size()];
+    this.values = new NumericDocValues[leaves.size()];
+    this.docsWithField = new Bits[leaves.size()];
+  }
+
+  public StatusField getField() {
+    return field;
+  }
+
+  private int leaf(int docid) throws IOException {
+    int i = last;
+    if (i < 0 || docid < leaves.get(i).docBase || docid >= leaves.get(i).docBase + leaves.get(i).reader().maxDoc()) {
+      i = ReaderUtil.subIndex(docid, leaves);
+    }
+
+    if (!loaded[i]) {
+      LeafReader reader = leaves.get(i).reader();
+      if (field.docValues) {
+        values[i] = reader.getNumericDocValues(field.name);
+        if (values[i] != null) {
+          docsWithField[i] = reader.getDocsWithField(field.name);
+        }
+      }
+      loaded[i] = true;
+    }
+
+    last = i;
+    return i;
+  }
+
+  private Number stored(int leaf, int docid) throws IOException {
+    LeafReaderContext context = leaves.get(leaf);
+    Document doc = context.reader().document(docid - context.docBase, fieldSet);
+    IndexableField f = doc.getField(field.name);
+    return f == null ? null : f.numericValue();
+  }
+
+  /**
+   * Returns whether the status has a value for this field, e.g. whether it is a
+   * reply for {@link StatusField#IN_REPLY_TO_STATUS_ID}.
+   */
+  public boolean exists(int docid) throws IOException {
+    int i = leaf(docid);
+    if (values[i] == null) {
+      return stored(i, docid) != null;
+    }
+    return docsWithField[i] != null && docsWithField[i].get(docid - leaves.get(i).docBase);
+  }
+
+  /**
+   * Returns the value of an integer or long field, or 0 if the status has none.
+   */
+  public long getLong(int docid) throws IOException {
+    int i = leaf(docid);
+    if (values[i] == null) {
+      Number value = stored(i, docid);
+      return value == null ? 0 : value.longValue();
+    }
+    return values[i].get(docid - leaves.get(i).docBase);
+  }
+
+  /**
+   * Returns the value of a double field, or 0 if the status has none.
+   */
+  public double getDouble(int docid) throws IOException {
+    int i = leaf(docid);
+    if (values[i] == null) {
+      Number value = stored(i, docid);
+      return value == null ? 0 : value.doubleValue();
+    }
+    // DoubleDocValuesField stores the raw bits of the value
+    return Double.longBitsToDouble(values[i].get(docid - leaves.get(i).docBase));
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+/**
+ * Fields of a status document, shared by all tweet indexers and searchers; see
+ * {@link TweetDocumentBuilder} for how each is indexed. Fields marked with
+ * <code>docValues</code> also carry a numeric DocValues column of the same name,
+ * so that rerankers and features can read them without loading stored fields.
+ */
+public enum StatusField {
+  ID("id", true),
+  SCREEN_NAME("screen_name"),
+  USER_ID("user_id"),
+  EPOCH("epoch", true),
+  TEXT("text"),
+  LANG("lang"),
+  IN_REPLY_TO_STATUS_ID("in_reply_to_status_id", true),
+  IN_REPLY_TO_USER_ID("in_reply_to_user_id"),
+  FOLLOWERS_COUNT("followers_count", true),
+  FRIENDS_COUNT("friends_count", true),
+  STATUSES_COUNT("statuses_count", true),
+  RETWEETED_STATUS_ID("retweeted_status_id", true),
+  RETWEETED_USER_ID("retweeted_user_id"),
+  RETWEET_COUNT("retweet_count", true),
+  LATITUDE("latitude", true),
+  LONGITUDE("longitude", true),
+  PLACE("place"),
+  USER_LOCATION("user_location"),
+  USER_DESCRIPTION("user_description"),
+  USER_URL("user_url"),
+  OUTLINK_DOMAIN("tweetOutlinkDomain");
+
+  public final String name;
+  public final boolean docValues;
+
+  StatusField(String s) {
+    this(s, false);
+  }
+
+  StatusField(String s, boolean docValues) {
+    this.name = s;
+    this.docValues = docValues;
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+
+import io.anserini.document.twitter.Status;
+import io.anserini.index.ReusableDocument;
+
+/**
+ * Turns statuses into documents of the {@link StatusField} schema. The builder
+ * reuses one {@link ReusableDocument}, so it allocates no fields per status; it
+ * is not thread-safe, and the document it returns is only valid until the next
+ * call to {@link #build(Status)}.
+ *
+ * <p>Optional fields are only added when the status has them: replies, retweets,
+ * language, coordinates, place, user profile and urls.</p>
+ */
+public final class TweetDocumentBuilder {
+  private static final Logger LOG = LogManager.getLogger(TweetDocumentBuilder.class);
+
+  private final FieldType textType;
+  private final boolean docValues;
+
+  private final ReusableDocument doc = new ReusableDocument();
+  private final List<String> urls = new ArrayList<String>();
+
+  /**
+   * Returns the frozen type of the analyzed text fields: stored, with positions.
+   */
+  public static FieldType textFieldType(boolean termVectors) {
+    FieldType textType = new FieldType();
+    textType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    textType.setStored(true);
+    textType.setTokenized(true);
+    textType.setStoreTermVectors(termVectors);
+    textType.freeze();
+    return textType;
+  }
+
+  /**
+   * Returns the term that identifies the document of a status: the
+   * full-precision term of its id, for <code>updateDocument</code> and deletes.
+   */
+  public static Term idTerm(long id) {
+    BytesRefBuilder bytes = new BytesRefBuilder();
+    NumericUtils.longToPrefixCoded(id, 0, bytes);
+    return new Term(StatusField.ID.name, bytes.toBytesRef());
+  }
+
+  public TweetDocumentBuilder() {
+    this(false, true);
+  }
+
+  /**
+   * @param termVectors whether to store term vectors of the text fields
+   * @param docValues   whether to add the DocValues columns of the schema
+   */
+  public TweetDocumentBuilder(boolean termVectors, boolean docValues) {
+    this.textType = textFieldType(termVectors);
+    this.docValues = docValues;
+  }
+
+  private void addLong(StatusField field, long value) {
+    doc.addLong(field.name, value, Store.YES);
+    if (docValues && field.docValues) {
+      doc.addNumericDocValues(field.name, value);
+    }
+  }
+
+  private void addInt(StatusField field, int value) {
+    doc.addInt(field.name, value, Store.YES);
+    if (docValues && field.docValues) {
+      doc.addNumericDocValues(field.name, value);
+    }
+  }
+
+  private void addDouble(StatusField field, double value) {
+    doc.addDouble(field.name, value, Store.YES);
+    if (docValues && field.docValues) {
+      doc.addDoubleDocValues(field.name, value);
+    }
+  }
+
+  public ReusableDocument build(Status status) {
+    doc.clear();
+
+    addLong(StatusField.ID, status.getId());
+    addLong(StatusField.EPOCH, status.getEpoch());
+    if (status.getScreenname() != null) {
+      doc.addText(StatusField.SCREEN_NAME.name, status.getScreenname(), Store.YES);
+    }
+    if (status.getUserid() != null) {
+      doc.addString(StatusField.USER_ID.name, status.getUserid(), Store.YES);
+    }
+
+    doc.add(StatusField.TEXT.name, status.getText(), textType);
+
+    addInt(StatusField.FOLLOWERS_COUNT, status.getFollowersCount());
+    addInt(StatusField.FRIENDS_COUNT, status.getFriendsCount());
+    addInt(StatusField.STATUSES_COUNT, status.getStatusesCount());
+
+    long inReplyToStatusId = status.getInReplyToStatusId();
+    if (inReplyToStatusId > 0) {
+      addLong(StatusField.IN_REPLY_TO_STATUS_ID, inReplyToStatusId);
+      addLong(StatusField.IN_REPLY_TO_USER_ID, status.getInReplyToUserId());
+    }
+
+    String lang = status.getLang();
+    if (lang != null && !lang.equals("unknown")) {
+      doc.addText(StatusField.LANG.name, lang, Store.YES);
+    }
+
+    long retweetStatusId = status.getRetweetedStatusId();
+    if (retweetStatusId > 0) {
+      addLong(StatusField.RETWEETED_STATUS_ID, retweetStatusId);
+      addLong(StatusField.RETWEETED_USER_ID, status.getRetweetedUserId());
+      addInt(StatusField.RETWEET_COUNT, status.getRetweetCount());
+      if (status.getRetweetCount() < 0 || status.getRetweetedStatusId() < 0) {
+        LOG.warn("Error parsing retweet fields of " + status.getId());
+      }
+    }
+
+    if (status.getLongitude() != Double.NEGATIVE_INFINITY && status.getlatitude() != Double.NEGATIVE_INFINITY) {
+      addDouble(StatusField.LONGITUDE, status.getLongitude());
+      addDouble(StatusField.LATITUDE, status.getlatitude());
+    }
+    if (status.getPlace() != null) {
+      doc.addString(StatusField.PLACE.name, status.getPlace(), Store.YES);
+    }
+
+    if (status.getUserLocation() != null) {
+      doc.addString(StatusField.USER_LOCATION.name, status.getUserLocation(), Store.YES);
+    }
+    if (status.getUserDescription() != null) {
+      doc.add(StatusField.USER_DESCRIPTION.name, status.getUserDescription(), textType);
+    }
+    if (status.getUserURL() != null) {
+      doc.addString(StatusField.USER_URL.name, status.getUserURL(), Store.YES);
+    }
+
+    if (status.getURLEntities() != null) {
+      urls.clear();
+      for (String url : status.getURLEntities()) {
+        if (url != null) {
+          urls.add(url);
+        }
+      }
+      if (urls.size() > 0) {
+        doc.addString(StatusField.OUTLINK_DOMAIN.name, String.join(" ", urls), Store.YES);
+      }
+    }
+
+    return doc;
+  }
+}
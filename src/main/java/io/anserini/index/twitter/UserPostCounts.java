@@ -0,0 +1,198 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Per-user post counts, in an open-addressing table of primitive columns: user
+ * id, the user's statuses count and the number of posts counted. A table is
+ * not thread-safe; parallel jobs count into one table per thread and
+ * {@link #merge(UserPostCounts)} them at the end.
+ *
+ * <p>The file format is columnar: a header, then the sorted user ids, their
+ * statuses counts and their post counts, each column as one array.</p>
+ */
+public final class UserPostCounts {
+  private static final int MAGIC = 0x55504331;
+
+  // user ids are positive, so 0 marks an empty slot
+  private static final long EMPTY = 0;
+
+  private long[] users;
+  private int[] statuses;
+  private int[] posts;
+  private int size = 0;
+  private int mask;
+
+  public UserPostCounts() {
+    this(1 << 16);
+  }
+
+  public UserPostCounts(int expectedUsers) {
+    int capacity = Integer.highestOneBit(Math.max(16, expectedUsers * 4 / 3) - 1) << 1;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    users = new long[capacity];
+    statuses = new int[capacity];
+    posts = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  private int slot(long user) {
+    long h = user * 0x9E3779B97F4A7C15L;
+    int i = (int) (h ^ (h >>> 32)) & mask;
+    while (users[i] != EMPTY && users[i] != user) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void put(long user, int statusesCount, int postCount) {
+    if (user <= 0) {
+      throw new IllegalArgumentException("Invalid user id " + user);
+    }
+    int i = slot(user);
+    if (users[i] == EMPTY) {
+      users[i] = user;
+      size++;
+    }
+    // the statuses count only grows, so the largest is the most recent
+    statuses[i] = Math.max(statuses[i], statusesCount);
+    posts[i] += postCount;
+
+    if (size * 4 >= users.length * 3) {
+      rehash();
+    }
+  }
+
+  private void rehash() {
+    long[] oldUsers = users;
+    int[] oldStatuses = statuses;
+    int[] oldPosts = posts;
+    allocate(users.length * 2);
+    for (int j = 0; j < oldUsers.length; j++) {
+      if (oldUsers[j] != EMPTY) {
+        int i = slot(oldUsers[j]);
+        users[i] = oldUsers[j];
+        statuses[i] = oldStatuses[j];
+        posts[i] = oldPosts[j];
+      }
+    }
+  }
+
+  /**
+   * Counts one post of the user.
+   */
+  public void add(long user, int statusesCount) {
+    put(user, statusesCount, 1);
+  }
+
+  /**
+   * Adds the counts of another table to this one.
+   */
+  public void merge(UserPostCounts other) {
+    for (int j = 0; j < other.users.length; j++) {
+      if (other.users[j] != EMPTY) {
+        put(other.users[j], other.statuses[j], other.posts[j]);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of posts counted for the user, 0 if none.
+   */
+  public int posts(long user) {
+    int i = slot(user);
+    return users[i] == EMPTY ? 0 : posts[i];
+  }
+
+  /**
+   * Returns the largest statuses count seen for the user, 0 if none.
+   */
+  public int statusesCount(long user) {
+    int i = slot(user);
+    return users[i] == EMPTY ? 0 : statuses[i];
+  }
+
+  /**
+   * Returns the user ids, sorted.
+   */
+  public long[] users() {
+    long[] sorted = new long[size];
+    int n = 0;
+    for (long user : users) {
+      if (user != EMPTY) {
+        sorted[n++] = user;
+      }
+    }
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  public void write(Path path) throws IOException {
+    long[] sorted = users();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(sorted.length);
+      for (long user : sorted) {
+        out.writeLong(user);
+      }
+      for (long user : sorted) {
+        out.writeInt(statuses[slot(user)]);
+      }
+      for (long user : sorted) {
+        out.writeInt(posts[slot(user)]);
+      }
+    }
+  }
+
+  public static UserPostCounts read(Path path) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(path + " is not a user post counts file");
+      }
+      int n = in.readInt();
+      long[] users = new long[n];
+      int[] statuses = new int[n];
+      for (int i = 0; i < n; i++) {
+        users[i] = in.readLong();
+      }
+      for (int i = 0; i < n; i++) {
+        statuses[i] = in.readInt();
+      }
+      UserPostCounts counts = new UserPostCounts(n);
+      for (int i = 0; i < n; i++) {
+        counts.put(users[i], statuses[i], in.readInt());
+      }
+      return counts;
+    }
+  }
+}
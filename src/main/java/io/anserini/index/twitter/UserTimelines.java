@@ -0,0 +1,248 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.twitter;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Aggregates statuses into one timeline text per user, in bounded memory. The
+ * texts of each user are appended to a builder of their own; once the buffered
+ * text exceeds the limit, the builders are written to a run file sorted by user
+ * id and recycled for the next users. {@link #forEach(Handler)} merges the runs,
+ * so every user's timeline is reassembled in the order its statuses were added
+ * and handed out once, in increasing order of user id.
+ */
+public final class UserTimelines implements Closeable {
+  public static final long DEFAULT_MAX_BUFFERED_CHARS = 64L << 20;
+
+  // builders that grew larger than this are left to the garbage collector
+  private static final int MAX_RECYCLED_CAPACITY = 1 << 14;
+
+  /**
+   * Receives the timelines; the text is only valid during the call.
+   */
+  public interface Handler {
+    void timeline(long userId, CharSequence text) throws IOException;
+  }
+
+  private final Path tmpDir;
+  private final long maxBufferedChars;
+
+  private final Long2ObjectOpenHashMap<StringBuilder> buffered = new Long2ObjectOpenHashMap<StringBuilder>();
+  private final ArrayDeque<StringBuilder> recycled = new ArrayDeque<StringBuilder>();
+  private long bufferedChars = 0;
+
+  private final List<Path> runs = new ArrayList<Path>();
+
+  public UserTimelines(Path tmpDir) {
+    this(tmpDir, DEFAULT_MAX_BUFFERED_CHARS);
+  }
+
+  /**
+   * @param tmpDir           directory of the run files
+   * @param maxBufferedChars characters of text held in memory before spilling
+   */
+  public UserTimelines(Path tmpDir, long maxBufferedChars) {
+    this.tmpDir = tmpDir;
+    this.maxBufferedChars = maxBufferedChars;
+  }
+
+  /**
+   * Appends the text of a status to the timeline of its user.
+   */
+  public void add(long userId, CharSequence text) throws IOException {
+    StringBuilder builder = buffered.get(userId);
+    if (builder == null) {
+      builder = recycled.isEmpty() ? new StringBuilder() : recycled.pop();
+      buffered.put(userId, builder);
+    } else {
+      builder.append(' ');
+    }
+    builder.append(text);
+
+    bufferedChars += text.length() + 1;
+    if (bufferedChars >= maxBufferedChars) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of run files written so far.
+   */
+  public int runs() {
+    return runs.size();
+  }
+
+  private long[] sortedUsers() {
+    long[] users = buffered.keySet().toLongArray();
+    Arrays.sort(users);
+    return users;
+  }
+
+  private void recycle() {
+    for (StringBuilder builder : buffered.values()) {
+      if (builder.capacity() <= MAX_RECYCLED_CAPACITY) {
+        builder.setLength(0);
+        recycled.push(builder);
+      }
+    }
+    buffered.clear();
+    bufferedChars = 0;
+  }
+
+  private void spill() throws IOException {
+    Path run = Files.createTempFile(tmpDir, "timelines", ".run");
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+      for (long user : sortedUsers()) {
+        byte[] bytes = buffered.get(user).toString().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(user);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+    recycle();
+  }
+
+  /**
+   * Hands every timeline to the handler, in increasing order of user id. The
+   * timelines are consumed: afterwards this aggregates from scratch.
+   */
+  public void forEach(Handler handler) throws IOException {
+    if (runs.isEmpty()) {
+      for (long user : sortedUsers()) {
+        handler.timeline(user, buffered.get(user));
+      }
+      recycle();
+      return;
+    }
+
+    if (!buffered.isEmpty()) {
+      spill();
+    }
+
+    PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+      @Override
+      public int compare(Run a, Run b) {
+        // within a user, earlier runs hold earlier statuses
+        int cmp = Long.compare(a.user, b.user);
+        return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+      }
+    });
+    List<Run> open = new ArrayList<Run>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        Run run = new Run(runs.get(i), i);
+        open.add(run);
+        if (run.next()) {
+          queue.add(run);
+        }
+      }
+
+      StringBuilder timeline = new StringBuilder();
+      while (!queue.isEmpty()) {
+        Run run = queue.poll();
+        long user = run.user;
+        timeline.setLength(0);
+        timeline.append(run.text);
+        if (run.next()) {
+          queue.add(run);
+        }
+        while (!queue.isEmpty() && queue.peek().user == user) {
+          run = queue.poll();
+          timeline.append(' ').append(run.text);
+          if (run.next()) {
+            queue.add(run);
+          }
+        }
+        handler.timeline(user, timeline);
+      }
+    } finally {
+      for (Run run : open) {
+        run.close();
+      }
+      deleteRuns();
+    }
+  }
+
+  private void deleteRuns() throws IOException {
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    runs.clear();
+  }
+
+  /**
+   * Deletes the run files.
+   */
+  @Override
+  public void close() throws IOException {
+    buffered.clear();
+    deleteRuns();
+  }
+
+  private static final class Run implements Closeable {
+    private final DataInputStream in;
+    private final int index;
+    private byte[] bytes = new byte[1024];
+
+    long user;
+    String text;
+
+    Run(Path path, int index) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+      this.index = index;
+    }
+
+    boolean next() throws IOException {
+      try {
+        user = in.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      int length = in.readInt();
+      if (length > bytes.length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      in.readFully(bytes, 0, length);
+      text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
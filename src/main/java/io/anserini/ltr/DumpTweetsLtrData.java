@@ -1,7 +1,7 @@
 package io.anserini.ltr;
 
 import io.anserini.index.IndexTweets;
-import io.anserini.index.IndexTweets.StatusField;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.rerank.RerankerCascade;
 import io.anserini.rerank.RerankerContext;
@@ -1,6 +1,6 @@
 package io.anserini.ltr;
 
-import io.anserini.index.IndexTweets.StatusField;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
@@ -40,13 +40,19 @@ public class TweetsLtrDataGenerator implements Reranker {
       }
 
       String qid = context.getQueryId().replaceFirst("^MB0*", "");
-      String docid = docs.documents[i].getField(StatusField.ID.name).stringValue();
+      String docid;
+      try {
+        docid = Long.toString(context.getColumn(StatusField.ID).getLong(docs.ids[i]));
+      } catch (IOException e) {
+        // skipping the candidate would silently change the data
+        throw new RuntimeException("Unable to read the id of doc " + docs.ids[i], e);
+      }
 
       out.print(qrels.getRelevanceGrade(qid, docid));
       out.print(" qid:" + qid);
       out.print(" 1:" + docs.scores[i]);
 
-      float[] intFeatures = this.extractorChain.extractAll(docs.documents[i], terms, context);
+      float[] intFeatures = this.extractorChain.extractAll(docs.ids[i], docs.documents[i], terms, context);
 
       for (int j=0; j<intFeatures.length; j++ ) {
         out.print(" " + (j+2) + ":" + intFeatures[j]);
@@ -2,6 +2,7 @@ package io.anserini.ltr;
 
 import com.google.common.collect.Sets;
 import io.anserini.index.IndexTweets;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.ltr.feature.OrderedSequentialPairsFeatureExtractor;
 import io.anserini.ltr.feature.UnigramFeatureExtractor;
@@ -97,12 +98,12 @@ public class TwitterFeatureExtractor extends BaseFeatureExtractor{
 
   @Override
   protected String getIdField() {
-    return IndexTweets.StatusField.ID.name;
+    return StatusField.ID.name;
   }
 
   @Override
   protected String getTermVectorField() {
-    return IndexTweets.StatusField.TEXT.name;
+    return StatusField.TEXT.name;
   }
 
   public static FeatureExtractors getDefaultExtractors() {
@@ -117,15 +118,15 @@ public class TwitterFeatureExtractor extends BaseFeatureExtractor{
   @Override
   protected Set<String> getFieldsToLoad() {
     return Sets.newHashSet(getIdField(), getTermVectorField(),
-            IndexTweets.StatusField.FOLLOWERS_COUNT.name,
-            IndexTweets.StatusField.FRIENDS_COUNT.name,
-            IndexTweets.StatusField.IN_REPLY_TO_STATUS_ID.name);
+            StatusField.FOLLOWERS_COUNT.name,
+            StatusField.FRIENDS_COUNT.name,
+            StatusField.IN_REPLY_TO_STATUS_ID.name);
   }
 
   @Override
   protected Query parseQuery(String queryText) {
     LOG.debug(String.format("Parsing query: %s", queryText) );
-    return AnalyzerUtils.buildBagOfWordsQuery(IndexTweets.StatusField.TEXT.name, IndexTweets.ANALYZER, queryText);
+    return AnalyzerUtils.buildBagOfWordsQuery(StatusField.TEXT.name, IndexTweets.ANALYZER, queryText);
   }
 
   @Override
@@ -1,6 +1,6 @@
 package io.anserini.ltr;
 
-import io.anserini.index.IndexTweets;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
@@ -33,18 +33,24 @@ public class TwitterFeatureReranker implements Reranker{
     for (int i = 0; i < docs.documents.length; i++) {
       Terms terms = null;
       try {
-        terms = reader.getTermVector(docs.ids[i], IndexTweets.StatusField.TEXT.name);
+        terms = reader.getTermVector(docs.ids[i], StatusField.TEXT.name);
       } catch (IOException e) {
         continue;
       }
 
       String qid = context.getQueryId().replaceFirst("^MB0*", "");
-      String docid = docs.documents[i].getField(IndexTweets.StatusField.ID.name).stringValue();
+      String docid;
+      try {
+        docid = Long.toString(context.getColumn(StatusField.ID).getLong(docs.ids[i]));
+      } catch (IOException e) {
+        // skipping the candidate would silently change the data
+        throw new RuntimeException("Unable to read the id of doc " + docs.ids[i], e);
+      }
 
       out.print(qrels.getRelevanceGrade(qid, docid));
       out.print(" qid:" + qid);
 
-      float[] intFeatures = this.extractors.extractAll(docs.documents[i], terms, context);
+      float[] intFeatures = this.extractors.extractAll(docs.ids[i], docs.documents[i], terms, context);
 
       // TODO use model to rerank
     }
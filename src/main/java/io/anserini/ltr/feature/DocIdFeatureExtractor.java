@@ -0,0 +1,17 @@
+package io.anserini.ltr.feature;
+
+import io.anserini.rerank.RerankerContext;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Terms;
+
+/**
+ * A feature extractor that can read its value by docid, e.g. from a DocValues
+ * column, instead of from the stored document. {@link FeatureExtractors} uses
+ * this form whenever the caller knows the docid.
+ */
+public interface DocIdFeatureExtractor extends FeatureExtractor {
+
+  float extract(int docid, Document doc, Terms terms, RerankerContext context);
+
+}
@@ -87,4 +87,23 @@ public class FeatureExtractors {
 
     return features;
   }
+
+  /**
+   * Extracts all features of the document with the given docid; extractors that
+   * implement {@link DocIdFeatureExtractor} read their values by docid.
+   */
+  public float[] extractAll(int docid, Document doc, Terms terms, RerankerContext context) {
+    float[] features = new float[extractors.size()];
+
+    for (int i=0; i<extractors.size(); i++) {
+      FeatureExtractor extractor = extractors.get(i);
+      if (extractor instanceof DocIdFeatureExtractor) {
+        features[i] = ((DocIdFeatureExtractor) extractor).extract(docid, doc, terms, context);
+      } else {
+        features[i] = extractor.extract(doc, terms, context);
+      }
+    }
+
+    return features;
+  }
 }
@@ -1,18 +1,34 @@
 package io.anserini.ltr.feature.twitter;
 
-import io.anserini.index.IndexTweets.StatusField;
-import io.anserini.ltr.feature.FeatureExtractor;
+import io.anserini.index.twitter.StatusField;
+import io.anserini.ltr.feature.DocIdFeatureExtractor;
 import io.anserini.rerank.RerankerContext;
 
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Terms;
 
-public class IsTweetReply implements FeatureExtractor {
+public class IsTweetReply implements DocIdFeatureExtractor {
+  private static final Logger LOG = LogManager.getLogger(IsTweetReply.class);
+
   @Override
   public float extract(Document doc, Terms terms, RerankerContext context) {
     return doc.getField(StatusField.IN_REPLY_TO_STATUS_ID.name) == null ? 0.0f : 1.0f;
   }
 
+  @Override
+  public float extract(int docid, Document doc, Terms terms, RerankerContext context) {
+    try {
+      return context.getColumn(StatusField.IN_REPLY_TO_STATUS_ID).exists(docid) ? 1.0f : 0.0f;
+    } catch (IOException e) {
+      LOG.warn("Unable to read in_reply_to_status_id of doc " + docid, e);
+      return 0.0f;
+    }
+  }
+
   @Override
   public String getName() {
     return "IsTweetReply";
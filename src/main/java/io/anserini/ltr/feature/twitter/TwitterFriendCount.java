@@ -1,18 +1,34 @@
 package io.anserini.ltr.feature.twitter;
 
-import io.anserini.index.IndexTweets.StatusField;
-import io.anserini.ltr.feature.FeatureExtractor;
+import io.anserini.index.twitter.StatusField;
+import io.anserini.ltr.feature.DocIdFeatureExtractor;
 import io.anserini.rerank.RerankerContext;
 
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Terms;
 
-public class TwitterFriendCount implements FeatureExtractor {
+public class TwitterFriendCount implements DocIdFeatureExtractor {
+  private static final Logger LOG = LogManager.getLogger(TwitterFriendCount.class);
+
   @Override
   public float extract(Document doc, Terms terms, RerankerContext context) {
     return (float) (int) doc.getField(StatusField.FRIENDS_COUNT.name).numericValue();
   }
 
+  @Override
+  public float extract(int docid, Document doc, Terms terms, RerankerContext context) {
+    try {
+      return (float) context.getColumn(StatusField.FRIENDS_COUNT).getLong(docid);
+    } catch (IOException e) {
+      LOG.warn("Unable to read friends_count of doc " + docid, e);
+      return 0.0f;
+    }
+  }
+
   @Override
   public String getName() {
     return "TwitterFriendCount";
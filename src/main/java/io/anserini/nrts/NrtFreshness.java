@@ -0,0 +1,188 @@
+package io.anserini.nrts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+
+/**
+ * Freshness of the near-real-time searchers. Tracks the indexing generation of the statuses added by
+ * {@link TweetStreamIndexer}, lets requests wait until a status, or everything indexed so far, is
+ * searchable, and measures what refreshes cost and how long statuses take to become visible.
+ *
+ * <p>Waiting makes the reopen thread refresh at its minimum staleness instead of its maximum, so a
+ * request asking for fresh results blocks for about that long, and at most for the time it allows.</p>
+ */
+public class NrtFreshness implements ReferenceManager.RefreshListener {
+  private static final Logger LOG = LogManager.getLogger(NrtFreshness.class);
+
+  public static final int DEFAULT_RECENT_STATUSES = 100000;
+
+  private final TrackingIndexWriter writer;
+  private final ControlledRealTimeReopenThread<IndexSearcher> reopener;
+
+  // generation of each recently indexed status, by id
+  private final Map<Long, Long> recent;
+
+  // time the oldest status that is not yet searchable was indexed, 0 if none
+  private final AtomicLong pendingSince = new AtomicLong();
+
+  // refreshes are serialized by the searcher manager, so these are only touched by one thread at a time
+  private long refreshStart;
+  private long refreshPendingSince;
+
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong refreshNanos = new AtomicLong();
+  private final AtomicLong maxRefreshNanos = new AtomicLong();
+  private final AtomicLong lagSamples = new AtomicLong();
+  private final AtomicLong lagNanos = new AtomicLong();
+  private final AtomicLong maxLagNanos = new AtomicLong();
+  private final AtomicLong lastLagNanos = new AtomicLong();
+
+  public NrtFreshness(TrackingIndexWriter writer, ControlledRealTimeReopenThread<IndexSearcher> reopener) {
+    this(writer, reopener, DEFAULT_RECENT_STATUSES);
+  }
+
+  /**
+   * @param writer         writer the statuses are added through
+   * @param reopener       thread refreshing the searchers of the writer
+   * @param recentStatuses number of the latest statuses whose generation is kept for {@link #waitForStatus}
+   */
+  public NrtFreshness(TrackingIndexWriter writer, ControlledRealTimeReopenThread<IndexSearcher> reopener,
+      final int recentStatuses) {
+    this.writer = writer;
+    this.reopener = reopener;
+    this.recent = new LinkedHashMap<Long, Long>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+        return size() > recentStatuses;
+      }
+    };
+  }
+
+  /**
+   * Records that the status was added to the index in the given generation, as returned by the
+   * {@link TrackingIndexWriter}.
+   */
+  public void indexed(long id, long generation) {
+    pendingSince.compareAndSet(0, System.nanoTime());
+    synchronized (recent) {
+      recent.put(id, generation);
+    }
+  }
+
+  /**
+   * Waits until the status is searchable, for at most <code>maxMillis</code>, and returns whether it
+   * is. Returns <code>false</code> right away for statuses not among the recently indexed ones.
+   */
+  public boolean waitForStatus(long id, long maxMillis) throws InterruptedException {
+    Long generation;
+    synchronized (recent) {
+      generation = recent.get(id);
+    }
+    return generation != null && waitForGeneration(generation, maxMillis);
+  }
+
+  /**
+   * Waits as a request asks: until the status is searchable if <code>statusId</code> is positive,
+   * otherwise until everything indexed so far is; for at most <code>maxMillis</code>.
+   */
+  public boolean await(long statusId, long maxMillis) throws InterruptedException {
+    return statusId > 0 ? waitForStatus(statusId, maxMillis) : waitForFresh(maxMillis);
+  }
+
+  /**
+   * Waits until the given generation is searchable, for at most <code>maxMillis</code>, and returns
+   * whether it is.
+   */
+  public boolean waitForGeneration(long generation, long maxMillis) throws InterruptedException {
+    return reopener.waitForGeneration(generation, (int) Math.min(Integer.MAX_VALUE, maxMillis));
+  }
+
+  /**
+   * Waits until everything indexed so far is searchable, for at most <code>maxMillis</code>, and
+   * returns whether it is.
+   */
+  public boolean waitForFresh(long maxMillis) throws InterruptedException {
+    return waitForGeneration(writer.getGeneration(), maxMillis);
+  }
+
+  @Override
+  public void beforeRefresh() {
+    refreshStart = System.nanoTime();
+    // statuses indexed from now on may miss this refresh, and count from the next one
+    refreshPendingSince = pendingSince.getAndSet(0);
+  }
+
+  @Override
+  public void afterRefresh(boolean didRefresh) {
+    if (!didRefresh) {
+      // The reopen thread checks for changes every max staleness, and most checks find none; only
+      // actual refreshes count. Whatever was pending is still not searchable.
+      if (refreshPendingSince != 0) {
+        pendingSince.compareAndSet(0, refreshPendingSince);
+      }
+      return;
+    }
+
+    long now = System.nanoTime();
+    long cost = now - refreshStart;
+    refreshes.incrementAndGet();
+    refreshNanos.addAndGet(cost);
+    updateMax(maxRefreshNanos, cost);
+
+    if (refreshPendingSince == 0) {
+      return;
+    }
+    long lag = now - refreshPendingSince;
+    lagSamples.incrementAndGet();
+    lagNanos.addAndGet(lag);
+    lastLagNanos.set(lag);
+    updateMax(maxLagNanos, lag);
+    LOG.debug("Refreshed in " + TimeUnit.NANOSECONDS.toMillis(cost) + "ms, visibility lag "
+        + TimeUnit.NANOSECONDS.toMillis(lag) + "ms");
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current;
+    while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * Returns the current freshness metrics, with times in milliseconds. The visibility lag is measured
+   * from the moment the oldest status not yet searchable was indexed to the end of the refresh that
+   * made it searchable.
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    long n = refreshes.get();
+    long samples = lagSamples.get();
+    long pending = pendingSince.get();
+
+    m.put("indexed_generation", writer.getGeneration());
+    m.put("refreshes", n);
+    m.put("refresh_avg_ms", n == 0 ? 0.0 : millis(refreshNanos.get() / n));
+    m.put("refresh_max_ms", millis(maxRefreshNanos.get()));
+    m.put("lag_samples", samples);
+    m.put("lag_avg_ms", samples == 0 ? 0.0 : millis(lagNanos.get() / samples));
+    m.put("lag_max_ms", millis(maxLagNanos.get()));
+    m.put("lag_last_ms", millis(lastLagNanos.get()));
+    m.put("pending_ms", pending == 0 ? 0.0 : millis(System.nanoTime() - pending));
+    return m;
+  }
+}
@@ -0,0 +1,488 @@
+package io.anserini.nrts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Bounded cache of the top hits of queries, keyed by the normalized query text and the number of hits,
+ * and valid for the reader generation they were computed on. Hits of a cached query are returned
+ * without parsing or running it again, as long as the searcher has not been refreshed.
+ *
+ * <p>After a refresh, a cached query is either run again ({@link Refresh#DROP}), or updated
+ * incrementally ({@link Refresh#MERGE}): the query runs on the new segments only, and its hits are
+ * merged with the cached hits that were not deleted meanwhile. Scores of the cached hits are not
+ * recomputed with the new index statistics, so merged rankings may differ slightly from a full run;
+ * when hits were deleted from a full list, or when most of the index is new, as after a large merge,
+ * the query is run again.</p>
+ *
+ * <p>Entries are evicted by {@link Policy#LRU}, or by {@link Policy#LFU}, which evicts the least
+ * used among the least recently used entries, so that hot queries survive short lulls.</p>
+ */
+public class QueryResultCache implements ReferenceManager.RefreshListener {
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+  // number of least recently used entries among which LFU picks the one to evict
+  private static final int LFU_CANDIDATES = 16;
+
+  public enum Policy {
+    LRU, LFU
+  }
+
+  public enum Refresh {
+    DROP, MERGE
+  }
+
+  private static final class Key {
+    final String query;
+    final int topN;
+
+    Key(String query, int topN) {
+      this.query = query;
+      this.topN = topN;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return topN == other.topN && query.equals(other.query);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * query.hashCode() + topN;
+    }
+  }
+
+  /**
+   * Matches of a query in one segment, counted with the given number of deletions in the segment.
+   */
+  private static final class SegmentMatches {
+    int matches;
+    final int deletions;
+
+    SegmentMatches(int matches, int deletions) {
+      this.matches = matches;
+      this.deletions = deletions;
+    }
+  }
+
+  /**
+   * Collects the top hits of a query, and counts its matches in each segment.
+   */
+  private static final class CountingCollector implements Collector {
+    final TopScoreDocCollector top;
+    final Map<Object, SegmentMatches> segments = new HashMap<>();
+
+    CountingCollector(int topN) {
+      this.top = TopScoreDocCollector.create(topN);
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+      final SegmentMatches counts = new SegmentMatches(0, context.reader().numDeletedDocs());
+      segments.put(context.reader().getCoreCacheKey(), counts);
+      return new FilterLeafCollector(top.getLeafCollector(context)) {
+        @Override
+        public void collect(int doc) throws IOException {
+          in.collect(doc);
+          counts.matches++;
+        }
+      };
+    }
+
+    @Override
+    public boolean needsScores() {
+      return true;
+    }
+  }
+
+  /**
+   * Hits of a query on one reader, identified by segment and segment docid so that they can be
+   * carried over to the next reader.
+   */
+  private static final class Entry {
+    final Query query;
+    final long version;
+    final Map<Object, SegmentMatches> segments;
+    final int totalHits;
+    final Object[] hitSegments;
+    final int[] hitDocs;
+    final float[] hitScores;
+    final long bytes;
+    long uses = 0;
+
+    Entry(Key key, Query query, DirectoryReader reader, TopDocs topDocs, Map<Object, SegmentMatches> segments) {
+      this.query = query;
+      this.version = reader.getVersion();
+      this.segments = segments;
+      this.totalHits = topDocs.totalHits;
+
+      List<LeafReaderContext> leaves = reader.leaves();
+      ScoreDoc[] hits = topDocs.scoreDocs;
+      this.hitSegments = new Object[hits.length];
+      this.hitDocs = new int[hits.length];
+      this.hitScores = new float[hits.length];
+      for (int i = 0; i < hits.length; i++) {
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits[i].doc, leaves));
+        hitSegments[i] = leaf.reader().getCoreCacheKey();
+        hitDocs[i] = hits[i].doc - leaf.docBase;
+        hitScores[i] = hits[i].score;
+      }
+      // rough: object headers, the key, the query, the segment counts and the parallel arrays
+      this.bytes = 128 + 2L * key.query.length() + queryBytes(query) + 48L * segments.size() + 16L * hits.length;
+    }
+  }
+
+  /**
+   * Estimates the memory held by a parsed query. Queries do not report it, but every term shows in
+   * their string form, and is held as a term and its bytes.
+   */
+  private static long queryBytes(Query query) {
+    if (query instanceof Accountable) {
+      return ((Accountable) query).ramBytesUsed();
+    }
+    return 64 + 4L * query.toString().length();
+  }
+
+  private final String field;
+  private final Analyzer analyzer;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final Policy policy;
+  private final Refresh refresh;
+
+  // in access order; guarded by this
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong merges = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public QueryResultCache(String field, Analyzer analyzer) {
+    this(field, analyzer, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, Policy.LRU, Refresh.DROP);
+  }
+
+  /**
+   * @param field      default field of the queries
+   * @param analyzer   analyzer of the queries
+   * @param maxEntries largest number of cached queries
+   * @param maxBytes   largest estimated size of the cache
+   * @param policy     which entry to evict when full
+   * @param refresh    what to do with the entries when the searcher is refreshed
+   */
+  public QueryResultCache(String field, Analyzer analyzer, int maxEntries, long maxBytes, Policy policy,
+      Refresh refresh) {
+    this.field = field;
+    this.analyzer = analyzer;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+    this.refresh = refresh;
+  }
+
+  /**
+   * Returns the query text with its whitespace collapsed, so that trivially different spellings of a
+   * query share an entry. Case is kept, since it matters to the query syntax.
+   */
+  static String normalize(String query) {
+    return query.trim().replaceAll("\\s+", " ");
+  }
+
+  /**
+   * Returns the top hits of the query on the searcher, from the cache when possible. The searcher
+   * must come from a {@link org.apache.lucene.search.SearcherManager} over an index writer, whose
+   * readers are versioned; on other searchers, the query is simply run.
+   */
+  public TopDocs search(IndexSearcher searcher, String queryText, int topN) throws IOException, ParseException {
+    return search(searcher, queryText, null, topN);
+  }
+
+  /**
+   * As above, for a query the caller has already parsed from <code>queryText</code>, or null to
+   * parse it here if needed.
+   */
+  public TopDocs search(IndexSearcher searcher, String queryText, Query parsed, int topN)
+      throws IOException, ParseException {
+    Key key = new Key(normalize(queryText), topN);
+    if (!(searcher.getIndexReader() instanceof DirectoryReader)) {
+      return searcher.search(parsed != null ? parsed : parse(key.query), topN);
+    }
+    DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null) {
+        entry.uses++;
+      }
+    }
+
+    if (entry != null && entry.version == reader.getVersion()) {
+      hits.incrementAndGet();
+      return toTopDocs(entry, reader);
+    }
+
+    Query query;
+    TopDocs topDocs = null;
+    Map<Object, SegmentMatches> segments = new HashMap<>();
+    if (entry != null && entry.version < reader.getVersion() && refresh == Refresh.MERGE) {
+      query = entry.query;
+      topDocs = merge(entry, searcher, reader, topN, segments);
+      if (topDocs != null) {
+        merges.incrementAndGet();
+      }
+    } else {
+      query = parsed != null ? parsed : parse(key.query);
+    }
+    if (topDocs == null) {
+      misses.incrementAndGet();
+      CountingCollector collector = new CountingCollector(topN);
+      searcher.search(query, collector);
+      topDocs = collector.top.topDocs();
+      segments = collector.segments;
+    }
+
+    Entry updated = new Entry(key, query, reader, topDocs, segments);
+    if (entry != null) {
+      updated.uses = entry.uses;
+    }
+    put(key, updated);
+    return topDocs;
+  }
+
+  private Query parse(String queryText) throws ParseException {
+    // QueryParser is not thread-safe and cheap to create
+    return new QueryParser(field, analyzer).parse(queryText);
+  }
+
+  private static TopDocs toTopDocs(Entry entry, DirectoryReader reader) {
+    Map<Object, Integer> docBases = new LinkedHashMap<>();
+    for (LeafReaderContext leaf : reader.leaves()) {
+      docBases.put(leaf.reader().getCoreCacheKey(), leaf.docBase);
+    }
+    ScoreDoc[] scoreDocs = new ScoreDoc[entry.hitDocs.length];
+    float maxScore = Float.NaN;
+    for (int i = 0; i < scoreDocs.length; i++) {
+      scoreDocs[i] = new ScoreDoc(docBases.get(entry.hitSegments[i]) + entry.hitDocs[i], entry.hitScores[i]);
+      maxScore = i == 0 ? entry.hitScores[i] : Math.max(maxScore, entry.hitScores[i]);
+    }
+    return new TopDocs(entry.totalHits, scoreDocs, maxScore);
+  }
+
+  /**
+   * Updates the cached hits to the reader by running the query on its new segments only, or returns
+   * <code>null</code> if the query has to be run again. The matches of each segment of the reader are
+   * added to <code>segments</code>; those of segments with new deletions are counted again.
+   */
+  private static TopDocs merge(Entry entry, IndexSearcher searcher, DirectoryReader reader, int topN,
+      Map<Object, SegmentMatches> segments) throws IOException {
+    List<LeafReaderContext> newLeaves = new ArrayList<>();
+    Map<Object, LeafReaderContext> oldLeaves = new HashMap<>();
+    int newDocs = 0;
+    for (LeafReaderContext leaf : reader.leaves()) {
+      Object segment = leaf.reader().getCoreCacheKey();
+      if (entry.segments.containsKey(segment)) {
+        oldLeaves.put(segment, leaf);
+      } else {
+        newLeaves.add(leaf);
+        newDocs += leaf.reader().maxDoc();
+      }
+    }
+    if (newDocs > reader.maxDoc() / 2) {
+      return null;
+    }
+
+    // Cached hits still in the index. Those of merged-away segments are found again in the new ones,
+    // but only if the list was not full: otherwise, deleted meanwhile or not, they are gone from it.
+    List<ScoreDoc> merged = new ArrayList<>();
+    boolean deleted = false;
+    for (int i = 0; i < entry.hitDocs.length; i++) {
+      LeafReaderContext leaf = oldLeaves.get(entry.hitSegments[i]);
+      Bits liveDocs = leaf == null ? null : leaf.reader().getLiveDocs();
+      if (leaf != null && (liveDocs == null || liveDocs.get(entry.hitDocs[i]))) {
+        merged.add(new ScoreDoc(leaf.docBase + entry.hitDocs[i], entry.hitScores[i]));
+      } else {
+        deleted = true;
+      }
+    }
+    if (deleted && entry.hitDocs.length == topN) {
+      // documents ranked just below the cached ones would move up
+      return null;
+    }
+
+    Weight weight = searcher.createNormalizedWeight(entry.query, true);
+    for (Map.Entry<Object, LeafReaderContext> old : oldLeaves.entrySet()) {
+      SegmentMatches counts = entry.segments.get(old.getKey());
+      LeafReader leaf = old.getValue().reader();
+      if (leaf.numDeletedDocs() != counts.deletions) {
+        counts = new SegmentMatches(count(weight, old.getValue()), leaf.numDeletedDocs());
+      }
+      segments.put(old.getKey(), counts);
+    }
+
+    CountingCollector collector = new CountingCollector(topN);
+    for (LeafReaderContext leaf : newLeaves) {
+      LeafCollector leafCollector;
+      try {
+        leafCollector = collector.getLeafCollector(leaf);
+      } catch (CollectionTerminatedException e) {
+        continue;
+      }
+      BulkScorer scorer = weight.bulkScorer(leaf, leaf.reader().getLiveDocs());
+      if (scorer != null) {
+        try {
+          scorer.score(leafCollector);
+        } catch (CollectionTerminatedException e) {
+          // collection of this segment is done
+        }
+      }
+    }
+    segments.putAll(collector.segments);
+    for (ScoreDoc scoreDoc : collector.top.topDocs().scoreDocs) {
+      merged.add(scoreDoc);
+    }
+
+    int totalHits = 0;
+    for (SegmentMatches counts : segments.values()) {
+      totalHits += counts.matches;
+    }
+
+    ScoreDoc[] scoreDocs = merged.toArray(new ScoreDoc[merged.size()]);
+    Arrays.sort(scoreDocs, new Comparator<ScoreDoc>() {
+      @Override
+      public int compare(ScoreDoc a, ScoreDoc b) {
+        int cmp = Float.compare(b.score, a.score);
+        return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+      }
+    });
+    if (scoreDocs.length > topN) {
+      scoreDocs = Arrays.copyOf(scoreDocs, topN);
+    }
+    float maxScore = scoreDocs.length == 0 ? Float.NaN : scoreDocs[0].score;
+    return new TopDocs(totalHits, scoreDocs, maxScore);
+  }
+
+  /**
+   * Counts the live documents of the segment matching the query.
+   */
+  private static int count(Weight weight, LeafReaderContext leaf) throws IOException {
+    Scorer scorer = weight.scorer(leaf, leaf.reader().getLiveDocs());
+    if (scorer == null) {
+      return 0;
+    }
+    int count = 0;
+    while (scorer.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+      count++;
+    }
+    return count;
+  }
+
+  private synchronized void put(Key key, Entry entry) {
+    // a request still holding an older searcher must not replace the hits of a newer one
+    Entry current = entries.get(key);
+    if (current != null && current.version > entry.version) {
+      return;
+    }
+
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += entry.bytes;
+
+    while (entries.size() > maxEntries || (bytes > maxBytes && entries.size() > 1)) {
+      Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+      Map.Entry<Key, Entry> victim = it.next();
+      if (policy == Policy.LFU) {
+        for (int i = 1; i < LFU_CANDIDATES && it.hasNext(); i++) {
+          Map.Entry<Key, Entry> candidate = it.next();
+          // the new entry has not been used yet, and would always go first
+          if (candidate.getValue() != entry && candidate.getValue().uses < victim.getValue().uses) {
+            victim = candidate;
+          }
+        }
+      }
+      entries.remove(victim.getKey());
+      bytes -= victim.getValue().bytes;
+      evictions.incrementAndGet();
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  @Override
+  public void beforeRefresh() {
+  }
+
+  @Override
+  public void afterRefresh(boolean didRefresh) {
+    // stale entries would only be replaced, so their memory is freed right away
+    if (didRefresh && refresh == Refresh.DROP) {
+      clear();
+    }
+  }
+
+  /**
+   * Returns the hit rate, the number of entries and their estimated size, and the counts of hits,
+   * misses, incremental updates and evictions.
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    long h = hits.get();
+    long lookups = h + misses.get() + merges.get();
+    synchronized (this) {
+      m.put("entries", entries.size());
+      m.put("bytes", bytes);
+    }
+    m.put("hits", h);
+    m.put("misses", misses.get());
+    m.put("merges", merges.get());
+    m.put("evictions", evictions.get());
+    m.put("hit_rate", lookups == 0 ? 0.0 : (double) h / lookups);
+    m.put("policy", policy.name().toLowerCase(Locale.ROOT));
+    m.put("refresh", refresh.name().toLowerCase(Locale.ROOT));
+    return m;
+  }
+}
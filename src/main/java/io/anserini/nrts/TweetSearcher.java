@@ -2,6 +2,9 @@ package io.anserini.nrts;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -13,7 +16,14 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TrackingIndexWriter;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
 
@@ -23,6 +33,7 @@ import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import io.anserini.nrts.TweetServlet;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.index.twitter.TweetAnalyzer;
 import io.anserini.nrts.TweetSearcherAPI;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -33,18 +44,113 @@ public class TweetSearcher {
 
   private static final String INDEX_OPTION = "index";
   private static final String PORT_OPTION = "port";
+  private static final String STALENESS_OPTION = "staleness";
+  private static final String WARM_OPTION = "warm";
+  private static final String SEARCH_PORT_OPTION = "search_port";
+  private static final String WORKERS_OPTION = "workers";
+  private static final String QUEUE_OPTION = "queue";
+  private static final String CACHE_SIZE_OPTION = "cache_size";
+  private static final String CACHE_POLICY_OPTION = "cache_policy";
+  private static final String CACHE_REFRESH_OPTION = "cache_refresh";
+
+  public static final long DEFAULT_MAX_STALENESS_MILLIS = 1000;
+  public static final long DEFAULT_MIN_STALENESS_MILLIS = 25;
 
   public static Directory index;
   public static IndexWriter indexWriter;
+
+  /**
+   * {@link #indexWriter}, returning the generation of each change, so that requests can wait until the
+   * change is searchable through {@link #freshness}.
+   */
+  public static TrackingIndexWriter trackingWriter;
   public static final Analyzer ANALYZER = new TweetAnalyzer();
 
+  /**
+   * Shared near-real-time searchers over {@link #indexWriter}. Requests {@link SearcherManager#acquire()}
+   * a searcher and {@link SearcherManager#release(IndexSearcher)} it when done; a background thread
+   * refreshes them.
+   */
+  public static SearcherManager searcherManager;
+
+  public static NrtFreshness freshness;
+
+  /**
+   * Top hits of recent queries on the current searcher, or <code>null</code> if results are not cached.
+   */
+  public static QueryResultCache resultCache;
+
+  private final ControlledRealTimeReopenThread<IndexSearcher> reopener;
+
   public TweetSearcher(String dir) throws IOException {
+    this(dir, DEFAULT_MAX_STALENESS_MILLIS, new ArrayList<Query>());
+  }
+
+  /**
+   * @param dir                index path
+   * @param maxStalenessMillis longest time an indexed status may be missing from search results
+   * @param warmQueries        queries run on every new searcher before it serves requests
+   */
+  public TweetSearcher(String dir, long maxStalenessMillis, List<Query> warmQueries) throws IOException {
     index = new MMapDirectory(Paths.get(dir));
     IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
     indexWriter = new IndexWriter(index, config);
+    trackingWriter = new TrackingIndexWriter(indexWriter);
+    searcherManager = new SearcherManager(indexWriter, true, new WarmingSearcherFactory(warmQueries));
+
+    // reopening is paid here, at most once per max staleness, rather than by each query; when a
+    // request waits for a generation, as soon as the min staleness allows
+    reopener = new ControlledRealTimeReopenThread<>(trackingWriter, searcherManager,
+        maxStalenessMillis / 1000.0, Math.min(maxStalenessMillis, DEFAULT_MIN_STALENESS_MILLIS) / 1000.0);
+    freshness = new NrtFreshness(trackingWriter, reopener);
+    searcherManager.addListener(freshness);
+
+    reopener.setName("searcher-reopener");
+    reopener.setDaemon(true);
+    reopener.start();
+  }
+
+  /**
+   * Caches the results of up to <code>maxEntries</code> queries in {@link #resultCache}.
+   */
+  public void enableResultCache(int maxEntries, QueryResultCache.Policy policy, QueryResultCache.Refresh refresh) {
+    resultCache = new QueryResultCache(StatusField.TEXT.name, ANALYZER, maxEntries,
+        QueryResultCache.DEFAULT_MAX_BYTES, policy, refresh);
+    searcherManager.addListener(resultCache);
+  }
+
+  /**
+   * Returns the top hits of the query on the searcher, through {@link #resultCache} if results are cached.
+   */
+  public static TopDocs search(IndexSearcher searcher, String query, int topN) throws IOException, ParseException {
+    if (resultCache != null) {
+      return resultCache.search(searcher, query, topN);
+    }
+    return searcher.search(new QueryParser(StatusField.TEXT.name, ANALYZER).parse(query), topN);
+  }
+
+  /**
+   * As above, for a query already parsed from <code>queryText</code>, e.g. by
+   * {@link #newQueryParser()}.
+   */
+  public static TopDocs search(IndexSearcher searcher, String queryText, Query query, int topN)
+      throws IOException, ParseException {
+    if (resultCache != null) {
+      return resultCache.search(searcher, queryText, query, topN);
+    }
+    return searcher.search(query, topN);
+  }
+
+  /**
+   * Returns a parser of the status text queries; parsers are not thread-safe.
+   */
+  public static QueryParser newQueryParser() {
+    return new QueryParser(StatusField.TEXT.name, ANALYZER);
   }
 
   public void close() throws IOException {
+    reopener.close();
+    searcherManager.close();
     indexWriter.close();
   }
 
@@ -52,6 +158,19 @@ public class TweetSearcher {
     Options options = new Options();
     options.addOption(INDEX_OPTION, true, "index path");
     options.addOption(PORT_OPTION, true, "port");
+    options.addOption(STALENESS_OPTION, true, "longest staleness of search results in ms, default "
+        + DEFAULT_MAX_STALENESS_MILLIS);
+    options.addOption(WARM_OPTION, true, "queries to warm new searchers with, separated by commas");
+    options.addOption(SEARCH_PORT_OPTION, true, "port of the lightweight search server, off by default");
+    options.addOption(WORKERS_OPTION, true, "search threads of the lightweight search server, default "
+        + TweetSearcherServer.DEFAULT_WORKERS);
+    options.addOption(QUEUE_OPTION, true, "requests queued by the lightweight search server before it rejects "
+        + "new ones, default " + TweetSearcherServer.DEFAULT_QUEUE_SIZE);
+    options.addOption(CACHE_SIZE_OPTION, true, "queries whose results are cached, e.g. "
+        + QueryResultCache.DEFAULT_MAX_ENTRIES + "; off by default");
+    options.addOption(CACHE_POLICY_OPTION, true, "cache eviction policy, lru or lfu, default lru");
+    options.addOption(CACHE_REFRESH_OPTION, true, "cached results after a refresh, drop or merge the new "
+        + "segments' hits, default drop");
 
     CommandLine cmdline = null;
     CommandLineParser parser = new GnuParser();
@@ -69,12 +188,42 @@ public class TweetSearcher {
     }
 
     int port = cmdline.hasOption(PORT_OPTION) ? Integer.parseInt(cmdline.getOptionValue(PORT_OPTION)) : 8080;
-    TweetSearcher nrtsearch = new TweetSearcher(cmdline.getOptionValue(INDEX_OPTION));
+    long staleness = cmdline.hasOption(STALENESS_OPTION)
+        ? Long.parseLong(cmdline.getOptionValue(STALENESS_OPTION)) : DEFAULT_MAX_STALENESS_MILLIS;
+    List<Query> warmQueries = new ArrayList<>();
+    if (cmdline.hasOption(WARM_OPTION)) {
+      QueryParser queryParser = new QueryParser(StatusField.TEXT.name, ANALYZER);
+      for (String query : cmdline.getOptionValue(WARM_OPTION).split(",")) {
+        warmQueries.add(queryParser.parse(query.trim()));
+      }
+    }
+    TweetSearcher nrtsearch = new TweetSearcher(cmdline.getOptionValue(INDEX_OPTION), staleness, warmQueries);
+
+    int cacheSize = cmdline.hasOption(CACHE_SIZE_OPTION)
+        ? Integer.parseInt(cmdline.getOptionValue(CACHE_SIZE_OPTION)) : 0;
+    if (cacheSize > 0) {
+      QueryResultCache.Policy policy = QueryResultCache.Policy.valueOf(
+          cmdline.getOptionValue(CACHE_POLICY_OPTION, "lru").toUpperCase(Locale.ROOT));
+      QueryResultCache.Refresh refresh = QueryResultCache.Refresh.valueOf(
+          cmdline.getOptionValue(CACHE_REFRESH_OPTION, "drop").toUpperCase(Locale.ROOT));
+      nrtsearch.enableResultCache(cacheSize, policy, refresh);
+    }
 
     TweetStreamIndexer its = new TweetStreamIndexer();
     Thread itsThread = new Thread(its);
     itsThread.start();
 
+    TweetSearcherServer searchServer = null;
+    if (cmdline.hasOption(SEARCH_PORT_OPTION)) {
+      int workers = cmdline.hasOption(WORKERS_OPTION)
+          ? Integer.parseInt(cmdline.getOptionValue(WORKERS_OPTION)) : TweetSearcherServer.DEFAULT_WORKERS;
+      int queueSize = cmdline.hasOption(QUEUE_OPTION)
+          ? Integer.parseInt(cmdline.getOptionValue(QUEUE_OPTION)) : TweetSearcherServer.DEFAULT_QUEUE_SIZE;
+      searchServer = new TweetSearcherServer(Integer.parseInt(cmdline.getOptionValue(SEARCH_PORT_OPTION)),
+          workers, queueSize);
+      searchServer.start();
+    }
+
     LOG.info("Starting HTTP server on port " + port);
 
     HandlerList mainHandler = new HandlerList();
@@ -103,6 +252,10 @@ public class TweetSearcher {
     }
     server.join();
     itsThread.join();
+    its.close();
+    if (searchServer != null) {
+      searchServer.stop(1);
+    }
     nrtsearch.close();
   }
 }
@@ -1,30 +1,63 @@
 package io.anserini.nrts;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TopDocs;
 
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Path("/api")
 public class TweetSearcherAPI {
   private static final long serialVersionUID = 1L;
-  private IndexReader reader;
+  private static final Logger LOG = LogManager.getLogger(TweetSearcherAPI.class);
+
+  // so that one batch cannot keep the shared threads from every other request for long
+  static final int MAX_BATCH_QUERIES = 100;
+
+  // shared by all batches, so that concurrent batches cannot take more threads than there are cores
+  private static final ExecutorService BATCH_EXECUTOR = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "batch-search-" + count.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
 
   static class SearchAPIQuery{
     private String query;
     private int count;
+    // longest wait in ms for everything indexed so far to be searchable; negative for best effort
+    private long fresh = -1;
+    // if positive, the wait is for this status only
+    private long status = 0;
     public SearchAPIQuery() { count = 20;}
 
     public int getCount() {
@@ -35,6 +68,22 @@ public class TweetSearcherAPI {
       this.count = count;
     }
 
+    public long getFresh() {
+      return fresh;
+    }
+
+    public void setFresh(long fresh) {
+      this.fresh = fresh;
+    }
+
+    public long getStatus() {
+      return status;
+    }
+
+    public void setStatus(long status) {
+      this.status = status;
+    }
+
     public SearchAPIQuery(String query, int count) {
 
       this.query = query;
@@ -71,36 +120,154 @@ public class TweetSearcherAPI {
   @Path("search")
   @Produces(MediaType.APPLICATION_JSON)
   public List<SearchResult> search(SearchAPIQuery query){
+    if (query == null || query.getQuery() == null) {
+      throw new BadRequestException("Missing query");
+    }
     try {
-      Query q = new QueryParser(TweetStreamIndexer.StatusField.TEXT.name, TweetSearcher.ANALYZER).parse(query.getQuery());
+      if (query.getFresh() >= 0) {
+        // otherwise, whatever is searchable now, without blocking
+        TweetSearcher.freshness.await(query.getStatus(), query.getFresh());
+      }
+      IndexSearcher searcher = TweetSearcher.searcherManager.acquire();
       try {
-        reader = DirectoryReader.open(TweetSearcher.indexWriter, true);
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        return results(searcher, TweetSearcher.search(searcher, query.getQuery(), query.getCount()), query.getCount());
+      } finally {
+        TweetSearcher.searcherManager.release(searcher);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while waiting for fresh results");
+    } catch (IOException | ParseException e) {
+      LOG.error("Error searching for " + query.getQuery(), e);
+    }
+    return new ArrayList<>();
+  }
+
+  private static List<SearchResult> results(IndexSearcher searcher, TopDocs topDocs, int topN) throws IOException {
+    ScoreDoc[] hits = topDocs.scoreDocs;
+    List<SearchResult> resultHits = new ArrayList<>();
+
+    StatusColumn ids = new StatusColumn(searcher.getIndexReader(), StatusField.ID);
+    for (int i = 0; i < hits.length && i < topN; ++i) {
+      resultHits.add(new SearchResult(String.valueOf(ids.getLong(hits[i].doc))));
+    }
+    return resultHits;
+  }
+
+  /**
+   * Runs a batch of queries in parallel, all against the same searcher, and returns their results in
+   * the order of the queries; a query that fails gets an empty list. The batch waits once, for the
+   * freshest of its queries, and for the statuses its queries wait for. Each distinct query is parsed
+   * once, up front, and run once. An empty batch, or one of more than {@link #MAX_BATCH_QUERIES}
+   * queries, is rejected with 400.
+   */
+  @POST
+  @Path("search/batch")
+  @Produces(MediaType.APPLICATION_JSON)
+  public List<List<SearchResult>> searchBatch(List<SearchAPIQuery> queries) {
+    if (queries == null || queries.isEmpty()) {
+      throw new BadRequestException("Missing queries");
+    }
+    if (queries.size() > MAX_BATCH_QUERIES) {
+      throw new BadRequestException("At most " + MAX_BATCH_QUERIES + " queries per batch");
+    }
+    List<List<SearchResult>> results = new ArrayList<>(queries.size());
+    try {
+      long fresh = -1;
+      for (SearchAPIQuery query : queries) {
+        if (query.getFresh() >= 0 && query.getStatus() > 0) {
+          TweetSearcher.freshness.waitForStatus(query.getStatus(), query.getFresh());
+        } else {
+          fresh = Math.max(fresh, query.getFresh());
+        }
       }
-      IndexReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader, TweetSearcher.indexWriter, true);
-      if (newReader != null) {
-        reader.close();
-        reader = newReader;
+      if (fresh >= 0) {
+        TweetSearcher.freshness.waitForFresh(fresh);
       }
-      IndexSearcher searcher = new IndexSearcher(reader);
-
-      int topN = query.getCount();
-      TopScoreDocCollector collector = TopScoreDocCollector.create(topN);
-      searcher.search(q, collector);
-      ScoreDoc[] hits = collector.topDocs().scoreDocs;
-      List<SearchResult> resultHits = new ArrayList<>();
-
-      for (int i = 0; i < hits.length && i < topN; ++i) {
-        int docId = hits[i].doc;
-        Document d = searcher.doc(docId);
-        resultHits.add(new SearchResult(String.valueOf(d.get(TweetStreamIndexer.StatusField.ID.name))));
+
+      // one parser for the whole batch, on this thread; the pooled tasks only run the parsed queries
+      QueryParser parser = TweetSearcher.newQueryParser();
+      IndexSearcher searcher = TweetSearcher.searcherManager.acquire();
+      try {
+        Map<String, Future<List<SearchResult>>> tasks = new HashMap<>();
+        List<Future<List<SearchResult>>> futures = new ArrayList<>(queries.size());
+        for (SearchAPIQuery query : queries) {
+          String key = query.getCount() + ":" + query.getQuery();
+          if (!tasks.containsKey(key)) {
+            tasks.put(key, submit(searcher, parser, query.getQuery(), query.getCount()));
+          }
+          futures.add(tasks.get(key));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+          Future<List<SearchResult>> future = futures.get(i);
+          if (future == null) {
+            results.add(new ArrayList<SearchResult>());
+            continue;
+          }
+          try {
+            results.add(future.get());
+          } catch (ExecutionException e) {
+            LOG.error("Error searching for " + queries.get(i).getQuery(), e.getCause());
+            results.add(new ArrayList<SearchResult>());
+          }
+        }
+      } finally {
+        TweetSearcher.searcherManager.release(searcher);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while running a batch of " + queries.size() + " queries");
+    } catch (IOException e) {
+      LOG.error("Error running a batch of " + queries.size() + " queries", e);
+    }
+
+    while (results.size() < queries.size()) {
+      results.add(new ArrayList<SearchResult>());
+    }
+    return results;
+  }
+
+  /**
+   * Parses the query and submits it, or returns null if it does not parse.
+   */
+  private static Future<List<SearchResult>> submit(final IndexSearcher searcher, QueryParser parser,
+      final String queryText, final int topN) {
+    if (queryText == null) {
+      return null;
+    }
+    final Query query;
+    try {
+      query = parser.parse(queryText);
+    } catch (ParseException e) {
+      LOG.warn("Unable to parse " + queryText + ": " + e.getMessage());
+      return null;
+    }
+    return BATCH_EXECUTOR.submit(new Callable<List<SearchResult>>() {
+      @Override
+      public List<SearchResult> call() throws IOException, ParseException {
+        return results(searcher, TweetSearcher.search(searcher, queryText, query, topN), topN);
       }
-      return resultHits;
-    }catch (Exception e){
-      e.printStackTrace();
-      return new ArrayList<>();
+    });
+  }
+
+  @GET
+  @Path("freshness")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> freshness() {
+    return TweetSearcher.freshness.snapshot();
+  }
+
+  /**
+   * Returns the hit rate and size of the result cache, or nothing if results are not cached.
+   */
+  @GET
+  @Path("cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> cache() {
+    if (TweetSearcher.resultCache == null) {
+      return new HashMap<>();
     }
+    return TweetSearcher.resultCache.snapshot();
   }
 }
@@ -1,206 +1,265 @@
 package io.anserini.nrts;
 
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
+
+import io.anserini.index.twitter.StatusField;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
 
-public class TweetSearcherServer extends Thread {
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Lightweight HTTP front end of the tweet search service, answering <code>GET /search?query=...</code>
+ * with an HTML list of the matching statuses. Connections are multiplexed by the selector thread of the
+ * JDK's HTTP server and kept alive between requests; requests are handed to a fixed pool of workers
+ * through a bounded queue, and answered with <code>503</code> right away when the queue is full, so that
+ * an overload shows up as fast rejections rather than as growing latency. Rejections are answered by
+ * threads of their own, never by the selector thread, so that a slow client cannot stall the other
+ * connections; when those fall behind as well, or once the server is stopped, the connection is closed
+ * without an answer. Searches go through the shared, refreshed {@link TweetSearcher#searcherManager}.
+ *
+ * <p>Optional parameters are <code>top</code>, the number of hits (20 by default), and
+ * <code>fresh</code>, the longest time in ms to wait for everything indexed so far to be
+ * searchable, or with <code>status</code>, for the status of that id.</p>
+ */
+public class TweetSearcherServer {
   private static final Logger LOG = LogManager.getLogger(TweetSearcherServer.class);
 
-  private ServerSocket server;
-  private int numThreads = 50;
+  public static final int DEFAULT_WORKERS = 50;
+  public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+  private static final int DEFAULT_TOP_N = 20;
+
+  // rejections only read the request headers and write a few bytes, so a couple of threads keep up
+  private static final int REJECTION_THREADS = 2;
+  private static final int REJECTION_QUEUE_SIZE = 100;
+
+  // set while a rejected request is answered
+  private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  private final HttpServer server;
+  private final ThreadPoolExecutor workers;
+  private final ThreadPoolExecutor rejections;
+  private final AtomicLong served = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
 
   public TweetSearcherServer(int port) throws IOException {
-    this.server = new ServerSocket(port);
+    this(port, DEFAULT_WORKERS, DEFAULT_QUEUE_SIZE);
   }
 
-  public void run() {
-    for (int i = 0; i < numThreads; i++) {
-      Thread strThread = new Thread(new SearcherThread());
-      strThread.start();
-    }
+  /**
+   * @param port      port to listen on
+   * @param workers   number of threads running searches
+   * @param queueSize number of requests waiting for a worker before new ones are rejected
+   */
+  public TweetSearcherServer(int port, int workers, int queueSize) throws IOException {
+    // Bounded too, so that a burst of slow clients cannot delay every rejection: a task it cannot
+    // take is aborted, and the HTTP server closes the connection of an exchange it fails to execute.
+    this.rejections = new ThreadPoolExecutor(REJECTION_THREADS, REJECTION_THREADS, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(REJECTION_QUEUE_SIZE), daemonThreads("search-rejecter-"),
+        new ThreadPoolExecutor.AbortPolicy());
+    this.workers = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), daemonThreads("search-worker-"), new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(final Runnable r, ThreadPoolExecutor executor) {
+            // The exchange can only be answered by running it, so it runs, flagged, and only writes
+            // the rejection; not here, on the selector thread, where it would hold up everyone else.
+            if (rejections.isShutdown()) {
+              rejected.incrementAndGet();
+              throw new RejectedExecutionException("Server stopped");
+            }
+            try {
+              rejections.execute(new Runnable() {
+                @Override
+                public void run() {
+                  REJECTED.set(true);
+                  try {
+                    r.run();
+                  } finally {
+                    REJECTED.set(false);
+                  }
+                }
+              });
+            } catch (RejectedExecutionException e) {
+              rejected.incrementAndGet();
+              throw e;
+            }
+          }
+        });
 
-    LOG.info("Accepting connections on port " + server.getLocalPort());
-    while (true) {
-      try {
-        Socket request = server.accept();
-        SearcherThread.processRequest(request);
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.setExecutor(this.workers);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          if (REJECTED.get()) {
+            rejected.incrementAndGet();
+            // closing the connection spares reading a body the server is not going to use
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.getResponseHeaders().set("Connection", "close");
+            write(exchange, 503, "<HTML><BODY><H1>Overloaded, try again later</H1></BODY></HTML>");
+          } else {
+            process(exchange);
+            served.incrementAndGet();
+          }
+        } finally {
+          exchange.close();
+        }
       }
-    }
+    });
+  }
+
+  public void start() {
+    server.start();
+    LOG.info("Accepting connections on port " + server.getAddress().getPort() + " with "
+        + workers.getCorePoolSize() + " workers");
   }
 
-  public static class SearcherThread implements Runnable {
+  /**
+   * Stops accepting requests, and waits up to <code>delaySeconds</code> for the ones in progress.
+   */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+    workers.shutdownNow();
+    rejections.shutdownNow();
+    LOG.info(served.get() + " requests served, " + rejected.get() + " rejected");
+  }
 
-    private static int topN = 20;
-    private static List<Socket> pool = new LinkedList<Socket>();
-    private IndexReader reader;
+  public long served() {
+    return served.get();
+  }
 
-    public SearcherThread() {
-      try {
-        reader = DirectoryReader.open(TweetSearcher.indexWriter, true);
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-    }
+  public long rejected() {
+    return rejected.get();
+  }
 
-    public static Map<String, String> readParamsIntoMap(String url) throws URISyntaxException {
-      Map<String, String> params = new HashMap<String, String>();
-      List<NameValuePair> result = URLEncodedUtils.parse(new URI(url), "UTF-8");
-      for (NameValuePair nvp : result) {
-        params.put(nvp.getName(), nvp.getValue());
+  private static ThreadFactory daemonThreads(final String prefix) {
+    final AtomicInteger threads = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + threads.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
       }
-      return params;
+    };
+  }
+
+  private static Map<String, String> readParams(URI uri) {
+    Map<String, String> params = new HashMap<String, String>();
+    List<NameValuePair> result = URLEncodedUtils.parse(uri, "UTF-8");
+    for (NameValuePair nvp : result) {
+      params.put(nvp.getName(), nvp.getValue());
     }
+    return params;
+  }
 
-    public static void processRequest(Socket request) {
-      synchronized (pool) {
-        pool.add(pool.size(), request);
-        pool.notifyAll();
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    // drain the request, so that the connection can be kept alive
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[4096];
+      while (in.read(buffer) != -1) {
+        // discard
       }
     }
+    write(exchange, status, body);
+  }
 
-    @Override
-    public void run() {
-      while (true) {
-        Socket connection;
-        synchronized (pool) {
-          while (pool.isEmpty()) {
-            try {
-              pool.wait();
-            } catch (InterruptedException e) {
-              // TODO Auto-generated catch block
-              e.printStackTrace();
-            }
-
-          }
-          connection = (Socket) pool.remove(0);
-        }
-
-        PrintStream out = null;
-        try {
-          out = new PrintStream(connection.getOutputStream(), true, "UTF-8");
-          BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+  private static void write(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
 
-          String get = in.readLine();
-          LOG.info(get);
+  private void process(HttpExchange exchange) throws IOException {
+    if (!"GET".equals(exchange.getRequestMethod())) {
+      respond(exchange, 501, "<HTML><BODY><H1>Not Implemented</H1></BODY></HTML>");
+      return;
+    }
+    if (!"/search".equals(exchange.getRequestURI().getPath())) {
+      respond(exchange, 404, "<HTML><BODY><H1>File Not Found</H1></BODY></HTML>");
+      return;
+    }
 
-          StringTokenizer st = new StringTokenizer(get);
-          String method = st.nextToken();
-          String version = "";
-          if (method.equals("GET")) {
-            String query = st.nextToken();
+    Map<String, String> params = readParams(exchange.getRequestURI());
+    if (params.get("query") == null) {
+      respond(exchange, 400, "<HTML><BODY><H1>Missing query</H1></BODY></HTML>");
+      return;
+    }
 
-            if (st.hasMoreTokens()) {
-              version = st.nextToken();
-            }
+    try {
+      int topN = params.containsKey("top") ? Integer.parseInt(params.get("top")) : DEFAULT_TOP_N;
+      if (topN <= 0) {
+        respond(exchange, 400, "<HTML><BODY><H1>Bad request: top must be positive</H1></BODY></HTML>");
+        return;
+      }
+      if (params.containsKey("fresh")) {
+        long status = params.containsKey("status") ? Long.parseLong(params.get("status")) : 0;
+        TweetSearcher.freshness.await(status, Long.parseLong(params.get("fresh")));
+      }
 
-            if (query.startsWith("/search?")) {
-              if (version.startsWith("HTTP")) {
-                out.println("HTTP/1.0 200 OK");
-                Date now = new Date();
-                out.println("Date: " + now);
-                out.println("Server: JHTTP 1.0");
-                out.println("Content-Type: text/html");
-                out.println();
-              }
-
-              Map<String, String> params = readParamsIntoMap(query);
-              Query q = new QueryParser(StatusField.TEXT.name, TweetSearcher.ANALYZER).parse(params.get("query"));
-              IndexReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader,
-                  TweetSearcher.indexWriter, true);
-              if (newReader != null) {
-                reader.close();
-                reader = newReader;
-              }
-              IndexSearcher searcher = new IndexSearcher(reader);
-              TopScoreDocCollector collector = TopScoreDocCollector.create(topN);
-              searcher.search(q, collector);
-              ScoreDoc[] hits = collector.topDocs().scoreDocs;
-
-              out.println("<HTML>");
-              out.println("<HEAD><TITLE>Query</TITLE></HRAD>");
-              out.println("<BODY>");
-              out.println("<H1>Query = \"" + params.get("query") + "\". Found " + hits.length
-                  + " hits.</H1>");
-              out.println("<OL>");
-              for (int i = 0; i < hits.length; ++i) {
-                int docId = hits[i].doc;
-                Document d = searcher.doc(docId);
-                out.println("<LI>" + d.get(StatusField.TEXT.name) + "</LI>");
-              }
-              out.println("</OL>");
-              out.println("</BODY></HTML>");
-            } else {
-              if (version.startsWith("HTTP")) {
-                out.println("HTTP/1.0 404 File Not Found");
-                Date now = new Date();
-                out.println("Date: " + now);
-                out.println("Server: JHTTP 1.0");
-                out.println("Content-Type: text/html");
-                out.println();
-              }
-            }
-          } else {
-            if (version.startsWith("HTTP")) {
-              out.println("HTTP/1.0 501 Not Implemented");
-              Date now = new Date();
-              out.println("Date: " + now);
-              out.println("Server: JHTTP 1.0");
-              out.println("Content-Type: text/html");
-              out.println();
-            }
-          }
+      StringBuilder out = new StringBuilder();
+      IndexSearcher searcher = TweetSearcher.searcherManager.acquire();
+      try {
+        ScoreDoc[] hits = TweetSearcher.search(searcher, params.get("query"), topN).scoreDocs;
 
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        } catch (URISyntaxException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        } catch (ParseException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        } finally {
-          try {
-            out.close();
-            connection.close();
-          } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
+        out.append("<HTML>\n");
+        out.append("<HEAD><TITLE>Query</TITLE></HEAD>\n");
+        out.append("<BODY>\n");
+        out.append("<H1>Query = \"").append(escapeHtml4(params.get("query"))).append("\". Found ")
+            .append(hits.length).append(" hits.</H1>\n");
+        out.append("<OL>\n");
+        for (int i = 0; i < hits.length; ++i) {
+          Document d = searcher.doc(hits[i].doc);
+          out.append("<LI>").append(escapeHtml4(d.get(StatusField.TEXT.name))).append("</LI>\n");
         }
+        out.append("</OL>\n");
+        out.append("</BODY></HTML>\n");
+      } finally {
+        TweetSearcher.searcherManager.release(searcher);
       }
+      respond(exchange, 200, out.toString());
+    } catch (ParseException | NumberFormatException e) {
+      respond(exchange, 400, "<HTML><BODY><H1>Bad request: " + escapeHtml4(e.getMessage()) + "</H1></BODY></HTML>");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 503, "<HTML><BODY><H1>Interrupted</H1></BODY></HTML>");
     }
   }
 }
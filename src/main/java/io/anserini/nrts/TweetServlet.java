@@ -9,28 +9,22 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
 
 import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
 
 public class TweetServlet extends HttpServlet {
 
   // TODO Auto-generated serialVersionUID
   private static final long serialVersionUID = 1L;
   String MustacheTemplatePath="src/main/java/io/anserini/nrts/ServletResponseTemplate.mustache";
-  private IndexReader reader;
   
   static class TweetHits {
     
@@ -64,23 +58,7 @@ public class TweetServlet extends HttpServlet {
       response.setStatus(HttpServletResponse.SC_OK);
       response.setContentType("text/html");
       request.setCharacterEncoding("UTF-8");
-      Query q;
       try {
-        q = new QueryParser(StatusField.TEXT.name, TweetSearcher.ANALYZER).parse(request.getParameter("query"));
-        try {
-          reader = DirectoryReader.open(TweetSearcher.indexWriter, true);
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        }
-        IndexReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader, TweetSearcher.indexWriter,
-            true);
-        if (newReader != null) {
-          reader.close();
-          reader = newReader;
-        }
-        IndexSearcher searcher = new IndexSearcher(reader);
-        
         int topN;
         if (request.getParameter("top") != null) {
           topN = Integer.parseInt(request.getParameter("top"));
@@ -88,15 +66,26 @@ public class TweetServlet extends HttpServlet {
           // TODO configurable, default(parameter unspecified in url) topN = 20
           topN = 20;
         }
-        TopScoreDocCollector collector = TopScoreDocCollector.create(topN);
-        searcher.search(q, collector);
-        ScoreDoc[] hits = collector.topDocs().scoreDocs;        
-        TweetHits tweetHits=new TweetHits(request.getParameter("query"),hits.length);
-        
-        for (int i = 0; i < hits.length; ++i) {
-          int docId = hits[i].doc;
-          Document d = searcher.doc(docId);         
-          tweetHits.addHit(i,String.valueOf(d.get(StatusField.ID.name)));          
+
+        // fresh=<ms> waits up to that long for everything indexed so far to be searchable, or with
+        // status=<id>, for that status; without it, results are best effort and never block
+        if (request.getParameter("fresh") != null) {
+          long status = request.getParameter("status") != null ? Long.parseLong(request.getParameter("status")) : 0;
+          TweetSearcher.freshness.await(status, Long.parseLong(request.getParameter("fresh")));
+        }
+
+        TweetHits tweetHits;
+        IndexSearcher searcher = TweetSearcher.searcherManager.acquire();
+        try {
+          ScoreDoc[] hits = TweetSearcher.search(searcher, request.getParameter("query"), topN).scoreDocs;
+          tweetHits = new TweetHits(request.getParameter("query"), hits.length);
+
+          StatusColumn ids = new StatusColumn(searcher.getIndexReader(), StatusField.ID);
+          for (int i = 0; i < hits.length; ++i) {
+            tweetHits.addHit(i, String.valueOf(ids.getLong(hits[i].doc)));
+          }
+        } finally {
+          TweetSearcher.searcherManager.release(searcher);
         }
         MustacheFactory mf = new DefaultMustacheFactory();
         Mustache mustache = mf.compile(MustacheTemplatePath);
@@ -104,6 +93,9 @@ public class TweetServlet extends HttpServlet {
       } catch (ParseException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
       }
     } else {
       response.setStatus(HttpServletResponse.SC_NOT_FOUND);
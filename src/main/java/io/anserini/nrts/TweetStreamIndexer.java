@@ -1,21 +1,16 @@
 package io.anserini.nrts;
 
 import io.anserini.document.twitter.Status;
+import io.anserini.index.twitter.BatchedDeletes;
+import io.anserini.index.twitter.StatusField;
+import io.anserini.index.twitter.TweetDocumentBuilder;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.IndexOptions;
-import org.apache.lucene.search.NumericRangeQuery;
-import org.apache.lucene.search.Query;
+import org.apache.lucene.store.AlreadyClosedException;
 
 import twitter4j.RawStreamListener;
 import twitter4j.TwitterStream;
@@ -24,45 +19,46 @@ import twitter4j.TwitterStreamFactory;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
-public class TweetStreamIndexer implements Runnable {
+public class TweetStreamIndexer implements Runnable, Closeable {
   private static final Logger LOG = LogManager.getLogger(TweetStreamIndexer.class);
 
   private static final JsonParser JSON_PARSER = new JsonParser();
 
-  public static enum StatusField {
-    ID("id"),
-    SCREEN_NAME("screen_name"),
-    EPOCH("epoch"), TEXT("text"),
-    LANG("lang"),
-    IN_REPLY_TO_STATUS_ID("in_reply_to_status_id"),
-    IN_REPLY_TO_USER_ID("in_reply_to_user_id"),
-    FOLLOWERS_COUNT("followers_count"),
-    FRIENDS_COUNT("friends_count"),
-    STATUSES_COUNT("statuses_count"),
-    RETWEETED_STATUS_ID("retweeted_status_id"),
-    RETWEETED_USER_ID("retweeted_user_id"),
-    RETWEET_COUNT("retweet_count");
-
-    public final String name;
-
-    StatusField(String s) {
-      name = s;
-    }
-  };
-
   public static int tweetCount;
 
+  private TwitterStream twitterStream;
+  private BatchedDeletes deletes;
+
   @Override
   public void run() {
     tweetCount = 0;
 
-    final FieldType textOptions = new FieldType();
-    // textOptions.setIndexed(true);
-    textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-    textOptions.setStored(true);
-    textOptions.setTokenized(true);
+    final ThreadLocal<TweetDocumentBuilder> builders = new ThreadLocal<TweetDocumentBuilder>() {
+      @Override
+      protected TweetDocumentBuilder initialValue() {
+        return new TweetDocumentBuilder();
+      }
+    };
 
+    final BatchedDeletes deletes = new BatchedDeletes(TweetSearcher.trackingWriter, StatusField.ID.name);
     TwitterStream twitterStream = new TwitterStreamFactory().getInstance();
+    // close() runs on the shutdown hook's thread
+    synchronized (this) {
+      this.deletes = deletes;
+      this.twitterStream = twitterStream;
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          TweetStreamIndexer.this.close();
+        } catch (IOException | AlreadyClosedException e) {
+          LOG.error("Error applying the last deletes", e);
+        }
+      }
+    });
+
     RawStreamListener rawListener = new RawStreamListener() {
 
       @Override
@@ -75,12 +71,10 @@ public class TweetStreamIndexer implements Runnable {
             if (obj.has("delete")) {
               long id = obj.getAsJsonObject("delete").getAsJsonObject("status").get("id")
                   .getAsLong();
-              Query q = NumericRangeQuery.newLongRange(StatusField.ID.name, id, id, true, true);
-              TweetSearcher.indexWriter.deleteDocuments(q);
+              deletes.delete(id);
             }
           } catch (Exception e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            LOG.error("Error handling message: " + rawString, e);
           }
           return;
         }
@@ -89,59 +83,42 @@ public class TweetStreamIndexer implements Runnable {
           return;
         }
 
-        Document doc = new Document();
-        doc.add(new LongField(StatusField.ID.name, status.getId(), Field.Store.YES));
-        doc.add(new LongField(StatusField.EPOCH.name, status.getEpoch(), Field.Store.YES));
-        doc.add(new TextField(StatusField.SCREEN_NAME.name, status.getScreenname(), Store.YES));
-
-        doc.add(new Field(StatusField.TEXT.name, status.getText(), textOptions));
-
-        doc.add(new IntField(StatusField.FRIENDS_COUNT.name, status.getFollowersCount(), Store.YES));
-        doc.add(new IntField(StatusField.FOLLOWERS_COUNT.name, status.getFriendsCount(), Store.YES));
-        doc.add(new IntField(StatusField.STATUSES_COUNT.name, status.getStatusesCount(), Store.YES));
-
-        long inReplyToStatusId = status.getInReplyToStatusId();
-        if (inReplyToStatusId > 0) {
-          doc.add(new LongField(StatusField.IN_REPLY_TO_STATUS_ID.name, inReplyToStatusId, Field.Store.YES));
-          doc.add(new LongField(StatusField.IN_REPLY_TO_USER_ID.name, status.getInReplyToUserId(), Field.Store.YES));
-        }
-
-        String lang = status.getLang();
-        if (!lang.equals("unknown")) {
-          doc.add(new TextField(StatusField.LANG.name, status.getLang(), Store.YES));
-        }
-
-        long retweetStatusId = status.getRetweetedStatusId();
-        if (retweetStatusId > 0) {
-          doc.add(new LongField(StatusField.RETWEETED_STATUS_ID.name, retweetStatusId, Field.Store.YES));
-          doc.add(new LongField(StatusField.RETWEETED_USER_ID.name, status.getRetweetedUserId(), Field.Store.YES));
-          doc.add(new IntField(StatusField.RETWEET_COUNT.name, status.getRetweetCount(), Store.YES));
-          if (status.getRetweetCount() < 0 || status.getRetweetedStatusId() < 0) {
-            System.err.println("Error parsing retweet fields of " + status.getId());
-          }
-        }
-
         try {
-          TweetSearcher.indexWriter.addDocument(doc);
+          // the generation tells requests when the status becomes searchable
+          long generation = TweetSearcher.trackingWriter.addDocument(builders.get().build(status));
+          TweetSearcher.freshness.indexed(status.getId(), generation);
           tweetCount++;
           if (tweetCount % 1000 == 0) {
             LOG.info(tweetCount + " statuses indexed");
           }
         } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
+          LOG.error("Error indexing status " + status.getId(), e);
         }
 
       }
 
       @Override
       public void onException(Exception e) {
-        // TODO Auto-generated method stub
-        e.printStackTrace();
+        LOG.error("Error reading the stream", e);
       }
     };
 
     twitterStream.addListener(rawListener);
     twitterStream.sample();
   }
+
+  /**
+   * Stops the stream, and hands the buffered deletes to the writer; the writer is left open.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (twitterStream != null) {
+      twitterStream.shutdown();
+      twitterStream = null;
+    }
+    if (deletes != null) {
+      deletes.close();
+      deletes = null;
+    }
+  }
 }
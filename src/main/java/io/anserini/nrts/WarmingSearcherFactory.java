@@ -0,0 +1,56 @@
+package io.anserini.nrts;
+
+import io.anserini.index.twitter.StatusField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+/**
+ * Warms every new near-real-time searcher before {@link org.apache.lucene.search.SearcherManager}
+ * publishes it, so that the first queries on a refreshed index do not pay for loading it: the norms of
+ * the text field and the id column of each segment are loaded, then the warm-up queries are run.
+ */
+public class WarmingSearcherFactory extends SearcherFactory {
+  private static final Logger LOG = LogManager.getLogger(WarmingSearcherFactory.class);
+
+  private final List<Query> warmQueries;
+
+  public WarmingSearcherFactory() {
+    this(Collections.<Query>emptyList());
+  }
+
+  public WarmingSearcherFactory(List<Query> warmQueries) {
+    this.warmQueries = new ArrayList<>(warmQueries);
+  }
+
+  @Override
+  public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+    long start = System.nanoTime();
+    IndexSearcher searcher = new IndexSearcher(reader);
+
+    for (LeafReaderContext context : reader.leaves()) {
+      LeafReader leaf = context.reader();
+      leaf.getNormValues(StatusField.TEXT.name);
+      leaf.getNumericDocValues(StatusField.ID.name);
+    }
+    for (Query query : warmQueries) {
+      searcher.search(query, TopScoreDocCollector.create(10));
+    }
+
+    LOG.debug("Warmed searcher over " + reader.maxDoc() + " docs in "
+        + (System.nanoTime() - start) / 1000000 + "ms");
+    return searcher;
+  }
+}
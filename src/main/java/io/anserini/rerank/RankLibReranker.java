@@ -26,7 +26,7 @@ public class RankLibReranker implements Reranker {
   private final FeatureExtractors extractors;
   private final String termsField;
 
-  private DataPoint convertToDataPoint(Document doc, RerankerContext context) {
+  private DataPoint convertToDataPoint(int docid, Document doc, RerankerContext context) {
     Terms terms = null;
     try {
       terms = MultiFields.getTerms(context.getIndexSearcher().getIndexReader(), this.termsField);
@@ -34,7 +34,7 @@ public class RankLibReranker implements Reranker {
       LOG.error("Unable to retrieve term vectors");
     }
 
-    float[] features = this.extractors.extractAll(doc, terms, context);
+    float[] features = this.extractors.extractAll(docid, doc, terms, context);
     String rankLibEntryString = BaseFeatureExtractor.constructOutputString("0", 0, "0", features);
     DataPoint dp = new DataPoint(rankLibEntryString);
     return dp;
@@ -67,7 +67,7 @@ public class RankLibReranker implements Reranker {
     // So we need to construct each feature vector in string representation then
     // parse it...
     for (int i = 0; i < numResults; i++) {
-      DataPoint dp = convertToDataPoint(docs.documents[i], context);
+      DataPoint dp = convertToDataPoint(docs.ids[i], docs.documents[i], context);
       float score = (float) this.ranker.eval(dp);
       results.add(new Result(docs.documents[i], i, score, docs.ids[i]));
     }
@@ -1,6 +1,10 @@
 package io.anserini.rerank;
 
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
+
 import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +25,7 @@ public class RerankerContext {
   private final List<String> queryTokens;
   private final Filter filter;
   private final String termVectorField;
+  private final Map<StatusField, StatusColumn> columns = new EnumMap<StatusField, StatusColumn>(StatusField.class);
 
   public RerankerContext(IndexSearcher searcher, Query query, String queryId, String queryText,
                          List<String> queryTokens, String termVectorField, Filter filter) throws IOException {
@@ -58,4 +63,17 @@ public class RerankerContext {
   }
 
   public String getField() {return termVectorField; }
+
+  /**
+   * Returns the column of a numeric status field over this context's searcher,
+   * shared by the rerankers and feature extractors of the query.
+   */
+  public StatusColumn getColumn(StatusField field) {
+    StatusColumn column = columns.get(field);
+    if (column == null) {
+      column = new StatusColumn(searcher.getIndexReader(), field);
+      columns.put(field, column);
+    }
+    return column;
+  }
 }
@@ -18,17 +18,28 @@ public class ScoredDocuments {
   public float[] scores;
   
   public static ScoredDocuments fromTopDocs(TopDocs rs, IndexSearcher searcher) {
+    return fromTopDocs(rs, searcher, true);
+  }
+
+  /**
+   * Converts the TopDocs, loading the stored documents only if
+   * <code>loadDocuments</code> is set; otherwise the documents are left null, for
+   * rerankers that read what they need by docid.
+   */
+  public static ScoredDocuments fromTopDocs(TopDocs rs, IndexSearcher searcher, boolean loadDocuments) {
     ScoredDocuments scoredDocs = new ScoredDocuments();
     scoredDocs.documents = new Document[rs.scoreDocs.length];
     scoredDocs.ids = new int[rs.scoreDocs.length];
     scoredDocs.scores = new float[rs.scoreDocs.length];
 
     for (int i=0; i<rs.scoreDocs.length; i++) {
-      try {
-        scoredDocs.documents[i] = searcher.doc(rs.scoreDocs[i].doc);
-      } catch (IOException e) {
-        e.printStackTrace();
-        scoredDocs.documents[i] = null;
+      if (loadDocuments) {
+        try {
+          scoredDocs.documents[i] = searcher.doc(rs.scoreDocs[i].doc);
+        } catch (IOException e) {
+          e.printStackTrace();
+          scoredDocs.documents[i] = null;
+        }
       }
       scoredDocs.scores[i] = rs.scoreDocs[i].score;
       scoredDocs.ids[i] = rs.scoreDocs[i].doc;
@@ -1,16 +1,22 @@
 package io.anserini.rerank.twitter;
 
-import io.anserini.index.IndexTweets.StatusField;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.rerank.ScoredDocuments;
 
+import java.io.IOException;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
 
 public class RemoveRetweetsTemporalTiebreakReranker implements Reranker {
+  private static final Logger LOG = LogManager.getLogger(RemoveRetweetsTemporalTiebreakReranker.class);
+
   // Sort by score, break ties by higher docid first (i.e., more temporally recent first)
   public static class Result implements Comparable<Result> {
     public float score;
@@ -48,18 +54,27 @@ public class RemoveRetweetsTemporalTiebreakReranker implements Reranker {
   @Override
   public ScoredDocuments rerank(ScoredDocuments docs, RerankerContext context) {
     // Resort results based on score, breaking ties by larger docid first (i.e., recent first).
+    // Ids and retweet flags come from the DocValues columns, not from the stored documents.
+    StatusColumn ids = context.getColumn(StatusField.ID);
+    StatusColumn retweets = context.getColumn(StatusField.RETWEETED_STATUS_ID);
     SortedSet<Result> sortedResults = new TreeSet<Result>();
     for (int i=0; i<docs.documents.length; i++ ) {
       Result result = new Result();
       result.document = docs.documents[i];
       result.score = docs.scores[i];
       result.id = docs.ids[i];
-      result.docid = (long) docs.documents[i].getField(StatusField.ID.name).numericValue();
 
-      // Throw away retweets.
-      if (docs.documents[i].getField(StatusField.RETWEETED_STATUS_ID.name) == null) {
-        sortedResults.add(result);
+      try {
+        // Throw away retweets.
+        if (retweets.exists(docs.ids[i])) {
+          continue;
+        }
+        result.docid = ids.getLong(docs.ids[i]);
+      } catch (IOException e) {
+        LOG.warn("Unable to read the id of doc " + docs.ids[i], e);
+        continue;
       }
+      sortedResults.add(result);
     }
 
     int numResults = sortedResults.size();
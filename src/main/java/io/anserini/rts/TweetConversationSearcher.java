@@ -31,7 +31,8 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 
 import io.anserini.nrts.TweetSearcher;
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
 import twitter4j.TwitterException;
 
 public class TweetConversationSearcher {
@@ -100,21 +101,21 @@ public class TweetConversationSearcher {
 
 		IndexSearcher searcher = new IndexSearcher(reader);
 		System.out.println("The total number of docs indexed "
-				+ searcher.collectionStatistics(TweetStreamReader.StatusField.TEXT.name).docCount());
+				+ searcher.collectionStatistics(StatusField.TEXT.name).docCount());
 
 		for (int city = 0; city < cityName.length; city++) {
 			// Pittsburgh's coordinate -79.976389, 40.439722
-			Query q_long = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LONGITUDE.name,
+			Query q_long = NumericRangeQuery.newDoubleRange(StatusField.LONGITUDE.name,
 					new Double(Double.parseDouble(cmdline.getOptionValue(LONGITUDE_OPTION)) - 0.05),
 					new Double(Double.parseDouble(cmdline.getOptionValue(LONGITUDE_OPTION)) + 0.05), true, true);
-			Query q_lat = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LATITUDE.name,
+			Query q_lat = NumericRangeQuery.newDoubleRange(StatusField.LATITUDE.name,
 					new Double(Double.parseDouble(cmdline.getOptionValue(LATITUDE_OPTION)) - 0.05),
 					new Double(Double.parseDouble(cmdline.getOptionValue(LATITUDE_OPTION)) + 0.05), true, true);
 
 			BooleanQuery bq = new BooleanQuery();
 
 			// Query q_inReplyTo =
-			// NumericRangeQuery.newLongRange(TweetStreamReader.StatusField.IN_REPLY_TO_STATUS_ID.name,
+			// NumericRangeQuery.newLongRange(StatusField.IN_REPLY_TO_STATUS_ID.name,
 			// 1l,
 			// Long.MAX_VALUE, true, true);
 
@@ -140,6 +141,9 @@ public class TweetConversationSearcher {
 
 			// Collection
 
+			StatusColumn ids = new StatusColumn(reader, StatusField.ID);
+			StatusColumn longitudes = new StatusColumn(reader, StatusField.LONGITUDE);
+			StatusColumn latitudes = new StatusColumn(reader, StatusField.LATITUDE);
 			for (int i = 0; i < hits.length; ++i) {
 				int docId = hits[i].doc;
 				Document d;
@@ -147,20 +151,20 @@ public class TweetConversationSearcher {
 				d = searcher.doc(docId);
 
 				// System.out.println("The tail status is
-				// "+d.get(TweetStreamReader.StatusField.ID.name)+" will be
+				// "+d.get(StatusField.ID.name)+" will be
 				// searching for its inReplyTo
-				// "+d.get(TweetStreamReader.StatusField.IN_REPLY_TO_STATUS_ID.name));
-				// testRetrieveByID.getChain(d.get(TweetStreamReader.StatusField.ID.name));
+				// "+d.get(StatusField.IN_REPLY_TO_STATUS_ID.name));
+				// testRetrieveByID.getChain(d.get(StatusField.ID.name));
 
-				// System.out.println(d.get(TweetStreamReader.StatusField.IN_REPLY_TO_STATUS_ID.name)+"
-				// "+d.get(TweetStreamReader.StatusField.TEXT.name));
+				// System.out.println(d.get(StatusField.IN_REPLY_TO_STATUS_ID.name)+"
+				// "+d.get(StatusField.TEXT.name));
 
-				System.out.println(d.get(TweetStreamReader.StatusField.ID.name) + " "
-						+ d.get(TweetStreamReader.StatusField.LONGITUDE.name) + " "
-						+ d.get(TweetStreamReader.StatusField.LATITUDE.name) + " "
-						+ d.get(TweetStreamReader.StatusField.TEXT.name));
+				System.out.println(ids.getLong(docId) + " "
+						+ longitudes.getDouble(docId) + " "
+						+ latitudes.getDouble(docId) + " "
+						+ d.get(StatusField.TEXT.name));
 
-				Terms terms = reader.getTermVector(docId, TweetStreamReader.StatusField.TEXT.name);
+				Terms terms = reader.getTermVector(docId, StatusField.TEXT.name);
 				if (terms != null && terms.size() > 0) {
 					TermsEnum termsEnum = terms.iterator(); // access the terms
 															// for this field
@@ -36,7 +36,7 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 
 import io.anserini.nrts.TweetSearcher;
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import io.anserini.index.twitter.StatusField;
 import twitter4j.TwitterException;
 
 public class TweetNaiveSearcher {
@@ -101,7 +101,7 @@ public class TweetNaiveSearcher {
 
 		IndexSearcher searcher = new IndexSearcher(reader);
 		System.out.println("The total number of docs indexed "
-				+ searcher.collectionStatistics(TweetStreamReader.StatusField.TEXT.name).docCount());
+				+ searcher.collectionStatistics(StatusField.TEXT.name).docCount());
 
 		BufferedWriter goldFout = new BufferedWriter(new FileWriter("clusteringDataset/gold_standard"));
 		BufferedWriter docVectorsFout = new BufferedWriter(new FileWriter("clusteringDataset/docVectors"));
@@ -119,9 +119,9 @@ public class TweetNaiveSearcher {
 
 			printMemoryUsage(true);
 
-			Query q_long = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LONGITUDE.name,
+			Query q_long = NumericRangeQuery.newDoubleRange(StatusField.LONGITUDE.name,
 					new Double(longitude[city] - 0.05), new Double(longitude[city] + 0.05), true, true);
-			Query q_lat = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LATITUDE.name,
+			Query q_lat = NumericRangeQuery.newDoubleRange(StatusField.LATITUDE.name,
 					new Double(latitude[city] - 0.05), new Double(latitude[city] + 0.05), true, true);
 
 			BooleanQuery bq = new BooleanQuery();
@@ -145,12 +145,12 @@ public class TweetNaiveSearcher {
 
 				d = searcher.doc(docId);
 
-				rawTextFout.write(d.get(TweetStreamReader.StatusField.TEXT.name).replaceAll("[\\r\\n]+", " "));
+				rawTextFout.write(d.get(StatusField.TEXT.name).replaceAll("[\\r\\n]+", " "));
 				rawTextFout.newLine();
 				rawTextFout.flush();
 				docCount += 1;
 
-				Terms terms = reader.getTermVector(docId, TweetStreamReader.StatusField.TEXT.name);
+				Terms terms = reader.getTermVector(docId, StatusField.TEXT.name);
 				if (terms != null && terms.size() > 0) {
 					TermsEnum termsEnum = terms.iterator(); // access the terms
 															// for this field
@@ -54,9 +54,10 @@ import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 
-import io.anserini.index.IndexTweets;
 import io.anserini.nrts.TweetSearcher;
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import twitter4j.TwitterException;
 
 class TweetPlaceNaiveSearcher {
@@ -163,7 +164,7 @@ class TweetPlaceNaiveSearcher {
 
     IndexSearcher searcher = new IndexSearcher(reader);
     System.out.println("The total number of docs indexed "
-        + searcher.collectionStatistics(TweetStreamReader.StatusField.TEXT.name).docCount());
+        + searcher.collectionStatistics(StatusField.TEXT.name).docCount());
 
     BufferedWriter goldFout = new BufferedWriter(new FileWriter("clusteringDataset/gold_standard"));
     BufferedWriter docVectorsFout = new BufferedWriter(new FileWriter("clusteringDataset/docVectorsTF"));
@@ -194,9 +195,9 @@ class TweetPlaceNaiveSearcher {
 
       printMemoryUsage(true);
 
-      Query q_long = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LONGITUDE.name,
+      Query q_long = NumericRangeQuery.newDoubleRange(StatusField.LONGITUDE.name,
           new Double(longitude[city] - 0.05), new Double(longitude[city] + 0.05), true, true);
-      Query q_lat = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LATITUDE.name,
+      Query q_lat = NumericRangeQuery.newDoubleRange(StatusField.LATITUDE.name,
           new Double(latitude[city] - 0.05), new Double(latitude[city] + 0.05), true, true);
 
       BooleanQuery bqCityName = new BooleanQuery();
@@ -236,29 +237,30 @@ class TweetPlaceNaiveSearcher {
 
         System.out.println("City " + cityName[city] + " " + collector.getTotalHits() + " hits.");
 
-        HashMap<String, Integer> hasHit = new HashMap<String, Integer>();
+        LongOpenHashSet hasHit = new LongOpenHashSet();
+        StatusColumn ids = new StatusColumn(reader, StatusField.ID);
         int dupcount = 0;
         for (int i = 0; i < hits.length; ++i) {
           int docId = hits[i].doc;
           Document d;
 
-          d = searcher.doc(docId);
-          if (hasHit.containsKey(d.get(TweetStreamReader.StatusField.ID.name))) {
+          if (!hasHit.add(ids.getLong(docId))) {
             System.out.println("Hit once! Duplicate bad");
             dupcount += 1;
-          } else
-            hasHit.put(TweetStreamReader.StatusField.ID.name, 0);
+          }
+
+          d = searcher.doc(docId);
 
-          if (userIDList.contains(d.get(IndexTweets.StatusField.USER_ID.name))) {
-            userIDList.remove(d.get(IndexTweets.StatusField.USER_ID.name));
-            rawTextFout.write(d.get(IndexTweets.StatusField.TEXT.name).replaceAll("[\\r\\n]+", " "));
+          if (userIDList.contains(d.get(StatusField.USER_ID.name))) {
+            userIDList.remove(d.get(StatusField.USER_ID.name));
+            rawTextFout.write(d.get(StatusField.TEXT.name).replaceAll("[\\r\\n]+", " "));
             rawTextFout.newLine();
             rawTextFout.flush();
             docCount += 1;
 
             HashMap<String, Integer> textFieldTerms = new HashMap<String, Integer>();
             List<String> fields = new ArrayList<String>(
-                Arrays.asList(IndexTweets.StatusField.TEXT.name, IndexTweets.StatusField.USER_DESCRIPTION.name));
+                Arrays.asList(StatusField.TEXT.name, StatusField.USER_DESCRIPTION.name));
             for (String field : fields) {
               Terms terms = reader.getTermVector(docId, field);
               if (terms != null && terms.size() > 0) {
@@ -310,7 +312,7 @@ class TweetPlaceNaiveSearcher {
 
             // System.out.println(entriesSortedByValues(map));
 
-            Term t2 = new Term("userBackground", d.get(IndexTweets.StatusField.USER_ID.name));
+            Term t2 = new Term("userBackground", d.get(StatusField.USER_ID.name));
             TermQuery tqnew = new TermQuery(t2);
             TopScoreDocCollector collector2 = TopScoreDocCollector.create(1);
             searcher.search(tqnew, collector2);
@@ -378,7 +380,7 @@ class TweetPlaceNaiveSearcher {
 
             }
 
-            fields = new ArrayList<String>(Arrays.asList(IndexTweets.StatusField.USER_URL.name, "tweetOutlinkDomain"));
+            fields = new ArrayList<String>(Arrays.asList(StatusField.USER_URL.name, "tweetOutlinkDomain"));
             for (String field : fields) {
 
               if (d.get(field) != null) {
@@ -408,7 +410,7 @@ class TweetPlaceNaiveSearcher {
               }
             }
 
-            fields = new ArrayList<String>(Arrays.asList(IndexTweets.StatusField.USER_LOCATION.name));
+            fields = new ArrayList<String>(Arrays.asList(StatusField.USER_LOCATION.name));
             for (String field : fields) {
               if (d.get(field) != null) {
                 String thisTerm = field + ":" + d.get(field);
@@ -437,7 +439,7 @@ class TweetPlaceNaiveSearcher {
               docVectorsBinarySmoothingFout[l].flush();
             }
 
-            userIDFout.write(d.get(IndexTweets.StatusField.USER_ID.name));
+            userIDFout.write(d.get(StatusField.USER_ID.name));
             userIDFout.newLine();
             userIDFout.flush();
 
@@ -17,21 +17,10 @@ import org.apache.commons.cli.Options;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleField;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.LongField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.document.Field.Store;
-import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
-import org.apache.lucene.search.NumericRangeQuery;
-import org.apache.lucene.search.Query;
+import org.apache.lucene.index.TrackingIndexWriter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.SimpleFSDirectory;
 
@@ -39,7 +28,10 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import io.anserini.document.twitter.Status;
+import io.anserini.index.twitter.BatchedDeletes;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.index.twitter.TweetAnalyzer;
+import io.anserini.index.twitter.TweetDocumentBuilder;
 import io.anserini.util.LatLng;
 import twitter4j.RawStreamListener;
 import twitter4j.TwitterException;
@@ -61,21 +53,6 @@ public class TweetStreamReader {
 	static int geoTaggedTweetCount = 0;
 	static int geoRecognizedTweetCount = 0;
 
-	public static enum StatusField {
-		ID("id"), SCREEN_NAME("screen_name"), EPOCH("epoch"), TEXT("text"), LANG("lang"), IN_REPLY_TO_STATUS_ID(
-				"in_reply_to_status_id"), IN_REPLY_TO_USER_ID("in_reply_to_user_id"), FOLLOWERS_COUNT(
-						"followers_count"), FRIENDS_COUNT("friends_count"), STATUSES_COUNT(
-								"statuses_count"), RETWEETED_STATUS_ID("retweeted_status_id"), RETWEETED_USER_ID(
-										"retweeted_user_id"), RETWEET_COUNT("retweet_count"), LATITUDE(
-												"latitude"), LONGITUDE("longitude"), PLACE("place");
-
-		public final String name;
-
-		StatusField(String s) {
-			name = s;
-		}
-	};
-
 	private static Map<String, LatLng> cityCenter = new HashMap<String, LatLng>() {
 		{
 			put("NYC", new LatLng(40.7141667, -74.0063889));
@@ -123,12 +100,12 @@ public class TweetStreamReader {
 			System.exit(-1);
 		}
 
-		final FieldType textOptions = new FieldType();
-		// textOptions.setIndexed(true);
-		textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-		textOptions.setStored(true);
-		textOptions.setTokenized(true);
-		textOptions.setStoreTermVectors(true);
+		final ThreadLocal<TweetDocumentBuilder> builders = new ThreadLocal<TweetDocumentBuilder>() {
+			@Override
+			protected TweetDocumentBuilder initialValue() {
+				return new TweetDocumentBuilder(true, true);
+			}
+		};
 
 		index = new SimpleFSDirectory(Paths.get(cmdline.getOptionValue(INDEX_OPTION)));
 		IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
@@ -137,6 +114,8 @@ public class TweetStreamReader {
 
 		System.out.println("Initial docs in the index " + indexWriter.numDocs());
 
+		final BatchedDeletes deletes = new BatchedDeletes(new TrackingIndexWriter(indexWriter), StatusField.ID.name);
+
 		final TwitterStream twitterStream = new TwitterStreamFactory().getInstance();
 
 		File dir = new File(cmdline.getOptionValue(RAW_OPTION));
@@ -160,6 +139,7 @@ public class TweetStreamReader {
 				System.out.println("Geotagged tweet count " + geoTaggedTweetCount);
 				System.out.println("Geo recognized tweet count " + geoRecognizedTweetCount);
 				try {
+					deletes.close();
 					indexWriter.close();
 				} catch (IOException e) {
 					// TODO Auto-generated catch block
@@ -187,8 +167,7 @@ public class TweetStreamReader {
 						JsonObject obj = (JsonObject) JSON_PARSER.parse(rawJSON);
 						if (obj.has("delete")) {
 							long id = obj.getAsJsonObject("delete").getAsJsonObject("status").get("id").getAsLong();
-							Query q = NumericRangeQuery.newLongRange(StatusField.ID.name, id, id, true, true);
-							indexWriter.deleteDocuments(q);
+							deletes.delete(id);
 						}
 					} catch (Exception e) {
 						// TODO Auto-generated catch block
@@ -218,50 +197,8 @@ public class TweetStreamReader {
 
 				}
 
-				Document doc = new Document();
-				doc.add(new LongField(StatusField.ID.name, status.getId(), Field.Store.YES));
-				doc.add(new LongField(StatusField.EPOCH.name, status.getEpoch(), Field.Store.YES));
-				doc.add(new TextField(StatusField.SCREEN_NAME.name, status.getScreenname(), Store.YES));
-
-				doc.add(new Field(StatusField.TEXT.name, status.getText(), textOptions));
-
-				doc.add(new IntField(StatusField.FRIENDS_COUNT.name, status.getFollowersCount(), Store.YES));
-				doc.add(new IntField(StatusField.FOLLOWERS_COUNT.name, status.getFriendsCount(), Store.YES));
-				doc.add(new IntField(StatusField.STATUSES_COUNT.name, status.getStatusesCount(), Store.YES));
-
-				long inReplyToStatusId = status.getInReplyToStatusId();
-				if (inReplyToStatusId > 0) {
-					// System.out.println("Reply w.r.t " +
-					// status.getInReplyToStatusId());
-					doc.add(new LongField(StatusField.IN_REPLY_TO_STATUS_ID.name, inReplyToStatusId, Field.Store.YES));
-					doc.add(new LongField(StatusField.IN_REPLY_TO_USER_ID.name, status.getInReplyToUserId(),
-							Field.Store.YES));
-				}
-
-				doc.add(new DoubleField(StatusField.LONGITUDE.name, status.getLongitude(), Store.YES));
-				doc.add(new DoubleField(StatusField.LATITUDE.name, status.getlatitude(), Store.YES));
-				if(status.getPlace()!=null){
-					doc.add(new StringField(StatusField.PLACE.name, status.getPlace(), Store.YES));
-				}
-
-				String lang = status.getLang();
-				if (!lang.equals("unknown")) {
-					doc.add(new TextField(StatusField.LANG.name, status.getLang(), Store.YES));
-				}
-
-				long retweetStatusId = status.getRetweetedStatusId();
-				if (retweetStatusId > 0) {
-					doc.add(new LongField(StatusField.RETWEETED_STATUS_ID.name, retweetStatusId, Field.Store.YES));
-					doc.add(new LongField(StatusField.RETWEETED_USER_ID.name, status.getRetweetedUserId(),
-							Field.Store.YES));
-					doc.add(new IntField(StatusField.RETWEET_COUNT.name, status.getRetweetCount(), Store.YES));
-					if (status.getRetweetCount() < 0 || status.getRetweetedStatusId() < 0) {
-						System.err.println("Error parsing retweet fields of " + status.getId());
-					}
-				}
-
 				try {
-					indexWriter.addDocument(doc);
+					indexWriter.addDocument(builders.get().build(status));
 					jsonFout.write(rawJSON);
 					jsonFout.newLine();
 					tweetCount++;
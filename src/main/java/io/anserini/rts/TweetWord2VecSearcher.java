@@ -42,7 +42,7 @@ import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import io.anserini.nrts.TweetSearcher;
-import io.anserini.nrts.TweetStreamIndexer.StatusField;
+import io.anserini.index.twitter.StatusField;
 import twitter4j.TwitterException;
 
 public class TweetWord2VecSearcher {
@@ -98,7 +98,7 @@ public class TweetWord2VecSearcher {
 
 		IndexSearcher searcher = new IndexSearcher(reader);
 		System.out.println("The total number of docs indexed "
-				+ searcher.collectionStatistics(TweetStreamReader.StatusField.TEXT.name).docCount());
+				+ searcher.collectionStatistics(StatusField.TEXT.name).docCount());
 
 		BufferedWriter goldFout = new BufferedWriter(new FileWriter("clusteringDataset/gold_standard"));
 		BufferedWriter docVectorsFout = new BufferedWriter(new FileWriter("clusteringDataset/docVectors"));
@@ -106,9 +106,9 @@ public class TweetWord2VecSearcher {
 
 		for (int city = 0; city < cityName.length; city++) {
 			// Pittsburgh's coordinate -79.976389, 40.439722
-			Query q_long = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LONGITUDE.name,
+			Query q_long = NumericRangeQuery.newDoubleRange(StatusField.LONGITUDE.name,
 					new Double(longitude[city] - 0.05), new Double(longitude[city] + 0.05), true, true);
-			Query q_lat = NumericRangeQuery.newDoubleRange(TweetStreamReader.StatusField.LATITUDE.name,
+			Query q_lat = NumericRangeQuery.newDoubleRange(StatusField.LATITUDE.name,
 					new Double(latitude[city] - 0.05), new Double(latitude[city] + 0.05), true, true);
 
 			BooleanQuery bq = new BooleanQuery();
@@ -132,12 +132,12 @@ public class TweetWord2VecSearcher {
 
 				d = searcher.doc(docId);
 
-				// rawTextFout.write(d.get(TweetStreamReader.StatusField.TEXT.name).replaceAll("[\\r\\n]+",
+				// rawTextFout.write(d.get(StatusField.TEXT.name).replaceAll("[\\r\\n]+",
 				// " "));
 				// rawTextFout.newLine();
 				docCount += 1;
 
-				Terms terms = reader.getTermVector(docId, TweetStreamReader.StatusField.TEXT.name);
+				Terms terms = reader.getTermVector(docId, StatusField.TEXT.name);
 				List<String> termList = new ArrayList<String>();
 				if (terms != null && terms.size() > 0) {
 					TermsEnum termsEnum = terms.iterator(); // access the terms
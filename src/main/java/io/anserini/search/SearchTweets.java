@@ -17,7 +17,8 @@ package io.anserini.search;
  */
 
 import io.anserini.index.IndexTweets;
-import io.anserini.index.IndexTweets.StatusField;
+import io.anserini.index.twitter.StatusColumn;
+import io.anserini.index.twitter.StatusField;
 import io.anserini.ltr.*;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.ltr.feature.base.MatchingTermCount;
@@ -129,6 +130,9 @@ public class SearchTweets {
       cascade.add(new TweetsLtrDataGenerator(out, qrels, extractorChain));
     }
 
+    // Run ids and the retweet filter come from DocValues; only the feature extractors need the stored documents.
+    boolean loadDocuments = searchArgs.dumpFeatures || (!searchArgs.model.isEmpty() && searchArgs.extractors != null);
+
     MicroblogTopicSet topics = MicroblogTopicSet.fromFile(new File(searchArgs.topics));
 
     PrintStream out = new PrintStream(new FileOutputStream(new File(searchArgs.output)));
@@ -148,12 +152,13 @@ public class SearchTweets {
 
       RerankerContext context = new RerankerContext(searcher, query, topic.getId(), topic.getQuery(),
          queryTokens, StatusField.TEXT.name, filter);
-      ScoredDocuments docs = cascade.run(ScoredDocuments.fromTopDocs(rs, searcher), context);
+      ScoredDocuments docs = cascade.run(ScoredDocuments.fromTopDocs(rs, searcher, loadDocuments), context);
 
+      StatusColumn ids = context.getColumn(StatusField.ID);
       for (int i=0; i<docs.documents.length; i++) {
         String qid = topic.getId().replaceFirst("^MB0*", "");
         out.println(String.format("%s Q0 %s %d %f %s", qid,
-            docs.documents[i].getField(StatusField.ID.name).numericValue(), (i+1), docs.scores[i], searchArgs.runtag));
+            ids.getLong(docs.ids[i]), (i+1), docs.scores[i], searchArgs.runtag));
       }
       long qtime = (System.nanoTime()-curQueryTime)/1000000;
       LOG.info("Query " + topic.getId() + " (elapsed time = " + qtime + "ms)");
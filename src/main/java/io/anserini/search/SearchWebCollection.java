@@ -17,6 +17,7 @@ package io.anserini.search;
  * limitations under the License.
  */
 
+import io.anserini.index.IndexWebCollection;
 import io.anserini.ltr.WebCollectionLtrDataGenerator;
 import io.anserini.ltr.feature.FeatureExtractors;
 import io.anserini.rerank.IdentityReranker;
@@ -33,6 +34,7 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -58,6 +60,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -86,7 +89,22 @@ public final class SearchWebCollection implements Closeable {
       throw new IllegalArgumentException(indexDir + " does not exist or is not a directory.");
     }
 
-    this.reader = DirectoryReader.open(FSDirectory.open(indexPath));
+    Directory dir = FSDirectory.open(indexPath);
+    if (DirectoryReader.indexExists(dir)) {
+      this.reader = DirectoryReader.open(dir);
+      return;
+    }
+
+    // a sharded build that was not merged: search all shards as one index
+    List<IndexReader> shards = new ArrayList<>();
+    for (int k = 0; Files.isDirectory(IndexWebCollection.shardPath(indexPath, k)); k++)
+      shards.add(DirectoryReader.open(FSDirectory.open(IndexWebCollection.shardPath(indexPath, k))));
+
+    if (shards.isEmpty())
+      throw new IllegalArgumentException(indexDir + " contains neither an index nor shards.");
+
+    LOG.info("Searching " + shards.size() + " shards under " + indexDir);
+    this.reader = new MultiReader(shards.toArray(new IndexReader[shards.size()]), true);
   }
 
   @Override
@@ -0,0 +1,190 @@
+package io.anserini.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Drop-in replacement for {@link GZIPInputStream} that inflates on a dedicated thread, a few chunks
+ * ahead of the reader, so that decompression overlaps with whatever the caller does with the bytes
+ * (WARC framing, JSON or HTML parsing). Multi-member files are handled exactly as by
+ * <code>GZIPInputStream</code>.
+ *
+ * <p>Inflated chunks are recycled through a fixed pool, so memory per open stream is bounded by
+ * <code>chunks * chunkSize</code>.</p>
+ */
+public class ReadAheadGZIPInputStream extends InputStream {
+
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 18; // 256K
+  public static final int DEFAULT_CHUNKS = 4;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final class Chunk {
+    final byte[] data;
+    int length;
+    IOException error;
+
+    Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  // marks the end of the inflated data
+  private static final Chunk EOF = new Chunk(new byte[0]);
+
+  private final GZIPInputStream in;
+  private final BlockingQueue<Chunk> free;
+  private final BlockingQueue<Chunk> full;
+  private final Thread inflater;
+
+  private Chunk current;
+  private int position;
+  private boolean closed = false;
+
+  public ReadAheadGZIPInputStream(InputStream in) throws IOException {
+    this(in, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+  }
+
+  public ReadAheadGZIPInputStream(InputStream in, int chunkSize, int chunks) throws IOException {
+    // opened here so that a bad header fails in the caller, as with GZIPInputStream
+    this.in = new GZIPInputStream(in, chunkSize);
+
+    this.free = new ArrayBlockingQueue<>(chunks);
+    this.full = new ArrayBlockingQueue<>(chunks + 1);
+    for (int i = 0; i < chunks; i++)
+      free.add(new Chunk(new byte[chunkSize]));
+
+    this.inflater = new Thread("inflater-" + THREAD_COUNT.incrementAndGet()) {
+      @Override
+      public void run() {
+        inflate();
+      }
+    };
+    this.inflater.setDaemon(true);
+    this.inflater.start();
+  }
+
+  private void inflate() {
+    try {
+      while (true) {
+        Chunk chunk = free.take();
+        chunk.length = 0;
+        try {
+          // fill the whole chunk, so that the reader is handed few large pieces
+          while (chunk.length < chunk.data.length) {
+            int n = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+            if (n < 0)
+              break;
+            chunk.length += n;
+          }
+        } catch (IOException ioe) {
+          chunk.error = ioe;
+          full.put(chunk);
+          return;
+        }
+
+        if (chunk.length > 0)
+          full.put(chunk);
+        if (chunk.length < chunk.data.length) {
+          full.put(EOF);
+          return;
+        }
+      }
+    } catch (InterruptedException ie) {
+      // closed by the reader
+    }
+  }
+
+  /**
+   * Makes sure there are bytes to read in the current chunk; returns false at the end of the stream.
+   */
+  private boolean advance() throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+    if (current != null && current.error != null)
+      throw new IOException("Error inflating stream", current.error);
+
+    if (current != null && position < current.length)
+      return true;
+    if (current == EOF)
+      return false;
+
+    if (current != null)
+      free.add(current);
+
+    try {
+      current = full.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    position = 0;
+
+    if (current.error != null)
+      throw new IOException("Error inflating stream", current.error);
+    return current != EOF;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!advance())
+      return -1;
+    return current.data[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    if (!advance())
+      return -1;
+
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current.data, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return current == null || current == EOF ? 0 : current.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+
+    inflater.interrupt();
+    try {
+      inflater.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } finally {
+      in.close();
+    }
+  }
+}
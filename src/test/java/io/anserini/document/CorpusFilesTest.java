@@ -0,0 +1,106 @@
+package io.anserini.document;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class CorpusFilesTest {
+
+  private static void write(Path root, String name, int size) throws IOException {
+    Path file = root.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[size]);
+  }
+
+  private static Path corpus() throws IOException {
+    Path root = Files.createTempDirectory("corpus");
+    write(root, "a.gz", 10);
+    write(root, "2013-02/b.gz", 30);
+    write(root, "2013-02/deep/er/c.gz", 20);
+    write(root, "2013-03/d.gz", 20);
+    write(root, "2013-03/notes.txt", 100);
+    write(root, "OtherData/e.gz", 50);
+    return root;
+  }
+
+  private static List<String> names(Path root, List<Path> files) {
+    List<String> names = new ArrayList<>();
+    for (Path file : files)
+      names.add(root.relativize(file).toString().replace('\\', '/'));
+    return names;
+  }
+
+  @Test
+  public void testRecursiveLargestFirst() throws Exception {
+    Path root = corpus();
+    List<Path> files = new CorpusFiles(root, CorpusFiles.suffix(".gz")).skipDirectory("OtherData").setThreads(2)
+        .discover();
+    assertEquals(Arrays.asList("2013-02/b.gz", "2013-02/deep/er/c.gz", "2013-03/d.gz", "a.gz"), names(root, files));
+  }
+
+  @Test
+  public void testPatterns() throws Exception {
+    Path root = corpus();
+
+    // globs match the relative path or the file name
+    assertEquals(Arrays.asList("2013-02/b.gz", "2013-02/deep/er/c.gz"),
+        names(root, new CorpusFiles(root, CorpusFiles.matcher("glob:2013-02/**.gz")).discover()));
+    assertEquals(Arrays.asList("OtherData/e.gz", "2013-02/b.gz", "2013-02/deep/er/c.gz", "2013-03/d.gz", "a.gz"),
+        names(root, new CorpusFiles(root, CorpusFiles.matcher("glob:*.gz")).discover()));
+    assertEquals(Arrays.asList("2013-03/d.gz", "a.gz"),
+        names(root, new CorpusFiles(root, CorpusFiles.matcher("regex:[ad]\\.gz")).discover()));
+
+    // substrings, as in collection patterns of the tweet tools
+    assertEquals(Arrays.asList("2013-03/notes.txt", "2013-03/d.gz", "a.gz"),
+        names(root, new CorpusFiles(root, CorpusFiles.matcher("2013-03:a.")).discover()));
+    assertEquals(Arrays.asList("2013-03/d.gz", "a.gz"),
+        names(root, new CorpusFiles(root,
+            CorpusFiles.and(CorpusFiles.suffix(".gz"), CorpusFiles.matcher("2013-03:a."))).discover()));
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    Path root = corpus();
+    List<Path> files = new CorpusFiles(root, CorpusFiles.suffix(".gz"))
+        .setFilter(new DirectoryStream.Filter<Path>() {
+          @Override
+          public boolean accept(Path file) {
+            return !file.getFileName().toString().startsWith("b");
+          }
+        }).discover();
+    assertEquals(Arrays.asList("OtherData/e.gz", "2013-02/deep/er/c.gz", "2013-03/d.gz", "a.gz"), names(root, files));
+  }
+
+  @Test
+  public void testStreaming() throws Exception {
+    Path root = corpus();
+    BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
+    assertEquals(4, new CorpusFiles(root, CorpusFiles.suffix(".gz")).skipDirectory("OtherData").setThreads(2)
+        .discover(queue, -1));
+    List<String> names = names(root, new ArrayList<>(queue));
+    Collections.sort(names);
+    assertEquals(Arrays.asList("2013-02/b.gz", "2013-02/deep/er/c.gz", "2013-03/d.gz", "a.gz"), names);
+
+    // the walk stops at the limit
+    queue.clear();
+    assertEquals(2, new CorpusFiles(root, CorpusFiles.suffix(".gz")).setThreads(2).discover(queue, 2));
+    assertEquals(2, queue.size());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CorpusFilesTest.class);
+  }
+}
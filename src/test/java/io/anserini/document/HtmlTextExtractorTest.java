@@ -0,0 +1,101 @@
+package io.anserini.document;
+
+import static org.junit.Assert.assertEquals;
+
+import io.anserini.util.ByteBufferInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+
+public class HtmlTextExtractorTest {
+  private static final String[] PAGES = {
+      "<html><head><title>Hello  World</title></head><body><p>Some <b>bold</b> text.</p>\n" +
+          "<p>Next &amp; last para</p></body></html>",
+      "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=utf-8>\n<title> T </title>\n" +
+          "<script>var x = '<p>no</p>';</script>\n<style>p { color: red }</style>\n</head>\n<body>\n" +
+          "<div id=\"a\" class='b>c'>One<br>Two<br/>Three</div>\n<!-- comment <p>hidden</p> -->\n" +
+          "<ul><li>a</li><li>b</li></ul>\n<pre>  keep\n   spaces  </pre>\n" +
+          "<p>caf&eacute; &#233; &#xE9; &copy 2015 &unknown; a < b</p>\n</body>\n</html>",
+      "<title>Only title</title>hello",
+      "plain text   with   spaces",
+      "<table><tr><td>1</td><td>2</td></tr></table><textarea>  a  b </textarea>",
+      "<p>x<span>y</span> z</p>",
+      "<body><h1>Head</h1>\n\n<a href=\"/x?a=1&b=2\">link</a>\n<img src=x alt=\"pic\"> " +
+          "<SCRIPT type=\"text/javascript\">document.write('</p>')</SCRIPT>after</body>",
+      "<html><body><noscript>Enable JS</noscript><iframe src=x>frame text</iframe>" +
+          "<p>&lt;tag&gt; &quot;q&quot; &#39;</p></body></html>",
+      ""
+  };
+
+  @Test
+  public void testMatchesJsoup() {
+    HtmlTextExtractor extractor = new HtmlTextExtractor();
+    for (String page : PAGES) {
+      assertEquals(Jsoup.parse(page).text(), extractor.text(page));
+    }
+  }
+
+  @Test
+  public void testMatchesJsoupOnWarcRecords() throws Exception {
+    StringBuilder raw = new StringBuilder();
+    for (int i = 0; i < PAGES.length; i++) {
+      String body = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 0\r\n\r\n" + PAGES[i];
+      raw.append("WARC/1.0\r\nWARC-Type: response\r\nWARC-TREC-ID: clueweb12-0000tw-00-0000").append(i)
+          .append("\r\nContent-Length: ").append(body.getBytes(StandardCharsets.UTF_8).length)
+          .append("\r\n\r\n").append(body).append("\r\n\r\n");
+    }
+
+    WarcRecordReader reader = new WarcRecordReader(Channels.newChannel(
+        new ByteArrayInputStream(raw.toString().getBytes(StandardCharsets.UTF_8))), Collection.CW12);
+    HtmlTextExtractor extractor = new HtmlTextExtractor();
+    int records = 0;
+    WarcRecordReader.Record record;
+    while ((record = reader.next()) != null) {
+      String content = record.content();
+      String expected = Jsoup.parse(content).text();
+      assertEquals(record.id(), expected, extractor.text(content));
+      // straight from the record's bytes
+      assertEquals(record.id(), expected, extractor.text(record.payload(), StandardCharsets.UTF_8));
+      assertEquals(record.id(), expected,
+          Jsoup.parse(new ByteBufferInputStream(record.payload()), StandardCharsets.UTF_8.name(), "").text());
+      records++;
+    }
+    reader.close();
+    assertEquals(PAGES.length, records);
+  }
+
+  @Test
+  public void testReuse() {
+    HtmlTextExtractor extractor = new HtmlTextExtractor(4);
+    assertEquals("a long first page", extractor.text("<p>a long first page</p>"));
+    assertEquals("b", extractor.text("<p>b</p>"));
+
+    StringBuilder out = new StringBuilder("stale");
+    extractor.extract("<div>fresh</div>", out);
+    assertEquals("fresh", out.toString());
+  }
+
+  @Test
+  public void testBytes() {
+    HtmlTextExtractor extractor = new HtmlTextExtractor();
+    for (String page : PAGES) {
+      assertEquals(Jsoup.parse(page).text(),
+          extractor.text(ByteBuffer.wrap(page.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+    // malformed input is replaced, as when decoding into a String
+    byte[] malformed = { '<', 'p', '>', 'a', (byte) 0xC3, '<', '/', 'p', '>' };
+    assertEquals(Jsoup.parse(new String(malformed, StandardCharsets.UTF_8)).text(),
+        extractor.text(ByteBuffer.wrap(malformed), StandardCharsets.UTF_8));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HtmlTextExtractorTest.class);
+  }
+}
@@ -0,0 +1,104 @@
+package io.anserini.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class WarcRecordReaderTest {
+  private static final String HTML = "<html><body>héllo wörld</body></html>";
+  private static final String HTTP = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 40\r\n\r\n";
+
+  private static String record(String version, String type, String id, String body) {
+    int length = body.getBytes(StandardCharsets.UTF_8).length;
+    return version + "\r\n" +
+        "WARC-Type: " + type + "\r\n" +
+        (id == null ? "" : "WARC-TREC-ID: " + id + "\r\n") +
+        "WARC-Target-URI: http://example.com/" + id + "\r\n" +
+        "content-length: " + length + "\r\n" +
+        "\r\n" + body + "\r\n\r\n";
+  }
+
+  private static WarcRecordReader reader(String raw, Collection collection, int bufferSize) {
+    return new WarcRecordReader(Channels.newChannel(new ByteArrayInputStream(raw.getBytes(StandardCharsets.UTF_8))),
+        collection, bufferSize);
+  }
+
+  @Test
+  public void testClueWeb12() throws Exception {
+    String raw = record("WARC/1.0", "warcinfo", null, "software: test") +
+        record("WARC/1.0", "response", "clueweb12-0000tw-00-00001", HTTP + HTML) +
+        record("WARC/1.0", "response", "clueweb12-0000tw-00-00002", HTTP + "\r\nnot markup " + HTML);
+
+    // a tiny window forces refills, compaction and growth in the middle of headers and bodies
+    for (int bufferSize : new int[] { 8, 64, WarcRecordReader.DEFAULT_BUFFER_SIZE }) {
+      WarcRecordReader reader = reader(raw, Collection.CW12, bufferSize);
+
+      WarcRecordReader.Record record = reader.next();
+      assertEquals("warcinfo", record.type());
+      assertNull(record.id());
+
+      record = reader.next();
+      assertEquals("response", record.type());
+      assertEquals("clueweb12-0000tw-00-00001", record.id());
+      assertEquals("http://example.com/clueweb12-0000tw-00-00001", record.url());
+      assertEquals(HTML, record.content());
+      assertEquals((HTTP + HTML).getBytes(StandardCharsets.UTF_8).length, record.body().remaining());
+
+      // ClueWeb12 content starts at the first '<' after the HTTP headers
+      record = reader.next();
+      assertEquals("clueweb12-0000tw-00-00002", record.id());
+      assertEquals(HTML, record.content());
+
+      assertNull(reader.next());
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testClueWeb09() throws Exception {
+    String raw = record("WARC/0.18", "response", "clueweb09-en0000-00-00001", HTTP + "\r\ntext " + HTML);
+
+    WarcRecordReader reader = reader(raw, Collection.CW09, 16);
+    WarcRecordReader.Record record = reader.next();
+    assertEquals("clueweb09-en0000-00-00001", record.id());
+    // ClueWeb09 content is everything after the HTTP Content-Length line
+    assertEquals("\r\n\r\ntext " + HTML, record.content());
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  @Test
+  public void testDetach() throws Exception {
+    String raw = record("WARC/1.0", "response", "a", HTTP + HTML) + record("WARC/1.0", "response", "b", HTTP + "<p/>");
+
+    WarcRecordReader reader = reader(raw, Collection.CW12, 8);
+    WarcRecordReader.Record first = reader.next().detach();
+    WarcRecordReader.Record second = reader.next();
+    assertEquals(HTML, first.content());
+    assertEquals("<p/>", second.content());
+    reader.close();
+  }
+
+  @Test
+  public void testSkipsGarbageAndTruncatedRecords() throws Exception {
+    String raw = "garbage\nmore garbage\r\n" + record("WARC/1.0", "response", "a", HTTP + HTML) +
+        "WARC/1.0\r\nWARC-Type: response\r\nContent-Length: 1000\r\n\r\n<p>cut";
+
+    WarcRecordReader reader = reader(raw, Collection.CW12, 32);
+    assertEquals("a", reader.next().id());
+    assertEquals("<p>cut", reader.next().content());
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(WarcRecordReaderTest.class);
+  }
+}
@@ -0,0 +1,151 @@
+package io.anserini.document.twitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class StatusArchiveTest {
+	private static final String USER = "\"user\":{\"id\":123,\"id_str\":\"123\",\"screen_name\":\"foo\","
+			+ "\"location\":\"Waterloo\",\"description\":null,\"url\":\"http://foo.com\","
+			+ "\"followers_count\":10,\"friends_count\":20,\"statuses_count\":30}";
+
+	private static final String[] TWEETS = {
+			"{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":300000000000000001,\"text\":\"hello\","
+					+ USER + ",\"place\":null,\"entities\":{\"urls\":[]},\"lang\":\"en\"}",
+			"{\"lang\":\"fr\",\"entities\":{\"urls\":[{\"expanded_url\":\"http://a.com/\"}]},"
+					+ "\"coordinates\":{\"type\":\"Point\",\"coordinates\":[-80.5,43.4]},"
+					+ "\"place\":{\"full_name\":\"Waterloo, Ontario\"}," + USER
+					+ ",\"in_reply_to_status_id\":\"99\",\"in_reply_to_user_id\":98,"
+					+ "\"text\":\"caf\\u00e9 \\ud83d\\ude00\",\"id\":299999999999999990,"
+					+ "\"created_at\":\"Fri Mar 29 11:03:41 +0000 2013\"}",
+			"{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":300000000000000005,\"text\":\"RT @bar: hi\","
+					+ USER + ",\"retweet_count\":\"100+\",\"retweeted_status\":{\"id\":30,\"user\":{\"id\":31}}}",
+	};
+
+	private static void assertSameStatus(Status expected, Status actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getEpoch(), actual.getEpoch());
+		assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+		assertEquals(expected.getUserid(), actual.getUserid());
+		assertEquals(expected.getScreenname(), actual.getScreenname());
+		assertEquals(expected.getText(), actual.getText());
+		assertEquals(expected.getLang(), actual.getLang());
+		assertEquals(expected.getPlace(), actual.getPlace());
+		assertEquals(expected.getInReplyToStatusId(), actual.getInReplyToStatusId());
+		assertEquals(expected.getInReplyToUserId(), actual.getInReplyToUserId());
+		assertEquals(expected.getRetweetedStatusId(), actual.getRetweetedStatusId());
+		assertEquals(expected.getRetweetedUserId(), actual.getRetweetedUserId());
+		assertEquals(expected.getRetweetCount(), actual.getRetweetCount());
+		assertEquals(expected.getFollowersCount(), actual.getFollowersCount());
+		assertEquals(expected.getFriendsCount(), actual.getFriendsCount());
+		assertEquals(expected.getStatusesCount(), actual.getStatusesCount());
+		assertEquals(expected.getlatitude(), actual.getlatitude(), 0.0);
+		assertEquals(expected.getLongitude(), actual.getLongitude(), 0.0);
+		assertEquals(expected.getUserLocation(), actual.getUserLocation());
+		assertEquals(expected.getUserDescription(), actual.getUserDescription());
+		assertEquals(expected.getUserURL(), actual.getUserURL());
+		assertArrayEquals(expected.getURLEntities(), actual.getURLEntities());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		List<Status> statuses = new ArrayList<Status>();
+		for (int i = 0; i < 10; i++) {
+			statuses.add(Status.fromJson(TWEETS[i % TWEETS.length]));
+		}
+
+		// several blocks, the last one partial
+		Path path = Files.createTempFile("statuses", StatusArchiveWriter.SUFFIX);
+		path.toFile().deleteOnExit();
+		try (StatusArchiveWriter writer = new StatusArchiveWriter(path, 4)) {
+			for (Status status : statuses) {
+				writer.add(status);
+			}
+			assertEquals(statuses.size(), writer.count());
+		}
+
+		StatusStream stream = new StatusArchiveReader(path.toFile());
+		for (Status status : statuses) {
+			assertSameStatus(status, stream.next());
+		}
+		assertNull(stream.next());
+		stream.close();
+	}
+
+	@Test
+	public void testRaw() throws Exception {
+		Path path = Files.createTempFile("statuses", StatusArchiveWriter.SUFFIX);
+		path.toFile().deleteOnExit();
+		try (StatusArchiveWriter writer = new StatusArchiveWriter(path)) {
+			for (String tweet : TWEETS) {
+				writer.add(Status.fromJson(tweet));
+			}
+		}
+
+		StatusStream stream = JsonStatusCorpusReader.openBlock(new File(path.toString()));
+		for (String tweet : TWEETS) {
+			assertSameStatus(Status.fromJson(tweet), Status.fromJson(stream.nextRaw()));
+		}
+		assertNull(stream.nextRaw());
+		stream.close();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		Path path = Files.createTempFile("statuses", StatusArchiveWriter.SUFFIX);
+		path.toFile().deleteOnExit();
+		new StatusArchiveWriter(path).close();
+
+		StatusStream stream = JsonStatusCorpusReader.openBlock(new File(path.toString()));
+		assertNull(stream.next());
+		stream.close();
+	}
+
+	@Test
+	public void testRawReadsSkipArchives() throws Exception {
+		Path dir = Files.createTempDirectory("corpus");
+		Path json = dir.resolve("a.json.gz");
+		try (Writer out = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(json)),
+				StandardCharsets.UTF_8)) {
+			for (String tweet : TWEETS) {
+				out.write(tweet + "\n");
+			}
+		}
+		Path archive = dir.resolve("b" + StatusArchiveWriter.SUFFIX);
+		try (StatusArchiveWriter writer = new StatusArchiveWriter(archive)) {
+			writer.add(Status.fromJson(TWEETS[0]));
+		}
+
+		JsonStatusCorpusReader corpus = new JsonStatusCorpusReader(dir.toFile());
+		int raw = 0;
+		while (corpus.nextRaw() != null) {
+			raw++;
+		}
+		corpus.close();
+		assertEquals(TWEETS.length, raw);
+
+		Files.delete(json);
+		Files.delete(archive);
+		Files.delete(dir);
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(StatusArchiveTest.class);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Twitter Tools
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.document.twitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+
+/**
+ * Compares the throughput of {@link Status#fromJson(String)} with the Gson tree
+ * parsing of {@link Status#fromJsonTree(String)} on the lines of a sample
+ * archive, which are read into memory first so that only parsing is timed.
+ */
+public class StatusParserBenchmark {
+
+	public static class Args {
+		@Option(name = "-input", metaVar = "[path]", required = true, usage = "directory with .gz status blocks")
+		public String input;
+
+		@Option(name = "-max", metaVar = "[number]", usage = "maximum number of lines to read")
+		public int max = 1000000;
+
+		@Option(name = "-iterations", metaVar = "[number]", usage = "number of timed passes per parser")
+		public int iterations = 5;
+	}
+
+	private interface Parser {
+		Status parse(String json);
+	}
+
+	private static final Parser STREAMING = new Parser() {
+		public Status parse(String json) {
+			return Status.fromJson(json);
+		}
+	};
+
+	private static final Parser TREE = new Parser() {
+		public Status parse(String json) {
+			return Status.fromJsonTree(json);
+		}
+	};
+
+	/**
+	 * Parses every line once, and returns a checksum of the ids so that the work
+	 * cannot be optimized away.
+	 */
+	private static long pass(Parser parser, List<String> lines) {
+		long checksum = 0;
+		for (String line : lines) {
+			Status status = parser.parse(line);
+			if (status != null) {
+				checksum += status.getId();
+			}
+		}
+		return checksum;
+	}
+
+	private static void run(String name, Parser parser, List<String> lines, int iterations) {
+		// one untimed pass to warm up the JIT
+		long checksum = pass(parser, lines);
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			checksum ^= pass(parser, lines);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("%-10s best of %d: %d ms, %.0f lines/s (checksum %d)", name, iterations,
+				best / 1000000, lines.size() / (best / 1e9), checksum));
+	}
+
+	public static void main(String[] argv) throws IOException {
+		Args args = new Args();
+		CmdLineParser parser = new CmdLineParser(args, ParserProperties.defaults().withUsageWidth(100));
+
+		try {
+			parser.parseArgument(argv);
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage(System.err);
+			System.exit(-1);
+		}
+
+		List<String> lines = new ArrayList<String>();
+		JsonStatusCorpusReader corpus = new JsonStatusCorpusReader(new File(args.input));
+		String line;
+		while (lines.size() < args.max && (line = corpus.nextRaw()) != null) {
+			lines.add(line);
+		}
+		corpus.close();
+
+		int statuses = 0, mismatches = 0;
+		for (String json : lines) {
+			Status tree = Status.fromJsonTree(json);
+			Status streaming = Status.fromJson(json);
+			if (tree != null) {
+				statuses++;
+			}
+			if ((tree == null) != (streaming == null) || (tree != null && tree.getId() != streaming.getId())) {
+				mismatches++;
+			}
+		}
+		System.out.println("Read " + lines.size() + " lines, " + statuses + " statuses, " + mismatches
+				+ " parsed differently");
+
+		run("tree", TREE, lines, args.iterations);
+		run("streaming", STREAMING, lines, args.iterations);
+	}
+}
@@ -0,0 +1,98 @@
+package io.anserini.document.twitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class StatusTest {
+	private static final String USER = "\"user\":{\"id\":123,\"id_str\":\"123\",\"screen_name\":\"foo\","
+			+ "\"location\":\"Waterloo\",\"description\":null,\"url\":\"http://foo.com\","
+			+ "\"followers_count\":10,\"friends_count\":20,\"statuses_count\":30,"
+			+ "\"entities\":{\"url\":{\"urls\":[{\"expanded_url\":\"http://not.this.one\"}]}}}";
+
+	private static final String[] TWEETS = {
+			// plain status
+			"{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":1,\"id_str\":\"1\",\"text\":\"hello\","
+					+ "\"in_reply_to_status_id\":null,\"in_reply_to_user_id\":null," + USER
+					+ ",\"geo\":null,\"coordinates\":null,\"place\":null,\"retweet_count\":0,"
+					+ "\"entities\":{\"hashtags\":[],\"urls\":[]},\"lang\":\"en\"}",
+			// reply with place, coordinates and urls, with fields in unusual order
+			"{\"lang\":\"fr\",\"entities\":{\"urls\":[{\"url\":\"http://t.co/a\",\"expanded_url\":\"http://a.com/\\\"x\\\"\"},"
+					+ "{\"expanded_url\":null}]},\"coordinates\":{\"type\":\"Point\",\"coordinates\":[-80.5,43.4]},"
+					+ "\"place\":{\"id\":\"x\",\"full_name\":\"Waterloo, Ontario\",\"bounding_box\":{\"coordinates\":[[[1,2]]]}},"
+					+ USER + ",\"in_reply_to_status_id\":\"99\",\"in_reply_to_user_id\":98,"
+					+ "\"text\":\"caf\\u00e9 \\\"quoted\\\"\\n\",\"id\":2,\"created_at\":\"Fri Mar 29 11:03:41 +0000 2013\"}",
+			// retweet, whose nested status must not leak into the outer fields
+			"{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":3,\"text\":\"RT @bar: hi\"," + USER
+					+ ",\"retweet_count\":\"100+\",\"retweeted_status\":{\"id\":30,\"text\":\"hi\",\"lang\":\"de\","
+					+ "\"user\":{\"id\":31,\"screen_name\":\"bar\"},\"coordinates\":{\"coordinates\":[1,2]}}}",
+			// retweet without a count
+			"{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":4,\"text\":\"RT\"," + USER
+					+ ",\"retweeted_status\":{\"id\":40,\"user\":{\"id\":41}}}",
+			// malformed entities, coordinates and date
+			"{\"created_at\":\"yesterday\",\"id\":5,\"text\":\"x\"," + USER
+					+ ",\"coordinates\":{\"coordinates\":[1]},\"entities\":{\"urls\":[\"http://a.com\"]},\"lang\":null}",
+	};
+
+	@Test
+	public void testMatchesTree() throws Exception {
+		for (String json : TWEETS) {
+			Status expected = Status.fromJsonTree(json);
+			Status actual = Status.fromJson(json);
+			assertNotNull(json, expected);
+			assertNotNull(json, actual);
+
+			assertEquals(json, expected.getId(), actual.getId());
+			assertEquals(json, expected.getText(), actual.getText());
+			assertEquals(json, expected.getScreenname(), actual.getScreenname());
+			assertEquals(json, expected.getUserid(), actual.getUserid());
+			assertEquals(json, expected.getCreatedAt(), actual.getCreatedAt());
+			assertEquals(json, expected.getEpoch(), actual.getEpoch());
+			assertEquals(json, expected.getLang(), actual.getLang());
+			assertEquals(json, expected.getPlace(), actual.getPlace());
+			assertEquals(json, expected.getInReplyToStatusId(), actual.getInReplyToStatusId());
+			assertEquals(json, expected.getInReplyToUserId(), actual.getInReplyToUserId());
+			assertEquals(json, expected.getRetweetedStatusId(), actual.getRetweetedStatusId());
+			assertEquals(json, expected.getRetweetedUserId(), actual.getRetweetedUserId());
+			assertEquals(json, expected.getRetweetCount(), actual.getRetweetCount());
+			assertEquals(json, expected.getlatitude(), actual.getlatitude(), 0);
+			assertEquals(json, expected.getLongitude(), actual.getLongitude(), 0);
+			assertEquals(json, expected.getFollowersCount(), actual.getFollowersCount());
+			assertEquals(json, expected.getFriendsCount(), actual.getFriendsCount());
+			assertEquals(json, expected.getStatusesCount(), actual.getStatusesCount());
+			assertEquals(json, expected.getUserLocation(), actual.getUserLocation());
+			assertEquals(json, expected.getUserDescription(), actual.getUserDescription());
+			assertEquals(json, expected.getUserURL(), actual.getUserURL());
+			assertArrayEquals(json, expected.getURLEntities(), actual.getURLEntities());
+		}
+	}
+
+	@Test
+	public void testSkipsNonStatuses() throws Exception {
+		assertNull(Status.fromJson("{}"));
+		assertNull(Status.fromJson("{\"delete\":{\"status\":{\"id\":1,\"user_id\":2}}}"));
+		assertNull(Status.fromJson("{\"text\":\"truncated\",\"id\":1,\"user\":{"));
+		assertNull(Status.fromJson("not json"));
+		assertNull(Status.fromJson("[1,2]"));
+		assertNull(Status.fromJson(TWEETS[0] + " {}"));
+	}
+
+	@Test
+	public void testKeepJson() throws Exception {
+		assertNull(Status.fromJson(TWEETS[0]).getJsonString());
+		assertNull(Status.fromJson(TWEETS[0]).getJsonObject());
+
+		Status status = Status.fromJson(TWEETS[0], true);
+		assertEquals(TWEETS[0], status.getJsonString());
+		assertEquals("hello", status.getJsonObject().get("text").getAsString());
+	}
+
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(StatusTest.class);
+	}
+}
@@ -0,0 +1,202 @@
+package io.anserini.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.anserini.document.Collection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.junit.Test;
+
+public class IndexWebCollectionTest {
+  private static final String HTTP = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n";
+
+  private static String record(String id, String html) {
+    String body = HTTP + html;
+    return "WARC/1.0\r\n" +
+        "WARC-Type: response\r\n" +
+        "WARC-TREC-ID: " + id + "\r\n" +
+        "WARC-Target-URI: http://example.com/" + id + "\r\n" +
+        "content-length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
+        "\r\n" + body + "\r\n\r\n";
+  }
+
+  /**
+   * Writes a gzipped ClueWeb12 file of <code>count</code> pages with ids <code>prefix-0</code> on.
+   */
+  private static void writeWarc(Path root, String name, String prefix, int count) throws IOException {
+    Path file = root.resolve(name);
+    Files.createDirectories(file.getParent());
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      for (int i = 0; i < count; i++)
+        out.write(record(prefix + "-" + i, "<html><body>page " + prefix + " " + i + "</body></html>")
+            .getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static Path corpus() throws IOException {
+    Path root = Files.createTempDirectory("warcs");
+    writeWarc(root, "00/a.warc.gz", "a", 25);
+    writeWarc(root, "00/b.warc.gz", "b", 25);
+    writeWarc(root, "01/c.warc.gz", "c", 25);
+    writeWarc(root, "01/d.warc.gz", "d", 25);
+    return root;
+  }
+
+  /**
+   * Returns the ids of the live documents of the index, failing on duplicates.
+   */
+  static Set<String> ids(Path index) throws IOException {
+    Set<String> ids = new HashSet<>();
+    try (Directory dir = FSDirectory.open(index); DirectoryReader reader = DirectoryReader.open(dir)) {
+      Bits live = MultiFields.getLiveDocs(reader);
+      for (int i = 0; i < reader.maxDoc(); i++) {
+        if (live == null || live.get(i))
+          assertTrue(ids.add(reader.document(i).get(IndexWebCollection.FIELD_ID)));
+      }
+    }
+    return ids;
+  }
+
+  private static IndexWebCollection indexer(Path docs, Path index) throws IOException {
+    IndexWebCollection indexer = new IndexWebCollection(docs.toString(), index.toString(), Collection.CW12);
+    indexer.setMetricsInterval(0);
+    return indexer;
+  }
+
+  @Test
+  public void testPipeline() throws Exception {
+    Path docs = corpus();
+
+    Path plain = Files.createTempDirectory("index");
+    assertEquals(100, indexer(docs, plain).indexWithThreads(2));
+
+    // queues of one item keep every stage blocked on the next, and batches straddle files
+    Path pipelined = Files.createTempDirectory("index");
+    IndexWebCollection indexer = indexer(docs, pipelined);
+    indexer.setPipeline(true);
+    indexer.setParseThreads(2);
+    indexer.setWriteThreads(2);
+    indexer.setRecordQueueSize(1);
+    indexer.setDocumentQueueSize(1);
+    indexer.setWriteBatchSize(3);
+    assertEquals(100, indexer.indexWithThreads(3));
+
+    assertEquals(100, ids(pipelined).size());
+    assertEquals(ids(plain), ids(pipelined));
+  }
+
+  @Test
+  public void testPipelineSkipsBadFiles() throws Exception {
+    Path docs = corpus();
+    Files.write(docs.resolve("01/bad.warc.gz"), "not gzip".getBytes(StandardCharsets.UTF_8));
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(docs.resolve("01/empty.warc.gz")))) {
+      out.write(record("empty-0", "<html><body> </body></html>").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the unreadable file and the empty page are left out, and the run completes
+    Path index = Files.createTempDirectory("index");
+    IndexWebCollection indexer = indexer(docs, index);
+    indexer.setPipeline(true);
+    indexer.setParseThreads(1);
+    indexer.setWriteThreads(1);
+    indexer.setDocumentQueueSize(2);
+    assertEquals(100, indexer.indexWithThreads(2));
+    assertEquals(100, ids(index).size());
+  }
+
+  private static Set<String> completedFiles(Path index) throws IOException {
+    try (Directory dir = FSDirectory.open(index); DirectoryReader reader = DirectoryReader.open(dir)) {
+      String manifest = reader.getIndexCommit().getUserData().get(IndexWebCollection.COMMIT_COMPLETED_FILES);
+      return new HashSet<>(Arrays.asList(manifest.split("\n")));
+    }
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    Path docs = corpus();
+    Files.write(docs.resolve("01/bad.warc.gz"), "not gzip".getBytes(StandardCharsets.UTF_8));
+
+    // the failed file is not recorded, so that a resumed run retries it
+    Path index = Files.createTempDirectory("index");
+    assertEquals(100, indexer(docs, index).indexWithThreads(2));
+    assertEquals(new HashSet<>(Arrays.asList("00/a.warc.gz", "00/b.warc.gz", "01/c.warc.gz", "01/d.warc.gz")),
+        completedFiles(index));
+
+    // as if the previous run had stopped with only one file recorded, but documents of the others in
+    try (Directory dir = FSDirectory.open(index);
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new EnglishAnalyzer())
+            .setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+      Map<String, String> commitData = new HashMap<>();
+      commitData.put(IndexWebCollection.COMMIT_COMPLETED_FILES, "00/a.warc.gz");
+      writer.setCommitData(commitData);
+      writer.commit();
+    }
+    writeWarc(docs, "02/e.warc.gz", "e", 10);
+
+    // the other files are indexed again, and their documents replace the ones in the index
+    IndexWebCollection indexer = indexer(docs, index);
+    indexer.setResume(true);
+    indexer.indexWithThreads(2);
+    Set<String> ids = ids(index);
+    assertEquals(110, ids.size());
+    assertTrue(ids.contains("b-0"));
+    assertTrue(ids.contains("e-9"));
+    assertEquals(new HashSet<>(Arrays.asList("00/a.warc.gz", "00/b.warc.gz", "01/c.warc.gz", "01/d.warc.gz",
+        "02/e.warc.gz")), completedFiles(index));
+  }
+
+  @Test
+  public void testShards() throws Exception {
+    Path docs = corpus();
+
+    Path merged = Files.createTempDirectory("index");
+    IndexWebCollection indexer = indexer(docs, merged);
+    indexer.setShards(3);
+    indexer.setMergeShards(true);
+    assertEquals(100, indexer.indexWithThreads(2));
+    assertEquals(100, ids(merged).size());
+    for (int k = 0; k < 3; k++)
+      assertFalse(Files.exists(IndexWebCollection.shardPath(merged, k)));
+
+    // one shard per run, as separate processes would build them, then merged on their own
+    Path index = Files.createTempDirectory("index");
+    int total = 0;
+    for (int k = 0; k < 3; k++) {
+      indexer = indexer(docs, index);
+      indexer.setShards(3);
+      indexer.setShard(k);
+      total += indexer.indexWithThreads(2);
+      assertTrue(Files.isDirectory(IndexWebCollection.shardPath(index, k)));
+    }
+    assertEquals(100, total);
+    assertEquals(100, IndexWebCollection.mergeShards(index, 3, true, new IndexWriterProfile()));
+    assertEquals(ids(merged), ids(index));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexWebCollectionTest.class);
+  }
+}
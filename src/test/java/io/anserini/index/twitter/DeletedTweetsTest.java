@@ -0,0 +1,87 @@
+package io.anserini.index.twitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class DeletedTweetsTest {
+
+  private static DeletedTweets build(String text, int runSize) throws IOException {
+    Path path = Files.createTempFile("deletes", ".bin");
+    path.toFile().deleteOnExit();
+    DeletedTweets.build(new BufferedReader(new StringReader(text)), path, runSize);
+    return DeletedTweets.open(path);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    DeletedTweets deletes = build("", 4);
+    assertEquals(0, deletes.size());
+    assertFalse(deletes.contains(0));
+    assertFalse(deletes.contains(Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testTextFormat() throws Exception {
+    DeletedTweets deletes = build("30\n10\t1234\n\n20\n10\n", 1 << 10);
+    assertEquals(3, deletes.size());
+    assertTrue(deletes.contains(10));
+    assertTrue(deletes.contains(20));
+    assertTrue(deletes.contains(30));
+    assertFalse(deletes.contains(1234));
+    assertFalse(deletes.contains(15));
+    assertFalse(deletes.contains(31));
+  }
+
+  @Test
+  public void testMatchesSet() throws Exception {
+    Random random = new Random(42);
+    TreeSet<Long> expected = new TreeSet<Long>();
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      // ids close together, so that there are duplicates across runs
+      long id = 300000000000000000L + random.nextInt(20000);
+      expected.add(id);
+      text.append(id).append('\n');
+    }
+
+    // in memory, and with an external sort over many runs
+    for (int runSize : new int[] { 1 << 16, 100 }) {
+      DeletedTweets deletes = build(text.toString(), runSize);
+      assertEquals(expected.size(), deletes.size());
+      for (long id = expected.first() - 10; id <= expected.last() + 10; id++) {
+        assertEquals(expected.contains(id), deletes.contains(id));
+      }
+    }
+  }
+
+  @Test
+  public void testIsDeletesFile() throws Exception {
+    Path text = Files.createTempFile("deletes", ".txt");
+    text.toFile().deleteOnExit();
+    Files.write(text, "1\n2\n".getBytes("UTF-8"));
+    assertFalse(DeletedTweets.isDeletesFile(text));
+
+    Path binary = Files.createTempFile("deletes", ".bin");
+    binary.toFile().deleteOnExit();
+    DeletedTweets.build(DeletedTweets.openText(text), binary);
+    assertTrue(DeletedTweets.isDeletesFile(binary));
+    assertTrue(DeletedTweets.open(binary).contains(2));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeletedTweetsTest.class);
+  }
+}
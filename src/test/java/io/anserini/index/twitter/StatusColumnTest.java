@@ -0,0 +1,83 @@
+package io.anserini.index.twitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.anserini.document.twitter.Status;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class StatusColumnTest {
+  private static final String USER = "\"user\":{\"id\":123,\"id_str\":\"123\",\"screen_name\":\"foo\","
+      + "\"followers_count\":10,\"friends_count\":20,\"statuses_count\":30}";
+
+  private static Status status(long id, long inReplyTo, double lon, double lat) {
+    String json = "{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":" + id + ",\"text\":\"hello\","
+        + USER + ",\"lang\":\"en\"";
+    if (inReplyTo > 0) {
+      json += ",\"in_reply_to_status_id\":" + inReplyTo + ",\"in_reply_to_user_id\":1";
+    }
+    if (lon != 0 || lat != 0) {
+      json += ",\"coordinates\":{\"type\":\"Point\",\"coordinates\":[" + lon + "," + lat + "]}";
+    }
+    return Status.fromJson(json + "}");
+  }
+
+  @Test
+  public void testDocValuesAndStoredSegments() throws Exception {
+    Directory dir = new RAMDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new TweetAnalyzer());
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter writer = new IndexWriter(dir, config);
+
+    // one segment with DocValues columns, one without as in older indexes
+    TweetDocumentBuilder withDocValues = new TweetDocumentBuilder(false, true);
+    writer.addDocument(withDocValues.build(status(100, 0, 0, 0)));
+    writer.addDocument(withDocValues.build(status(101, 100, -80.5, 43.5)));
+    writer.commit();
+    TweetDocumentBuilder withoutDocValues = new TweetDocumentBuilder(false, false);
+    writer.addDocument(withoutDocValues.build(status(200, 101, -79.5, 40.5)));
+    writer.addDocument(withoutDocValues.build(status(201, 0, 0, 0)));
+    writer.close();
+
+    IndexReader reader = DirectoryReader.open(dir);
+    assertEquals(2, reader.leaves().size());
+
+    StatusColumn ids = new StatusColumn(reader, StatusField.ID);
+    StatusColumn followers = new StatusColumn(reader, StatusField.FOLLOWERS_COUNT);
+    StatusColumn replies = new StatusColumn(reader, StatusField.IN_REPLY_TO_STATUS_ID);
+    StatusColumn longitudes = new StatusColumn(reader, StatusField.LONGITUDE);
+
+    // out of order, to move between segments
+    int[] docids = { 3, 0, 2, 1 };
+    long[] expectedIds = { 201, 100, 200, 101 };
+    boolean[] expectedReplies = { false, false, true, true };
+    double[] expectedLongitudes = { 0, 0, -79.5, -80.5 };
+    for (int i = 0; i < docids.length; i++) {
+      assertEquals(expectedIds[i], ids.getLong(docids[i]));
+      assertEquals(10, followers.getLong(docids[i]));
+      assertEquals(expectedReplies[i], replies.exists(docids[i]));
+      assertEquals(expectedLongitudes[i], longitudes.getDouble(docids[i]), 1e-9);
+    }
+    assertEquals(101, replies.getLong(2));
+    assertTrue(longitudes.exists(1));
+    assertFalse(longitudes.exists(0));
+
+    reader.close();
+    dir.close();
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StatusColumnTest.class);
+  }
+}
@@ -0,0 +1,75 @@
+package io.anserini.index.twitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class UserPostCountsTest {
+
+  @Test
+  public void testCounts() throws Exception {
+    UserPostCounts counts = new UserPostCounts(4);
+    counts.add(7, 100);
+    counts.add(3, 5);
+    counts.add(7, 90);
+    counts.add(7, 120);
+
+    assertEquals(2, counts.size());
+    assertEquals(3, counts.posts(7));
+    assertEquals(120, counts.statusesCount(7));
+    assertEquals(1, counts.posts(3));
+    assertEquals(0, counts.posts(4));
+    assertEquals("[3, 7]", Arrays.toString(counts.users()));
+  }
+
+  @Test
+  public void testMergeAndRoundTrip() throws Exception {
+    Random random = new Random(42);
+    Map<Long, Integer> expectedPosts = new HashMap<Long, Integer>();
+    Map<Long, Integer> expectedStatuses = new HashMap<Long, Integer>();
+
+    // counted by several "threads", which grow their tables past the initial size
+    UserPostCounts[] parts = new UserPostCounts[3];
+    for (int p = 0; p < parts.length; p++) {
+      parts[p] = new UserPostCounts(16);
+      for (int i = 0; i < 5000; i++) {
+        long user = 1 + random.nextInt(3000) * 1000003L;
+        int statuses = random.nextInt(100000);
+        parts[p].add(user, statuses);
+
+        Integer posts = expectedPosts.get(user);
+        expectedPosts.put(user, posts == null ? 1 : posts + 1);
+        Integer previous = expectedStatuses.get(user);
+        expectedStatuses.put(user, previous == null ? statuses : Math.max(previous, statuses));
+      }
+    }
+    UserPostCounts counts = new UserPostCounts();
+    for (UserPostCounts part : parts) {
+      counts.merge(part);
+    }
+
+    Path path = Files.createTempFile("counts", ".bin");
+    path.toFile().deleteOnExit();
+    counts.write(path);
+    UserPostCounts read = UserPostCounts.read(path);
+
+    assertEquals(expectedPosts.size(), read.size());
+    for (Map.Entry<Long, Integer> entry : expectedPosts.entrySet()) {
+      assertEquals((int) entry.getValue(), read.posts(entry.getKey()));
+      assertEquals((int) expectedStatuses.get(entry.getKey()), read.statusesCount(entry.getKey()));
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(UserPostCountsTest.class);
+  }
+}
@@ -0,0 +1,74 @@
+package io.anserini.index.twitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class UserTimelinesTest {
+
+  private static Map<Long, String> collect(UserTimelines timelines) throws IOException {
+    final Map<Long, String> result = new LinkedHashMap<Long, String>();
+    timelines.forEach(new UserTimelines.Handler() {
+      @Override
+      public void timeline(long userId, CharSequence text) {
+        result.put(userId, text.toString());
+      }
+    });
+    return result;
+  }
+
+  @Test
+  public void testInMemory() throws Exception {
+    Path dir = Files.createTempDirectory("timelines");
+    try (UserTimelines timelines = new UserTimelines(dir)) {
+      timelines.add(20, "b1");
+      timelines.add(10, "a1");
+      timelines.add(20, "b2");
+
+      Map<Long, String> result = collect(timelines);
+      assertEquals(0, timelines.runs());
+      assertEquals("{10=a1, 20=b1 b2}", result.toString());
+
+      // consumed, and the builders are reused
+      timelines.add(30, "c1");
+      assertEquals("{30=c1}", collect(timelines).toString());
+    }
+  }
+
+  @Test
+  public void testSpillsMatchInMemory() throws Exception {
+    Random random = new Random(42);
+    Map<Long, String> expected = new TreeMap<Long, String>();
+    Path dir = Files.createTempDirectory("timelines");
+    try (UserTimelines timelines = new UserTimelines(dir, 200)) {
+      for (int i = 0; i < 2000; i++) {
+        long user = random.nextInt(50) * 1000000000L;
+        String text = "t" + i + " café";
+        timelines.add(user, text);
+        String previous = expected.get(user);
+        expected.put(user, previous == null ? text : previous + " " + text);
+      }
+      assertTrue(timelines.runs() > 10);
+
+      Map<Long, String> result = collect(timelines);
+      assertEquals(expected.toString(), result.toString());
+      assertEquals(0, timelines.runs());
+    }
+    assertEquals(0, dir.toFile().list().length);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(UserTimelinesTest.class);
+  }
+}
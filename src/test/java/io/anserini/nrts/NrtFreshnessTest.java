@@ -0,0 +1,139 @@
+package io.anserini.nrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.anserini.index.twitter.TweetAnalyzer;
+
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NrtFreshnessTest {
+  private static final String FIELD = "text";
+
+  private Directory dir;
+  private IndexWriter writer;
+  private TrackingIndexWriter trackingWriter;
+  private SearcherManager manager;
+  private ControlledRealTimeReopenThread<IndexSearcher> reopener;
+  private NrtFreshness freshness;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new RAMDirectory();
+    writer = new IndexWriter(dir, new IndexWriterConfig(new TweetAnalyzer()));
+    trackingWriter = new TrackingIndexWriter(writer);
+    manager = new SearcherManager(writer, true, null);
+    // without a waiting request, nothing is refreshed within the test
+    reopener = new ControlledRealTimeReopenThread<>(trackingWriter, manager, 60, 0.025);
+    freshness = new NrtFreshness(trackingWriter, reopener, 2);
+    manager.addListener(freshness);
+    reopener.setDaemon(true);
+    reopener.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    reopener.close();
+    manager.close();
+    writer.close();
+    dir.close();
+  }
+
+  private void add(long id, String text) throws Exception {
+    Document doc = new Document();
+    doc.add(new TextField(FIELD, text, Field.Store.NO));
+    freshness.indexed(id, trackingWriter.addDocument(doc));
+  }
+
+  private int hits(String term) throws Exception {
+    IndexSearcher searcher = manager.acquire();
+    try {
+      return searcher.search(new TermQuery(new Term(FIELD, term)), 10).totalHits;
+    } finally {
+      manager.release(searcher);
+    }
+  }
+
+  @Test
+  public void testWaitForStatus() throws Exception {
+    add(1, "storm");
+    assertEquals(0, hits("storm"));
+
+    // the wait makes the reopen thread refresh at its minimum staleness, well before its maximum
+    long start = System.nanoTime();
+    assertTrue(freshness.await(1, 10000));
+    assertTrue(System.nanoTime() - start < 10000 * 1000000L);
+    assertEquals(1, hits("storm"));
+
+    // only the latest statuses are kept, and the others are not waited for
+    add(2, "sunny");
+    add(3, "sunny");
+    assertFalse(freshness.waitForStatus(1, 10000));
+    assertFalse(freshness.waitForStatus(42, 10000));
+    assertTrue(freshness.waitForStatus(2, 10000));
+    assertEquals(2, hits("sunny"));
+  }
+
+  @Test
+  public void testWaitForFresh() throws Exception {
+    add(1, "storm");
+    add(2, "storm");
+    assertTrue(freshness.await(0, 10000));
+    assertEquals(2, hits("storm"));
+
+    // nothing pending, so there is nothing to wait for
+    long start = System.nanoTime();
+    assertTrue(freshness.waitForFresh(10000));
+    assertTrue(System.nanoTime() - start < 10000 * 1000000L);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    Map<String, Object> before = freshness.snapshot();
+    assertEquals(0L, before.get("refreshes"));
+    assertEquals(0L, before.get("lag_samples"));
+    assertEquals(0.0, before.get("pending_ms"));
+
+    add(1, "storm");
+    Thread.sleep(5);
+    assertTrue((Double) freshness.snapshot().get("pending_ms") > 0.0);
+
+    assertTrue(freshness.waitForFresh(10000));
+    Map<String, Object> after = freshness.snapshot();
+    assertEquals(1L, after.get("refreshes"));
+    assertEquals(1L, after.get("lag_samples"));
+    assertTrue((Double) after.get("lag_last_ms") >= 5.0);
+    assertTrue((Double) after.get("lag_max_ms") >= (Double) after.get("lag_last_ms"));
+    assertEquals(0.0, after.get("pending_ms"));
+    assertEquals(trackingWriter.getGeneration(), after.get("indexed_generation"));
+
+    // checks that find nothing to refresh are not counted
+    manager.maybeRefreshBlocking();
+    assertEquals(1L, freshness.snapshot().get("refreshes"));
+    assertEquals(1L, freshness.snapshot().get("lag_samples"));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(NrtFreshnessTest.class);
+  }
+}
@@ -0,0 +1,201 @@
+package io.anserini.nrts;
+
+import static org.junit.Assert.assertEquals;
+
+import io.anserini.index.twitter.TweetAnalyzer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+  private static final String FIELD = "text";
+  private static final Analyzer ANALYZER = new TweetAnalyzer();
+
+  private Directory dir;
+  private IndexWriter writer;
+  private SearcherManager manager;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new RAMDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(ANALYZER);
+    // segments stay as flushed, so that refreshes only add new ones
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    writer = new IndexWriter(dir, config);
+    for (int i = 0; i < 10; i++) {
+      add("old" + i, i % 2 == 0 ? "storm warning" : "sunny day");
+    }
+    manager = new SearcherManager(writer, true, null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    manager.close();
+    writer.close();
+    dir.close();
+  }
+
+  private void add(String id, String text) throws Exception {
+    Document doc = new Document();
+    doc.add(new StringField("id", id, Field.Store.YES));
+    doc.add(new TextField(FIELD, text, Field.Store.NO));
+    writer.addDocument(doc);
+  }
+
+  private QueryResultCache cache(int maxEntries, QueryResultCache.Policy policy, QueryResultCache.Refresh refresh) {
+    QueryResultCache cache = new QueryResultCache(FIELD, ANALYZER, maxEntries, QueryResultCache.DEFAULT_MAX_BYTES,
+        policy, refresh);
+    manager.addListener(cache);
+    return cache;
+  }
+
+  private static Set<String> ids(IndexSearcher searcher, TopDocs topDocs) throws Exception {
+    Set<String> ids = new HashSet<>();
+    for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+      ids.add(searcher.doc(scoreDoc.doc).get("id"));
+    }
+    return ids;
+  }
+
+  private static Set<String> expected(IndexSearcher searcher, String query, int topN) throws Exception {
+    return ids(searcher, searcher.search(new QueryParser(FIELD, ANALYZER).parse(query), topN));
+  }
+
+  @Test
+  public void testHitsOnSameReader() throws Exception {
+    QueryResultCache cache = cache(10, QueryResultCache.Policy.LRU, QueryResultCache.Refresh.DROP);
+    IndexSearcher searcher = manager.acquire();
+    try {
+      TopDocs first = cache.search(searcher, "storm", 3);
+      TopDocs second = cache.search(searcher, "  storm ", 3);
+      assertEquals(ids(searcher, first), ids(searcher, second));
+      assertEquals(expected(searcher, "storm", 3), ids(searcher, second));
+    } finally {
+      manager.release(searcher);
+    }
+    assertEquals(1L, cache.snapshot().get("hits"));
+    assertEquals(1L, cache.snapshot().get("misses"));
+    assertEquals(1, cache.snapshot().get("entries"));
+
+    add("new0", "storm");
+    manager.maybeRefreshBlocking();
+    assertEquals(0, cache.snapshot().get("entries"));
+  }
+
+  @Test
+  public void testMergesNewSegments() throws Exception {
+    QueryResultCache cache = cache(10, QueryResultCache.Policy.LRU, QueryResultCache.Refresh.MERGE);
+    IndexSearcher searcher = manager.acquire();
+    try {
+      cache.search(searcher, "storm", 20);
+    } finally {
+      manager.release(searcher);
+    }
+
+    add("new0", "storm storm");
+    add("new1", "sunny");
+    manager.maybeRefreshBlocking();
+    searcher = manager.acquire();
+    try {
+      TopDocs merged = cache.search(searcher, "storm", 20);
+      assertEquals(expected(searcher, "storm", 20), ids(searcher, merged));
+      assertEquals(6, merged.totalHits);
+    } finally {
+      manager.release(searcher);
+    }
+    assertEquals(1L, cache.snapshot().get("merges"));
+
+    // a deleted hit from a full list is run again, since the next hit may be missing
+    writer.deleteDocuments(new Term("id", "old0"));
+    manager.maybeRefreshBlocking();
+    searcher = manager.acquire();
+    try {
+      cache.search(searcher, "storm", 2);
+      writer.deleteDocuments(new Term("id", "old2"));
+      manager.maybeRefreshBlocking();
+    } finally {
+      manager.release(searcher);
+    }
+    searcher = manager.acquire();
+    try {
+      assertEquals(expected(searcher, "storm", 2), ids(searcher, cache.search(searcher, "storm", 2)));
+    } finally {
+      manager.release(searcher);
+    }
+    assertEquals(1L, cache.snapshot().get("merges"));
+    assertEquals(3L, cache.snapshot().get("misses"));
+  }
+
+  @Test
+  public void testKeepsNewerEntry() throws Exception {
+    QueryResultCache cache = cache(10, QueryResultCache.Policy.LRU, QueryResultCache.Refresh.MERGE);
+    IndexSearcher older = manager.acquire();
+    try {
+      add("new0", "storm");
+      manager.maybeRefreshBlocking();
+      IndexSearcher newer = manager.acquire();
+      try {
+        cache.search(newer, "storm", 20);
+        // a request still on the older searcher runs the query, but leaves the newer hits in place
+        assertEquals(5, cache.search(older, "storm", 20).totalHits);
+        assertEquals(6, cache.search(newer, "storm", 20).totalHits);
+      } finally {
+        manager.release(newer);
+      }
+    } finally {
+      manager.release(older);
+    }
+    assertEquals(1L, cache.snapshot().get("hits"));
+    assertEquals(2L, cache.snapshot().get("misses"));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    QueryResultCache lru = cache(2, QueryResultCache.Policy.LRU, QueryResultCache.Refresh.DROP);
+    QueryResultCache lfu = cache(2, QueryResultCache.Policy.LFU, QueryResultCache.Refresh.DROP);
+    IndexSearcher searcher = manager.acquire();
+    try {
+      for (QueryResultCache cache : new QueryResultCache[] { lru, lfu }) {
+        cache.search(searcher, "storm", 5);
+        cache.search(searcher, "storm", 5);
+        cache.search(searcher, "storm", 5);
+        cache.search(searcher, "sunny", 5);
+        cache.search(searcher, "warning", 5);
+        // hot query was least recently used, but most frequently
+        cache.search(searcher, "storm", 5);
+      }
+    } finally {
+      manager.release(searcher);
+    }
+    assertEquals(2, lru.snapshot().get("entries"));
+    assertEquals(4L, lru.snapshot().get("misses"));
+    assertEquals(2, lfu.snapshot().get("entries"));
+    assertEquals(3L, lfu.snapshot().get("misses"));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryResultCacheTest.class);
+  }
+}
@@ -0,0 +1,130 @@
+package io.anserini.nrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.anserini.index.twitter.TweetDocumentBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TweetSearcherAPITest {
+  private Path dir;
+  private TweetSearcher searcher;
+  private final TweetSearcherAPI api = new TweetSearcherAPI();
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("nrts");
+    searcher = new TweetSearcher(dir.toString());
+    // the cache counts the queries that are actually run
+    searcher.enableResultCache(100, QueryResultCache.Policy.LRU, QueryResultCache.Refresh.DROP);
+    for (long id = 1; id <= 5; id++) {
+      add(id, id <= 3 ? "storm warning " + id : "sunny day " + id);
+    }
+    assertTrue(TweetSearcher.freshness.waitForFresh(10000));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TweetSearcher.resultCache = null;
+    searcher.close();
+    IOUtils.rm(dir);
+  }
+
+  private static void add(long id, String text) throws Exception {
+    long generation = TweetSearcher.trackingWriter.addDocument(
+        new TweetDocumentBuilder().build(TweetSearcherTest.status(id, text)));
+    TweetSearcher.freshness.indexed(id, generation);
+  }
+
+  private static TweetSearcherAPI.SearchAPIQuery query(String query, int count) {
+    return new TweetSearcherAPI.SearchAPIQuery(query, count);
+  }
+
+  private static List<String> docids(List<TweetSearcherAPI.SearchResult> results) {
+    List<String> docids = new ArrayList<>();
+    for (TweetSearcherAPI.SearchResult result : results) {
+      docids.add(result.getDocid());
+    }
+    Collections.sort(docids);
+    return docids;
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    List<List<TweetSearcherAPI.SearchResult>> results = api.searchBatch(Arrays.asList(
+        query("storm", 20), query("sunny", 20), query("storm AND (", 20), query(null, 20), query("storm", 20)));
+
+    // in the order of the queries, with empty results for those that do not parse
+    assertEquals(5, results.size());
+    assertEquals(Arrays.asList("1", "2", "3"), docids(results.get(0)));
+    assertEquals(Arrays.asList("4", "5"), docids(results.get(1)));
+    assertEquals(0, results.get(2).size());
+    assertEquals(0, results.get(3).size());
+    assertEquals(docids(results.get(0)), docids(results.get(4)));
+
+    // the repeated query is run once
+    assertEquals(2L, TweetSearcher.resultCache.snapshot().get("misses"));
+    assertEquals(0L, TweetSearcher.resultCache.snapshot().get("hits"));
+
+    // same results as one query at a time
+    assertEquals(docids(results.get(0)), docids(api.search(query("storm", 20))));
+    assertEquals(docids(results.get(1)), docids(api.search(query("sunny", 20))));
+    assertEquals(1, api.searchBatch(Arrays.asList(query("storm", 1))).get(0).size());
+  }
+
+  @Test
+  public void testFreshBatch() throws Exception {
+    add(6, "hail");
+    add(7, "hail");
+    TweetSearcherAPI.SearchAPIQuery status = query("hail", 20);
+    status.setStatus(6);
+    status.setFresh(10000);
+    TweetSearcherAPI.SearchAPIQuery fresh = query("hail", 10);
+    fresh.setFresh(10000);
+
+    List<List<TweetSearcherAPI.SearchResult>> results = api.searchBatch(Arrays.asList(status, fresh));
+    assertTrue(docids(results.get(0)).contains("6"));
+    assertEquals(Arrays.asList("6", "7"), docids(results.get(1)));
+  }
+
+  @Test
+  public void testRejectedBatches() throws Exception {
+    List<TweetSearcherAPI.SearchAPIQuery> full = new ArrayList<>();
+    for (int i = 0; i < TweetSearcherAPI.MAX_BATCH_QUERIES; i++) {
+      full.add(query("storm " + i, 20));
+    }
+    assertEquals(TweetSearcherAPI.MAX_BATCH_QUERIES, api.searchBatch(full).size());
+
+    List<TweetSearcherAPI.SearchAPIQuery> tooMany = new ArrayList<>(full);
+    tooMany.add(query("storm", 20));
+    List<TweetSearcherAPI.SearchAPIQuery> empty = new ArrayList<>();
+    for (List<TweetSearcherAPI.SearchAPIQuery> queries : Arrays.asList(null, empty, tooMany)) {
+      try {
+        api.searchBatch(queries);
+        fail("Expected a 400 for " + (queries == null ? "no" : queries.size()) + " queries");
+      } catch (BadRequestException e) {
+        assertEquals(400, e.getResponse().getStatus());
+      }
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TweetSearcherAPITest.class);
+  }
+}
@@ -0,0 +1,121 @@
+package io.anserini.nrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.anserini.index.twitter.TweetDocumentBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TweetSearcherServerTest {
+  private Path dir;
+  private TweetSearcher searcher;
+  private TweetSearcherServer server;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("nrts");
+    searcher = new TweetSearcher(dir.toString());
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    // one worker and one queued request, so that two stalled clients saturate the server
+    server = new TweetSearcherServer(port, 1, 1);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop(0);
+    searcher.close();
+    IOUtils.rm(dir);
+  }
+
+  private HttpURLConnection get(String pathAndQuery) throws IOException {
+    return (HttpURLConnection) new URL("http://localhost:" + port + pathAndQuery).openConnection();
+  }
+
+  private static String body(HttpURLConnection connection) throws IOException {
+    try (InputStream in = connection.getInputStream(); Scanner scanner = new Scanner(in, "UTF-8")) {
+      return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+    }
+  }
+
+  /**
+   * Opens a connection that sends the start of a request and stalls, holding whichever thread reads it.
+   */
+  private Socket stalled() throws IOException {
+    Socket socket = new Socket("localhost", port);
+    OutputStream out = socket.getOutputStream();
+    out.write("GET /search?query=storm HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    return socket;
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    long generation = TweetSearcher.trackingWriter.addDocument(
+        new TweetDocumentBuilder().build(TweetSearcherTest.status(1, "storm warning")));
+    TweetSearcher.freshness.indexed(1, generation);
+
+    HttpURLConnection connection = get("/search?query=storm&status=1&fresh=10000");
+    assertEquals(200, connection.getResponseCode());
+    String body = body(connection);
+    assertTrue(body.contains("Found 1 hits"));
+    assertTrue(body.contains("storm warning"));
+
+    assertEquals(400, get("/search").getResponseCode());
+    assertEquals(400, get("/search?query=storm&top=0").getResponseCode());
+    assertEquals(404, get("/other?query=storm").getResponseCode());
+    assertEquals(4, server.served());
+    assertEquals(0, server.rejected());
+  }
+
+  @Test
+  public void testRejectsWhenSaturated() throws Exception {
+    // one at a time, so that the worker has taken the first off the queue before the second comes in
+    Socket busy = stalled();
+    Thread.sleep(300);
+    Socket queued = stalled();
+    Thread.sleep(300);
+
+    HttpURLConnection connection = get("/search?query=storm");
+    assertEquals(503, connection.getResponseCode());
+    assertEquals("1", connection.getHeaderField("Retry-After"));
+    assertEquals(1, server.rejected());
+
+    // once the stalled clients go away, requests are served again
+    busy.close();
+    queued.close();
+    int status = 0;
+    for (int i = 0; i < 50 && status != 200; i++) {
+      status = get("/search?query=storm").getResponseCode();
+      if (status != 200) {
+        Thread.sleep(100);
+      }
+    }
+    assertEquals(200, status);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TweetSearcherServerTest.class);
+  }
+}
@@ -0,0 +1,96 @@
+package io.anserini.nrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import io.anserini.document.twitter.Status;
+import io.anserini.index.twitter.TweetDocumentBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TweetSearcherTest {
+  private static final String USER = "\"user\":{\"id\":123,\"id_str\":\"123\",\"screen_name\":\"foo\","
+      + "\"followers_count\":10,\"friends_count\":20,\"statuses_count\":30}";
+
+  private Path dir;
+  private TweetSearcher searcher;
+
+  static Status status(long id, String text) {
+    return Status.fromJson("{\"created_at\":\"Fri Feb 01 00:00:00 +0000 2013\",\"id\":" + id + ",\"text\":\""
+        + text + "\"," + USER + ",\"lang\":\"en\"}");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("nrts");
+    // searchers are only refreshed when asked to within the test
+    Query warm = TweetSearcher.newQueryParser().parse("storm");
+    searcher = new TweetSearcher(dir.toString(), 60000, Arrays.asList(warm));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    searcher.close();
+    IOUtils.rm(dir);
+  }
+
+  private static void add(long id, String text) throws Exception {
+    TweetSearcher.trackingWriter.addDocument(new TweetDocumentBuilder().build(status(id, text)));
+  }
+
+  private static int hits(IndexSearcher searcher, String query) throws Exception {
+    return TweetSearcher.search(searcher, query, 10).totalHits;
+  }
+
+  @Test
+  public void testSharedSearchers() throws Exception {
+    for (long id = 1; id <= 3; id++) {
+      add(id, "storm warning " + id);
+    }
+    TweetSearcher.searcherManager.maybeRefreshBlocking();
+
+    IndexSearcher older = TweetSearcher.searcherManager.acquire();
+    try {
+      assertEquals(3, hits(older, "storm"));
+
+      // requests share a searcher until the next refresh
+      IndexSearcher same = TweetSearcher.searcherManager.acquire();
+      assertSame(older, same);
+      TweetSearcher.searcherManager.release(same);
+
+      add(4, "storm");
+      add(5, "sunny");
+      TweetSearcher.searcherManager.maybeRefreshBlocking();
+
+      // a request holding the older searcher keeps using it, while new ones get the refreshed one
+      IndexSearcher newer = TweetSearcher.searcherManager.acquire();
+      try {
+        assertNotSame(older, newer);
+        assertEquals(4, hits(newer, "storm"));
+        assertEquals(1, hits(newer, "sunny"));
+        assertEquals(3, hits(older, "storm"));
+      } finally {
+        TweetSearcher.searcherManager.release(newer);
+      }
+    } finally {
+      TweetSearcher.searcherManager.release(older);
+    }
+    assertEquals(0, older.getIndexReader().getRefCount());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TweetSearcherTest.class);
+  }
+}
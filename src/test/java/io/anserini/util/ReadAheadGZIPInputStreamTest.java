@@ -0,0 +1,94 @@
+package io.anserini.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ReadAheadGZIPInputStreamTest {
+
+  private static byte[] gzip(byte[] data, int from, int to) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(data, from, to - from);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] readFully(ReadAheadGZIPInputStream in, int step) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[step];
+    int n;
+    while ((n = in.read(buf, 0, buf.length)) != -1)
+      out.write(buf, 0, n);
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static byte[] randomText(int length) {
+    Random random = new Random(42);
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) ('a' + random.nextInt(8));
+    return data;
+  }
+
+  @Test
+  public void testSingleMember() throws Exception {
+    byte[] data = randomText(100000);
+    // chunks much smaller than the data, so the reader keeps cycling through the pool
+    ReadAheadGZIPInputStream in = new ReadAheadGZIPInputStream(new ByteArrayInputStream(gzip(data, 0, data.length)), 1000, 2);
+    assertArrayEquals(data, readFully(in, 777));
+  }
+
+  @Test
+  public void testMultiMember() throws Exception {
+    byte[] data = randomText(50000);
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    concatenated.write(gzip(data, 0, 10000));
+    concatenated.write(gzip(data, 10000, 10001));
+    concatenated.write(gzip(data, 10001, data.length));
+
+    ReadAheadGZIPInputStream in = new ReadAheadGZIPInputStream(new ByteArrayInputStream(concatenated.toByteArray()), 4096, 3);
+    assertArrayEquals(data, readFully(in, 4096));
+  }
+
+  @Test
+  public void testSingleByteReads() throws Exception {
+    byte[] data = randomText(5000);
+    ReadAheadGZIPInputStream in = new ReadAheadGZIPInputStream(new ByteArrayInputStream(gzip(data, 0, data.length)), 64, 2);
+    for (int i = 0; i < data.length; i++)
+      assertEquals(data[i], (byte) in.read());
+    assertEquals(-1, in.read());
+    in.close();
+  }
+
+  @Test
+  public void testEarlyClose() throws Exception {
+    byte[] data = randomText(100000);
+    ReadAheadGZIPInputStream in = new ReadAheadGZIPInputStream(new ByteArrayInputStream(gzip(data, 0, data.length)), 100, 2);
+    assertEquals(data[0], (byte) in.read());
+    // must not hang on the inflater blocked on a full queue
+    in.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncated() throws Exception {
+    byte[] data = randomText(100000);
+    byte[] compressed = gzip(data, 0, data.length);
+    ReadAheadGZIPInputStream in = new ReadAheadGZIPInputStream(new ByteArrayInputStream(compressed, 0, compressed.length / 2), 1000, 2);
+    readFully(in, 1000);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ReadAheadGZIPInputStreamTest.class);
+  }
+}